@@ -0,0 +1,448 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * BTreeBulkLoader builds a BTreeFile from a stream of tuples of any size,
+ * without going through {@link BTreeFile#insertTuple}.
+ * <p>
+ * The input is sorted externally: it is cut into runs of a fixed number of
+ * tuples, which worker threads sort and spill to temporary files while the
+ * input is still being read.  The runs are then merged, in parallel rounds
+ * if there are more of them than the merge fan-in, and the merged stream is
+ * packed into leaf pages.  Since the number of tuples is known by then, the
+ * shape of the whole tree is fixed before the first page is written: every
+ * page is written exactly once, in file order, with its parent and sibling
+ * pointers already in place.  Leaves come first, then each level of
+ * internal pages, with the root last.
+ * <p>
+ * Pages are filled to the given fill factor, but never below the half-full
+ * minimum of a B+ tree, so that later inserts find room without splitting
+ * at once.
+ *
+ * @see BTreeFileEncoder
+ */
+public class BTreeBulkLoader {
+
+    /** The default number of tuples sorted in memory per run. */
+    public static final int DEFAULT_RUN_TUPLES = 1 << 16;
+
+    /** The default number of runs merged at once. */
+    public static final int DEFAULT_FAN_IN = 64;
+
+    /** The number of pages written with one gathering write. */
+    private static final int WRITE_BATCH_PAGES = 64;
+
+    private final int _keyField;
+    private final double _fillFactor;
+    private final int _runTuples;
+    private final int _fanIn;
+    private final int _threads;
+
+    /**
+     * Creates a loader that sorts runs of {@link #DEFAULT_RUN_TUPLES} tuples
+     * on all available cores.
+     *
+     * @param keyField the field the B+ tree is keyed on
+     * @param fillFactor the fraction of each page to fill, in (0, 1]
+     */
+    public BTreeBulkLoader(int keyField, double fillFactor) {
+        this(keyField, fillFactor, DEFAULT_RUN_TUPLES, DEFAULT_FAN_IN,
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param keyField the field the B+ tree is keyed on
+     * @param fillFactor the fraction of each page to fill, in (0, 1]
+     * @param runTuples the number of tuples sorted in memory per run
+     * @param fanIn the most runs merged at once, at least 2
+     * @param threads the number of threads sorting and merging runs
+     */
+    public BTreeBulkLoader(int keyField, double fillFactor, int runTuples, int fanIn, int threads) {
+        if (fillFactor <= 0 || fillFactor > 1)
+            throw new IllegalArgumentException("fill factor must be in (0, 1]");
+        if (runTuples < 1 || fanIn < 2 || threads < 1)
+            throw new IllegalArgumentException("invalid run size, fan-in or thread count");
+        _keyField = keyField;
+        _fillFactor = fillFactor;
+        _runTuples = runTuples;
+        _fanIn = fanIn;
+        _threads = threads;
+    }
+
+    /**
+     * A sorted run of tuples spilled to a temporary file.
+     */
+    private static class Run {
+        final File file;
+        final long count;
+
+        Run(File file, long count) {
+            this.file = file;
+            this.count = count;
+        }
+    }
+
+    /**
+     * Reads the tuples of a run back, in order.
+     */
+    private static class RunReader {
+        private final DataInputStream _in;
+        private final TupleDesc _td;
+        private long _left;
+        Tuple current;
+
+        RunReader(Run run, TupleDesc td) throws IOException {
+            _in = new DataInputStream(new BufferedInputStream(new FileInputStream(run.file), 1 << 16));
+            _td = td;
+            _left = run.count;
+        }
+
+        /** @return false once the run is exhausted */
+        boolean advance() throws IOException {
+            if (_left == 0) {
+                current = null;
+                _in.close();
+                return false;
+            }
+            --_left;
+            current = new Tuple(_td);
+            try {
+                for (int i = 0; i < _td.numFields(); ++i)
+                    current.setField(i, _td.getFieldType(i).parse(_in));
+            } catch (java.text.ParseException e) {
+                throw new IOException(e);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Merges runs into one sorted stream of tuples.
+     */
+    private class Merger {
+        private final PriorityQueue<RunReader> _heap;
+
+        Merger(List<Run> runs, TupleDesc td) throws IOException {
+            final Comparator<Tuple> byKey = new BTreeFileEncoder.TupleComparator(_keyField);
+            _heap = new PriorityQueue<RunReader>(Math.max(1, runs.size()), new Comparator<RunReader>() {
+                public int compare(RunReader a, RunReader b) {
+                    return byKey.compare(a.current, b.current);
+                }
+            });
+            for (Run run : runs) {
+                RunReader r = new RunReader(run, td);
+                if (r.advance())
+                    _heap.add(r);
+            }
+        }
+
+        /** @return the next tuple, or null at the end */
+        Tuple next() throws IOException {
+            RunReader r = _heap.poll();
+            if (r == null)
+                return null;
+            Tuple t = r.current;
+            if (r.advance())
+                _heap.add(r);
+            return t;
+        }
+    }
+
+    /**
+     * Sorts the tuples of input into a new BTreeFile backed by bFile.
+     * Whatever bFile held before is overwritten, so it must not be in use.
+     * The file is not added to the catalog.
+     *
+     * @param input the tuples to index, already opened
+     * @param bFile the file to back the B+ tree
+     * @return the new BTreeFile
+     */
+    public BTreeFile build(DbIterator input, File bFile)
+            throws DbException, IOException, TransactionAbortedException {
+        TupleDesc td = input.getTupleDesc();
+        ExecutorService pool = Executors.newFixedThreadPool(_threads);
+        List<Run> runs = new ArrayList<Run>();
+        try {
+            runs = sortRuns(input, td, pool);
+            while (runs.size() > _fanIn)
+                runs = mergeRound(runs, td, pool);
+            writeTree(runs, td, bFile);
+        } finally {
+            pool.shutdownNow();
+            for (Run run : runs)
+                run.file.delete();
+        }
+        return new BTreeFile(bFile, _keyField, td);
+    }
+
+    /**
+     * Cuts the input into runs that are sorted and spilled by the pool, with
+     * at most one run per thread waiting to be sorted.
+     */
+    private List<Run> sortRuns(DbIterator input, final TupleDesc td, ExecutorService pool)
+            throws DbException, IOException, TransactionAbortedException {
+        List<Future<Run>> pending = new ArrayList<Future<Run>>();
+        ArrayList<Tuple> chunk = new ArrayList<Tuple>();
+        boolean more = true;
+        while (more) {
+            more = input.hasNext();
+            if (more)
+                chunk.add(input.next());
+            if (chunk.size() == _runTuples || (!more && !chunk.isEmpty())) {
+                final ArrayList<Tuple> tuples = chunk;
+                chunk = new ArrayList<Tuple>();
+                pending.add(pool.submit(new Callable<Run>() {
+                    public Run call() throws IOException {
+                        Collections.sort(tuples, new BTreeFileEncoder.TupleComparator(_keyField));
+                        return spill(tuples, td);
+                    }
+                }));
+                int done = 0;
+                while (pending.size() - done > _threads)
+                    await(pending.get(done++));
+            }
+        }
+        List<Run> runs = new ArrayList<Run>(pending.size());
+        for (Future<Run> f : pending)
+            runs.add(await(f));
+        return runs;
+    }
+
+    /**
+     * Merges the runs in groups of the fan-in, all groups in parallel.
+     */
+    private List<Run> mergeRound(List<Run> runs, final TupleDesc td, ExecutorService pool)
+            throws IOException {
+        List<Future<Run>> merged = new ArrayList<Future<Run>>();
+        for (int i = 0; i < runs.size(); i += _fanIn) {
+            final List<Run> group = runs.subList(i, Math.min(i + _fanIn, runs.size()));
+            merged.add(pool.submit(new Callable<Run>() {
+                public Run call() throws IOException {
+                    File f = tempFile();
+                    DataOutputStream out = new DataOutputStream(
+                            new BufferedOutputStream(new FileOutputStream(f), 1 << 16));
+                    long count = 0;
+                    try {
+                        Merger m = new Merger(group, td);
+                        for (Tuple t = m.next(); t != null; t = m.next()) {
+                            write(out, t);
+                            ++count;
+                        }
+                    } finally {
+                        out.close();
+                    }
+                    for (Run run : group)
+                        run.file.delete();
+                    return new Run(f, count);
+                }
+            }));
+        }
+        List<Run> next = new ArrayList<Run>(merged.size());
+        for (Future<Run> f : merged)
+            next.add(await(f));
+        return next;
+    }
+
+    private static Run await(Future<Run> f) throws IOException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while sorting runs");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private static File tempFile() throws IOException {
+        File f = File.createTempFile("btreerun", ".dat");
+        f.deleteOnExit();
+        return f;
+    }
+
+    private static void write(DataOutputStream out, Tuple t) throws IOException {
+        for (int i = 0; i < t.getTupleDesc().numFields(); ++i)
+            t.getField(i).serialize(out);
+    }
+
+    private static Run spill(List<Tuple> tuples, TupleDesc td) throws IOException {
+        File f = tempFile();
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(f), 1 << 16));
+        try {
+            for (Tuple t : tuples)
+                write(out, t);
+        } finally {
+            out.close();
+        }
+        return new Run(f, tuples.size());
+    }
+
+    /**
+     * @return the number of pages to spread n items over, at most cap and,
+     *         unless there is only one page, at least min items per page
+     */
+    private int pagesFor(long n, int cap, int min) {
+        int target = Math.max(min, Math.min(cap, (int) (cap * _fillFactor)));
+        int p = (int) ((n + target - 1) / target);
+        while (p > 1 && n / p < min && (n + p - 2) / (p - 1) <= cap)
+            --p;
+        return Math.max(p, 1);
+    }
+
+    /** @return the index of the first item of page k when n items are spread over p pages */
+    private static long start(long n, int p, int k) {
+        return k * n / p;
+    }
+
+    /**
+     * Writes the leaves from the merged runs, then the internal levels and
+     * the root pointer.
+     */
+    private void writeTree(List<Run> runs, TupleDesc td, File bFile) throws IOException {
+        int tableid = bFile.getAbsoluteFile().hashCode();
+        int pageSize = BufferPool.getPageSize();
+        Type keyType = td.getFieldType(_keyField);
+        Type[] types = new Type[td.numFields()];
+        for (int i = 0; i < types.length; ++i)
+            types[i] = td.getFieldType(i);
+
+        long n = 0;
+        for (Run run : runs)
+            n += run.count;
+
+        DbFileChannel out = new DbFileChannel(bFile);
+        try {
+            out.truncate(0);
+            if (n == 0) {
+                // an empty file is an empty B+ tree
+                return;
+            }
+            int leafCap = (pageSize * 8 - 3 * BTreeLeafPage.INDEX_SIZE * 8) / (td.getSize() * 8 + 1);
+            int entryCap = (pageSize * 8 - (2 * BTreeInternalPage.INDEX_SIZE + 1) * 8 - 1)
+                    / ((keyType.getLen() + BTreeInternalPage.INDEX_SIZE) * 8 + 1);
+
+            // the shape of the tree: pages per level, leaves first
+            List<Integer> counts = new ArrayList<Integer>();
+            counts.add(pagesFor(n, leafCap, leafCap / 2));
+            while (counts.get(counts.size() - 1) > 1)
+                counts.add(pagesFor(counts.get(counts.size() - 1), entryCap + 1, entryCap / 2 + 1));
+            int[] base = new int[counts.size()];
+            base[0] = 1;
+            for (int level = 1; level < counts.size(); ++level)
+                base[level] = base[level - 1] + counts.get(level - 1);
+            int root = base[counts.size() - 1];
+
+            PageWriter pages = new PageWriter(out, pageSize);
+            Field[] firstKeys = writeLeaves(new Merger(runs, td), n, counts, base, types,
+                    pageSize, pages);
+            for (int level = 1; level < counts.size(); ++level)
+                firstKeys = writeInternalLevel(level, firstKeys, counts, base, keyType,
+                        tableid, pageSize, pages);
+            pages.flush();
+
+            int rootCategory = counts.size() > 1 ? BTreePageId.INTERNAL : BTreePageId.LEAF;
+            out.write(ByteBuffer.wrap(BTreeFileEncoder.convertToRootPtrPage(root, rootCategory, 0)), 0);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Collects pages that are written one after the other and writes them
+     * in batches.
+     */
+    private static class PageWriter {
+        private final DbFileChannel _out;
+        private final int _pageSize;
+        private final List<ByteBuffer> _batch = new ArrayList<ByteBuffer>();
+        private int _firstPgNo;
+
+        PageWriter(DbFileChannel out, int pageSize) {
+            _out = out;
+            _pageSize = pageSize;
+        }
+
+        void add(int pgNo, byte[] data) throws IOException {
+            if (_batch.isEmpty())
+                _firstPgNo = pgNo;
+            _batch.add(ByteBuffer.wrap(data, 0, _pageSize));
+            if (_batch.size() == WRITE_BATCH_PAGES)
+                flush();
+        }
+
+        void flush() throws IOException {
+            if (_batch.isEmpty())
+                return;
+            _out.write(_batch.toArray(new ByteBuffer[_batch.size()]),
+                    BTreeRootPtrPage.getPageSize() + (long) (_firstPgNo - 1) * _pageSize);
+            _batch.clear();
+        }
+    }
+
+    /**
+     * @return the number of the parent page of page k of a level, whose
+     *         parent level is level + 1
+     */
+    private static int parentOf(int level, int k, List<Integer> counts, int[] base) {
+        if (level + 1 == counts.size())
+            return 0; // the root points at the root pointer page
+        long n = counts.get(level);
+        int p = counts.get(level + 1);
+        // the parent q satisfies start(q) <= k < start(q + 1)
+        int q = (int) (((long) k * p + p - 1) / n);
+        while (q > 0 && start(n, p, q) > k)
+            --q;
+        while (q + 1 < p && start(n, p, q + 1) <= k)
+            ++q;
+        return base[level + 1] + q;
+    }
+
+    private Field[] writeLeaves(Merger merged, long n, List<Integer> counts, int[] base,
+            Type[] types, int pageSize, PageWriter pages) throws IOException {
+        int numLeaves = counts.get(0);
+        Field[] firstKeys = new Field[numLeaves];
+        for (int k = 0; k < numLeaves; ++k) {
+            long size = start(n, numLeaves, k + 1) - start(n, numLeaves, k);
+            ArrayList<Tuple> tuples = new ArrayList<Tuple>((int) size);
+            for (long i = 0; i < size; ++i)
+                tuples.add(merged.next());
+            firstKeys[k] = tuples.get(0).getField(_keyField);
+            byte[] data = BTreeFileEncoder.convertToLeafPage(tuples, pageSize, types.length, types, _keyField);
+            ByteBuffer header = ByteBuffer.wrap(data);
+            header.putInt(0, parentOf(0, k, counts, base));
+            header.putInt(4, k > 0 ? base[0] + k - 1 : 0);
+            header.putInt(8, k + 1 < numLeaves ? base[0] + k + 1 : 0);
+            pages.add(base[0] + k, data);
+        }
+        return firstKeys;
+    }
+
+    private Field[] writeInternalLevel(int level, Field[] childKeys, List<Integer> counts, int[] base,
+            Type keyType, int tableid, int pageSize, PageWriter pages) throws IOException {
+        int numChildren = counts.get(level - 1);
+        int numPages = counts.get(level);
+        int childCategory = level == 1 ? BTreePageId.LEAF : BTreePageId.INTERNAL;
+        Field[] firstKeys = new Field[numPages];
+        for (int q = 0; q < numPages; ++q) {
+            int from = (int) start(numChildren, numPages, q);
+            int to = (int) start(numChildren, numPages, q + 1);
+            ArrayList<BTreeEntry> entries = new ArrayList<BTreeEntry>(to - from - 1);
+            for (int c = from + 1; c < to; ++c)
+                entries.add(new BTreeEntry(childKeys[c],
+                        new BTreePageId(tableid, base[level - 1] + c - 1, childCategory),
+                        new BTreePageId(tableid, base[level - 1] + c, childCategory)));
+            firstKeys[q] = childKeys[from];
+            byte[] data = BTreeFileEncoder.convertToInternalPage(entries, pageSize, keyType, childCategory);
+            ByteBuffer.wrap(data).putInt(0, parentOf(level, q, counts, base));
+            pages.add(base[level] + q, data);
+        }
+        return firstKeys;
+    }
+}
@@ -2,7 +2,11 @@ package simpledb;
 
 import java.io.*;
 import java.util.*;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
 
 import simpledb.Predicate.Op;
 
@@ -25,6 +29,7 @@ public class BTreeFile implements DbFile {
     private final TupleDesc td;
     private final int tableid ;
     private int keyField;
+    private final DbFileChannel channel;
 
     /**
      * Constructs a B+ tree file backed by the specified file.
@@ -39,6 +44,7 @@ public class BTreeFile implements DbFile {
         this.tableid = f.getAbsoluteFile().hashCode();
         this.keyField = key;
         this.td = td;
+        this.channel = new DbFileChannel(f);
     }
 
     /**
@@ -79,17 +85,11 @@ public class BTreeFile implements DbFile {
      */
     public Page readPage(PageId pid) {
         BTreePageId id = (BTreePageId) pid;
-        BufferedInputStream bis = null;
 
         try {
-            bis = new BufferedInputStream(new FileInputStream(f));
             if(id.pgcateg() == BTreePageId.ROOT_PTR) {
                 byte pageBuf[] = new byte[BTreeRootPtrPage.getPageSize()];
-                int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
-                if (retval == -1) {
-                    throw new IllegalArgumentException("Read past end of table");
-                }
-                if (retval < BTreeRootPtrPage.getPageSize()) {
+                if (!channel.read(ByteBuffer.wrap(pageBuf), 0)) {
                     throw new IllegalArgumentException("Unable to read "
                             + BTreeRootPtrPage.getPageSize() + " bytes from BTreeFile");
                 }
@@ -99,44 +99,80 @@ public class BTreeFile implements DbFile {
             }
             else {
                 byte pageBuf[] = new byte[BufferPool.getPageSize()];
-                if (bis.skip(BTreeRootPtrPage.getPageSize() + (id.pageNumber()-1) * BufferPool.getPageSize()) !=
-                        BTreeRootPtrPage.getPageSize() + (id.pageNumber()-1) * BufferPool.getPageSize()) {
-                    throw new IllegalArgumentException(
-                            "Unable to seek to correct place in BTreeFile");
-                }
-                int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
-                if (retval == -1) {
-                    throw new IllegalArgumentException("Read past end of table");
-                }
-                if (retval < BufferPool.getPageSize()) {
+                if (!channel.read(ByteBuffer.wrap(pageBuf), pageOffset(id.pageNumber()))) {
                     throw new IllegalArgumentException("Unable to read "
                             + BufferPool.getPageSize() + " bytes from BTreeFile");
                 }
                 Debug.log(1, "BTreeFile.readPage: read page %d", id.pageNumber());
-                if(id.pgcateg() == BTreePageId.INTERNAL) {
-                    BTreeInternalPage p = new BTreeInternalPage(id, pageBuf, keyField);
-                    return p;
-                }
-                else if(id.pgcateg() == BTreePageId.LEAF) {
-                    BTreeLeafPage p = new BTreeLeafPage(id, pageBuf, keyField);
-                    return p;
-                }
-                else { // id.pgcateg() == BTreePageId.HEADER
-                    BTreeHeaderPage p = new BTreeHeaderPage(id, pageBuf);
-                    return p;
-                }
+                return parsePage(id, pageBuf);
             }
         } catch (IOException e) {
             throw new RuntimeException(e);
-        } finally {
-            // Close the file on success or error
-            try {
-                if (bis != null)
-                    bis.close();
-            } catch (IOException ioe) {
-                // Ignore failures closing the file
+        }
+    }
+
+    /**
+     * Starts reading a page through the asynchronous channel of the file.
+     * Subclasses read through {@link #readPage} on the executor instead, so
+     * that one that changes or counts reads still sees every read; they may
+     * override this method to read asynchronously as well.
+     */
+    public CompletableFuture<Page> readPageAsync(PageId pid, Executor executor) {
+        if (getClass() != BTreeFile.class)
+            return DbFile.super.readPageAsync(pid, executor);
+        final BTreePageId id = (BTreePageId) pid;
+        final byte pageBuf[];
+        long offset;
+        if (id.pgcateg() == BTreePageId.ROOT_PTR) {
+            pageBuf = new byte[BTreeRootPtrPage.getPageSize()];
+            offset = 0;
+        } else {
+            pageBuf = new byte[BufferPool.getPageSize()];
+            offset = pageOffset(id.pageNumber());
+        }
+        return channel.readAsync(ByteBuffer.wrap(pageBuf), offset).thenApply(new Function<Boolean, Page>() {
+            public Page apply(Boolean full) {
+                if (!full) {
+                    throw new IllegalArgumentException("Unable to read "
+                            + pageBuf.length + " bytes from BTreeFile");
+                }
+                Debug.log(1, "BTreeFile.readPageAsync: read page %d", id.pageNumber());
+                try {
+                    return parsePage(id, pageBuf);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
             }
+        });
+    }
+
+    // see DbFile.java for javadocs
+    public Page parsePage(PageId pid, ByteBuffer data) throws IOException {
+        byte pageBuf[] = new byte[data.remaining()];
+        data.get(pageBuf);
+        return parsePage((BTreePageId) pid, pageBuf);
+    }
+
+    private Page parsePage(BTreePageId id, byte[] pageBuf) throws IOException {
+        if(id.pgcateg() == BTreePageId.ROOT_PTR) {
+            return new BTreeRootPtrPage(id, pageBuf);
+        }
+        else if(id.pgcateg() == BTreePageId.INTERNAL) {
+            return new BTreeInternalPage(id, pageBuf, keyField);
         }
+        else if(id.pgcateg() == BTreePageId.LEAF) {
+            return new BTreeLeafPage(id, pageBuf, keyField);
+        }
+        else { // id.pgcateg() == BTreePageId.HEADER
+            return new BTreeHeaderPage(id, pageBuf);
+        }
+    }
+
+    /**
+     * Returns the offset in the file of the given non root pointer page.
+     */
+    private static long pageOffset(int pageNumber) {
+        return BTreeRootPtrPage.getPageSize() + (long) (pageNumber-1) * BufferPool.getPageSize();
     }
 
     /**
@@ -149,18 +185,38 @@ public class BTreeFile implements DbFile {
         BTreePageId id = (BTreePageId) page.getId();
 
         byte[] data = page.getPageData();
-        RandomAccessFile rf = new RandomAccessFile(f, "rw");
         if(id.pgcateg() == BTreePageId.ROOT_PTR) {
-            rf.write(data);
-            rf.close();
+            channel.write(ByteBuffer.wrap(data), 0);
         }
         else {
-            rf.seek(BTreeRootPtrPage.getPageSize() + (page.getId().pageNumber()-1) * BufferPool.getPageSize());
-            rf.write(data);
-            rf.close();
+            channel.write(ByteBuffer.wrap(data), pageOffset(id.pageNumber()));
         }
     }
 
+    /**
+     * Write several pages to disk, coalescing runs of adjacent pages into
+     * single writes.
+     *
+     * @param pages - the pages to write to disk
+     */
+    public void writePages(List<Page> pages) throws IOException {
+        List<Page> others = new ArrayList<Page>(pages.size());
+        for (Page page : pages) {
+            if (((BTreePageId) page.getId()).pgcateg() == BTreePageId.ROOT_PTR)
+                writePage(page);
+            else
+                others.add(page);
+        }
+        channel.writePages(others, pageOffset(0), BufferPool.getPageSize());
+    }
+
+    /**
+     * Closes the channel on the backing file; it is reopened on the next access.
+     */
+    public void close() throws IOException {
+        channel.close();
+    }
+
     /**
      * Returns the number of pages in this BTreeFile.
      */
@@ -169,6 +225,16 @@ public class BTreeFile implements DbFile {
         return (int) ((f.length() - BTreeRootPtrPage.getPageSize())/ BufferPool.getPageSize());
     }
 
+    /**
+     * Returns whether the specified page is part of this BTreeFile.  The
+     * root pointer page is page 0, the other pages are numbered from 1.
+     */
+    public boolean hasPage(PageId id) {
+        if (((BTreePageId) id).pgcateg() == BTreePageId.ROOT_PTR)
+            return id.pageNumber() == 0;
+        return id.pageNumber() >= 1 && id.pageNumber() <= numPages();
+    }
+
     /**
      * Returns the index of the field that this B+ tree is keyed on
      */
@@ -1044,13 +1110,10 @@ public class BTreeFile implements DbFile {
         synchronized(this) {
             if(f.length() == 0) {
                 // create the root pointer page and the root page
-                BufferedOutputStream bw = new BufferedOutputStream(
-                        new FileOutputStream(f, true));
                 byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
                 byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
-                bw.write(emptyRootPtrData);
-                bw.write(emptyLeafData);
-                bw.close();
+                channel.write(ByteBuffer.wrap(emptyRootPtrData), 0);
+                channel.write(ByteBuffer.wrap(emptyLeafData), emptyRootPtrData.length);
             }
         }
 
@@ -1106,11 +1169,8 @@ public class BTreeFile implements DbFile {
         if(headerId == null) {
             synchronized(this) {
                 // create the new page
-                BufferedOutputStream bw = new BufferedOutputStream(
-                        new FileOutputStream(f, true));
                 byte[] emptyData = BTreeInternalPage.createEmptyPageData();
-                bw.write(emptyData);
-                bw.close();
+                channel.write(ByteBuffer.wrap(emptyData), channel.size());
                 emptyPageNo = numPages();
             }
         }
@@ -1141,10 +1201,7 @@ public class BTreeFile implements DbFile {
         BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 
         // write empty page to disk
-        RandomAccessFile rf = new RandomAccessFile(f, "rw");
-        rf.seek(BTreeRootPtrPage.getPageSize() + (emptyPageNo-1) * BufferPool.getPageSize());
-        rf.write(BTreePage.createEmptyPageData());
-        rf.close();
+        channel.write(ByteBuffer.wrap(BTreePage.createEmptyPageData()), pageOffset(emptyPageNo));
 
         // make sure the page is not in the buffer pool	or in the local cache
         Database.getBufferPool().discardPage(newPageId);
@@ -1359,6 +1416,7 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
     TransactionId tid;
     BTreeFile f;
     IndexPredicate ipred;
+    BTreePageId prefetchedParent = null;
 
     /**
      * Constructor for this iterator
@@ -1388,6 +1446,50 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
             curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, null);
         }
         it = curp.iterator();
+        prefetchedParent = null;
+        prefetchSiblings();
+    }
+
+    /**
+     * Start reading the leaves to the right of the current page that share its
+     * parent, so that following the right sibling pointers does not wait for
+     * one read after the other.  Leaves whose keys are all beyond the range of
+     * the predicate are left alone.
+     */
+    private void prefetchSiblings() throws DbException, TransactionAbortedException {
+        BTreePageId parentId = curp.getParentId();
+        if(parentId.pgcateg() != BTreePageId.INTERNAL || parentId.equals(prefetchedParent)) {
+            return;
+        }
+        prefetchedParent = parentId;
+        BufferPool bp = Database.getBufferPool();
+        int limit = bp.readAheadLimit();
+        if(limit <= 0) {
+            return;
+        }
+        // the right child of an entry holds keys no smaller than the entry's
+        Op beyond = null;
+        if(ipred.getOp() == Op.LESS_THAN) {
+            beyond = Op.GREATER_THAN_OR_EQ;
+        }
+        else if(ipred.getOp() == Op.EQUALS || ipred.getOp() == Op.LESS_THAN_OR_EQ) {
+            beyond = Op.GREATER_THAN;
+        }
+        BTreeInternalPage parent = (BTreeInternalPage) bp.getPage(tid, parentId, Permissions.READ_ONLY);
+        ArrayList<PageId> ahead = new ArrayList<PageId>();
+        boolean found = false;
+        Iterator<BTreeEntry> entries = parent.iterator();
+        while(entries.hasNext() && ahead.size() < limit) {
+            BTreeEntry e = entries.next();
+            if(beyond != null && e.getKey().compare(beyond, ipred.getField())) {
+                break;
+            }
+            if(found || e.getLeftChild().equals(curp.getId())) {
+                found = true;
+                ahead.add(e.getRightChild());
+            }
+        }
+        bp.prefetch(ahead);
     }
 
     /**
@@ -1428,6 +1530,7 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
                 curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
                         nextp, Permissions.READ_ONLY);
                 it = curp.iterator();
+                prefetchSiblings();
             }
         }
 
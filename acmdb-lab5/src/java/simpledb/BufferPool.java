@@ -1,9 +1,22 @@
 package simpledb;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -13,6 +26,16 @@ import java.util.concurrent.locks.ReadWriteLock;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * The frames of the pool are split among partitions by the hash of the
+ * PageId.  Each partition has its own latch, replacement policy and, in
+ * arena mode, its own arena of free frames, so that reads, commits and
+ * evictions of pages in different partitions do not wait for each other.
+ * A partition whose pages are all pinned by dirty NO STEAL transactions
+ * borrows a frame from another partition, so the pool as a whole still
+ * holds as many pages as it was given.  Operations that need the whole
+ * pool to stand still, such as {@link #flushAllPages} and the recovery code
+ * in {@link LogFile}, take every latch through {@link #latchAll}.
  *
  * @Threadsafe, all fields are final
  */
@@ -23,24 +46,570 @@ public class BufferPool {
     private static int pageSize = PAGE_SIZE;
 
     private int _maxPageNum;
-    private Map<PageId, Page> _pidMappedPage;
+    private Partition[] _partitions;
     private LockManager lockManager;
+    private volatile boolean _steal;
+    private volatile boolean _rowLocking;
+    private Set<TransactionId> _stolenTids;
+    private PageCleaner _cleaner;
+    private Map<PageId, CompletableFuture<Boolean>> _prefetching;
+    private Set<PageId> _staleReads;
+    private Map<PageId, BufferRing> _ringPages;
+    private BufferPoolStats _stats;
+    private Map<PageId, AtomicInteger> _accesses;
+    private Map<Integer, Map<PageId, Integer>> _warmPending;
+    private CompletableFuture<Void> _warming;
+    private ResidentSetSaver _saver;
+
+    /** Most frames in a {@link BufferRing} */
+    public static final int MAX_RING_PAGES = 32;
+
+    /** Most pages a scan reads ahead of itself, see {@link #readAheadLimit} */
+    public static final int MAX_READ_AHEAD_PAGES = 32;
+
+    /** Fewest frames per partition when the number of partitions is not given */
+    public static final int MIN_PARTITION_PAGES = 64;
+
+    /** Threads that read pages ahead of scans, shared by all buffer pools */
+    private static final ExecutorService _readAheadExecutor = Executors.newFixedThreadPool(4,
+            new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "ReadAhead");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
 
     /** Default number of pages passed to the constructor. This is used by
     other classes. BufferPool should use the numPages argument to the
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
+    /** System property naming the replacement policy, see {@link #createPolicy} */
+    public static final String POLICY_PROPERTY = "simpledb.bufferpool.policy";
+
+    /** Replacement policy used when {@link #POLICY_PROPERTY} is not set */
+    public static final String DEFAULT_POLICY = "lru-2";
+
+    /** System property that turns on STEAL mode, see {@link #setSteal} */
+    public static final String STEAL_PROPERTY = "simpledb.bufferpool.steal";
+
+    /** System property that turns on row-level locking, see {@link #setRowLocking} */
+    public static final String ROW_LOCKING_PROPERTY = "simpledb.bufferpool.rowlocking";
+
+    /** System property giving the lock escalation threshold, see {@link #setEscalationThreshold} */
+    public static final String ESCALATION_PROPERTY = "simpledb.bufferpool.escalation";
+
+    /** System property that keeps clean pages off-heap, see {@link #BufferPool(int, ReplacementPolicy, boolean)} */
+    public static final String ARENA_PROPERTY = "simpledb.bufferpool.arena";
+
+    /** System property giving the number of partitions, see {@link #BufferPool(int, int)} */
+    public static final String PARTITIONS_PROPERTY = "simpledb.bufferpool.partitions";
+
+    /**
+     * One partition of the pool: the pages whose PageId hashes to it, and
+     * the frames they may take.  Every field is guarded by the latch, except
+     * that resident pages may be looked up without it.
+     */
+    private final class Partition {
+        final int _index;
+        final ReentrantLock _latch = new ReentrantLock();
+        final Map<PageId, Page> _pidMappedPage = new ConcurrentHashMap<PageId, Page>();
+        final ReplacementPolicy _policy;
+        final PageArena _arena;
+        /** the number of frames of this partition, which changes as frames are borrowed */
+        int _frames;
+        /** the number of clean pages that are both objects and in a frame */
+        int _framedObjects;
+
+        Partition(int index, int frames, ReplacementPolicy policy, boolean offHeap) {
+            _index = index;
+            _frames = frames;
+            _policy = policy;
+            _arena = offHeap ? new PageArena(frames, getPageSize()) : null;
+        }
+
+        void latch() {
+            _latch.lock();
+        }
+
+        void unlatch() {
+            _latch.unlock();
+        }
+
+        boolean isResident(PageId pid) {
+            return _pidMappedPage.containsKey(pid) || (_arena != null && _arena.contains(pid));
+        }
+
+        /**
+         * Looks up a resident page.  In arena mode a page that only has a
+         * frame is decoded from it and kept as an object for as long as
+         * transactions hold locks on it, so that a transaction sees the same
+         * object each time it asks for the page.
+         *
+         * @return the page, or null if it is not resident
+         */
+        Page cachedPage(PageId pid) throws DbException {
+            Page pg = _pidMappedPage.get(pid);
+            if (pg != null || _arena == null)
+                return pg;
+            latch();
+            try {
+                pg = _pidMappedPage.get(pid);
+                if (pg != null)
+                    return pg;
+                ByteBuffer frame = _arena.frame(pid);
+                if (frame == null)
+                    return null;
+                try {
+                    pg = Database.getCatalog().getDatabaseFile(pid.getTableId()).parsePage(pid, frame);
+                } catch (IOException e) {
+                    throw new DbException("Failed to decode page from arena: " + e.getMessage());
+                }
+                // the frame stays, so that the page can go back to it for free
+                _pidMappedPage.put(pid, pg);
+                ++_framedObjects;
+                return pg;
+            } finally {
+                unlatch();
+            }
+        }
+
+        /**
+         * Makes a clean page that was just read resident.  In arena mode only
+         * its image is kept, unless a transaction is about to use the page.
+         * Should the partition have overshot its size, pages that find no
+         * free frame stay objects until they are evicted.  Called latched.
+         */
+        void install(PageId pid, Page pg, boolean asObject) {
+            if (_arena == null || asObject || _arena.isFull())
+                _pidMappedPage.put(pid, pg);
+            else
+                _arena.store(pid, pg.getPageData());
+        }
+
+        /**
+         * In arena mode, moves a clean page a finished transaction used back
+         * to its frame, unless other transactions still hold locks on it.
+         */
+        void unpin(PageId pid) {
+            latch();
+            try {
+                Page pg = _pidMappedPage.get(pid);
+                if (pg == null || pg.isDirty() != null || lockManager.isLocked(pid))
+                    return;
+                if (_arena.contains(pid))
+                    --_framedObjects;
+                else if (!_arena.isFull())
+                    _arena.store(pid, pg.getPageData());
+                else
+                    return;
+                _pidMappedPage.remove(pid);
+            } finally {
+                unlatch();
+            }
+        }
+
+        /**
+         * Frees the frame of a page, e.g. because the page was dirtied and
+         * its object supersedes the image in the frame.  Called latched.
+         *
+         * @return false if the page had no frame
+         */
+        boolean dropFrame(PageId pid) {
+            if (!_arena.free(pid))
+                return false;
+            if (_pidMappedPage.containsKey(pid))
+                --_framedObjects;
+            return true;
+        }
+
+        /** @return the number of pages in the partition */
+        int residentCount() {
+            return _arena == null ? _pidMappedPage.size()
+                    : _pidMappedPage.size() + _arena.size() - _framedObjects;
+        }
+
+        /**
+         * Drops a page from the partition, both its object and its frame.
+         * Called latched.
+         *
+         * @return false if the page was not resident
+         */
+        boolean removeResident(PageId pid) {
+            boolean removed = _arena != null && dropFrame(pid);
+            removed |= _pidMappedPage.remove(pid) != null;
+            return removed;
+        }
+
+        /**
+         * Discards a page from the partition.  Called latched.
+         * The victim is chosen by the replacement policy, preferably among the
+         * clean pages.  Dirty pages are only evicted in STEAL mode, after they
+         * have been logged and written out.
+         *
+         * @return false if no page can be evicted
+         */
+        boolean evictPage() throws DbException {
+            Predicate<PageId> clean = new Predicate<PageId>() {
+                public boolean test(PageId pid) {
+                    Page pg = _pidMappedPage.get(pid);
+                    return pg == null || pg.isDirty() == null;
+                }
+            };
+            Predicate<PageId> any = new Predicate<PageId>() {
+                public boolean test(PageId pid) {
+                    // uncommitted row changes live only in the page object
+                    return !hasRowChanges(_pidMappedPage.get(pid));
+                }
+            };
+            while (true) {
+                PageId victim = _policy.chooseVictim(clean);
+                if (victim == null && _steal)
+                    victim = _policy.chooseVictim(any);
+                if (victim == null)
+                    return false;
+                Page pg = _pidMappedPage.get(victim);
+                if (pg != null && pg.isDirty() != null) {
+                    try {
+                        writeAhead(Collections.singletonList(pg));
+                    } catch (IOException e) {
+                        throw new DbException("Failed to write out evicted page: " + e.getMessage());
+                    }
+                }
+                boolean removed = removeResident(victim);
+                _policy.pageRemoved(victim);
+                pageRemoved(victim);
+                // the policy may still know a page that was discarded meanwhile
+                if (removed) {
+                    _stats.eviction(victim);
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Evicts a clean page, if the replacement policy finds one.  Called
+         * latched.
+         *
+         * @return false if every page in the partition is dirty
+         */
+        boolean evictCleanPage() {
+            while (true) {
+                PageId victim = _policy.chooseVictim(new Predicate<PageId>() {
+                    public boolean test(PageId pid) {
+                        Page pg = _pidMappedPage.get(pid);
+                        return pg == null || pg.isDirty() == null;
+                    }
+                });
+                if (victim == null)
+                    return false;
+                boolean removed = removeResident(victim);
+                _policy.pageRemoved(victim);
+                pageRemoved(victim);
+                if (removed) {
+                    _stats.eviction(victim);
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Gives up one frame for another partition, evicting a clean page
+         * if none is free.
+         *
+         * @return false if the partition has no free frame and no clean page
+         */
+        boolean giveFrame() {
+            latch();
+            try {
+                if (_frames == 0 || (residentCount() >= _frames && !evictCleanPage()))
+                    return false;
+                --_frames;
+                return true;
+            } finally {
+                unlatch();
+            }
+        }
+
+        void takeFrame() {
+            latch();
+            try {
+                ++_frames;
+            } finally {
+                unlatch();
+            }
+        }
+    }
+
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages, using the
+     * replacement policy named by the {@link #POLICY_PROPERTY} system
+     * property.  The pool has as many partitions as the
+     * {@link #PARTITIONS_PROPERTY} system property says, or else one per
+     * processor as long as each gets {@link #MIN_PARTITION_PAGES} frames.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, Integer.getInteger(PARTITIONS_PROPERTY, Math.min(
+                Runtime.getRuntime().availableProcessors(), numPages / MIN_PARTITION_PAGES)));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages in the given
+     * number of partitions, each with its own replacement policy of the kind
+     * named by the {@link #POLICY_PROPERTY} system property.  Clean pages
+     * are kept off-heap if the {@link #ARENA_PROPERTY} system property is
+     * set.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param numPartitions the number of partitions, at most numPages
+     */
+    public BufferPool(int numPages, int numPartitions) {
+        this(numPages, createPolicies(System.getProperty(POLICY_PROPERTY, DEFAULT_POLICY),
+                numPages, Math.max(1, Math.min(numPages, numPartitions))),
+                Boolean.getBoolean(ARENA_PROPERTY));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, off-heap if the
+     * {@link #ARENA_PROPERTY} system property is set.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy decides which page to evict when the pool is full.
+     */
+    public BufferPool(int numPages, ReplacementPolicy policy) {
+        this(numPages, policy, Boolean.getBoolean(ARENA_PROPERTY));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages.  A pool with a
+     * single replacement policy has a single partition.
+     * <p>
+     * With offHeap set, the pool keeps the images of clean pages in a
+     * {@link PageArena} of numPages frames allocated outside the Java heap.
+     * A page is decoded from its frame when a transaction asks for it and
+     * is kept as a Page object while transactions hold locks on it; once
+     * the last of them completes, the page goes back to a frame unless it
+     * is dirty.  The heap then holds objects for the pages in use rather
+     * than for every cached tuple.  Every file in the catalog must support
+     * {@link DbFile#parsePage}.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy decides which page to evict when the pool is full.
+     * @param offHeap whether to keep clean pages in an off-heap arena
+     */
+    public BufferPool(int numPages, ReplacementPolicy policy, boolean offHeap) {
+        this(numPages, new ReplacementPolicy[] { policy }, offHeap);
+    }
+
+    private BufferPool(int numPages, ReplacementPolicy[] policies, boolean offHeap) {
         // some code goes here
         _maxPageNum = numPages;
-        _pidMappedPage = new ConcurrentHashMap<PageId, Page>();
+        _partitions = new Partition[policies.length];
+        for (int i = 0; i < policies.length; ++i)
+            _partitions[i] = new Partition(i, partitionFrames(numPages, policies.length, i),
+                    policies[i], offHeap);
         lockManager = new LockManager();
+        _steal = Boolean.getBoolean(STEAL_PROPERTY);
+        _rowLocking = Boolean.getBoolean(ROW_LOCKING_PROPERTY);
+        lockManager.setEscalationThreshold(Integer.getInteger(ESCALATION_PROPERTY,
+                LockManager.DEFAULT_ESCALATION_THRESHOLD));
+        _stolenTids = Collections.newSetFromMap(new ConcurrentHashMap<TransactionId, Boolean>());
+        _prefetching = new ConcurrentHashMap<PageId, CompletableFuture<Boolean>>();
+        _staleReads = Collections.newSetFromMap(new ConcurrentHashMap<PageId, Boolean>());
+        _ringPages = new ConcurrentHashMap<PageId, BufferRing>();
+        _stats = new BufferPoolStats();
+        _accesses = new ConcurrentHashMap<PageId, AtomicInteger>();
+        _warmPending = new ConcurrentHashMap<Integer, Map<PageId, Integer>>();
+        _warming = CompletableFuture.completedFuture(null);
+    }
+
+    /** @return the frames partition i of numPartitions starts out with */
+    private static int partitionFrames(int numPages, int numPartitions, int i) {
+        return numPages / numPartitions + (i < numPages % numPartitions ? 1 : 0);
+    }
+
+    private static ReplacementPolicy[] createPolicies(String name, int numPages, int numPartitions) {
+        ReplacementPolicy[] policies = new ReplacementPolicy[numPartitions];
+        for (int i = 0; i < numPartitions; ++i)
+            policies[i] = createPolicy(name, partitionFrames(numPages, numPartitions, i));
+        return policies;
+    }
+
+    /** @return the counters of this pool */
+    public BufferPoolStats getStats() {
+        return _stats;
+    }
+
+    /** @return the number of partitions of this pool */
+    public int numPartitions() {
+        return _partitions.length;
+    }
+
+    private Partition partitionOf(PageId pid) {
+        if (_partitions.length == 1)
+            return _partitions[0];
+        // page ids of neighbouring pages differ in their low bits only
+        long mixed = (pid.hashCode() * -1640531535) & 0xffffffffL;
+        return _partitions[(int) ((mixed * _partitions.length) >>> 32)];
+    }
+
+    /**
+     * Takes the latches of the partitions of the given pages, in partition
+     * order so that two threads doing this cannot deadlock.
+     *
+     * @return the latched partitions, to be passed to {@link #unlatch}
+     */
+    private List<Partition> latch(Collection<PageId> pids) {
+        boolean[] wanted = new boolean[_partitions.length];
+        for (PageId pid : pids)
+            wanted[partitionOf(pid)._index] = true;
+        List<Partition> latched = new ArrayList<Partition>();
+        for (int i = 0; i < wanted.length; ++i) {
+            if (wanted[i]) {
+                _partitions[i].latch();
+                latched.add(_partitions[i]);
+            }
+        }
+        return latched;
+    }
+
+    private static void unlatch(List<Partition> latched) {
+        for (int i = latched.size() - 1; i >= 0; --i)
+            latched.get(i).unlatch();
+    }
+
+    /**
+     * Takes the latch of every partition, which stops all page traffic
+     * through the pool until {@link #unlatchAll}.  A thread that already
+     * holds the latch of a partition must not call this.
+     */
+    void latchAll() {
+        for (Partition part : _partitions)
+            part.latch();
+    }
+
+    void unlatchAll() {
+        for (int i = _partitions.length - 1; i >= 0; --i)
+            _partitions[i].unlatch();
+    }
+
+    /**
+     * Switches between NO STEAL (the default) and STEAL.  In STEAL mode a
+     * dirty page may be evicted before the transaction that dirtied it
+     * commits: its before image is logged with {@link LogFile#logWrite} and
+     * the log is forced before the page is written, and the page is restored
+     * from the log if the transaction aborts.  A transaction is then no
+     * longer limited to dirtying as many pages as the pool holds.
+     */
+    public void setSteal(boolean steal) {
+        _steal = steal;
+    }
+
+    public boolean isSteal() {
+        return _steal;
+    }
+
+    /**
+     * Switches between page-level locking (the default) and row-level
+     * locking for heap files.  With row locks, inserts and deletes lock the
+     * RecordId of the tuple exclusively and the page only with an intention
+     * lock, so transactions changing different rows of a page no longer
+     * wait for each other; scans lock each row they return, shared.  The
+     * page image itself is still protected by a latch in HeapPage while it
+     * changes.
+     * <p>
+     * The pages of other files, and operations on whole pages such as
+     * {@link Vacuum}, keep using page locks, which conflict with the
+     * intention locks of row lockers.  Uncommitted row changes never
+     * reach the disk: a page written out while a transaction has changed
+     * rows of it, e.g. when another one commits, is written without them,
+     * and they are taken back in memory if the transaction aborts.
+     */
+    public void setRowLocking(boolean rowLocking) {
+        _rowLocking = rowLocking;
+    }
+
+    public boolean isRowLocking() {
+        return _rowLocking;
+    }
+
+    /**
+     * Sets how many page and row locks a transaction may hold on one table
+     * before they are replaced by a single lock on the table, shared if the
+     * transaction only read the table and exclusive otherwise.  A large
+     * scan then keeps one lock instead of one per page.  Escalation is only
+     * done when no other transaction holds a conflicting lock on the table.
+     * The default is {@link LockManager#DEFAULT_ESCALATION_THRESHOLD}, or
+     * the {@link #ESCALATION_PROPERTY} system property; 0 turns escalation
+     * off.
+     */
+    public void setEscalationThreshold(int threshold) {
+        lockManager.setEscalationThreshold(threshold);
+    }
+
+    public int getEscalationThreshold() {
+        return lockManager.getEscalationThreshold();
+    }
+
+    /** @return how many times page and row locks were escalated to a table lock */
+    public long getEscalations() {
+        return lockManager.getEscalations();
+    }
+
+    private static boolean hasRowChanges(Page pg) {
+        return pg instanceof HeapPage && ((HeapPage) pg).hasRowChanges();
+    }
+
+    /**
+     * Locks a row for tid under row-level locking, waiting while another
+     * transaction holds a conflicting lock on it.
+     *
+     * @throws TransactionAbortedException if waiting would deadlock
+     */
+    void lockRow(TransactionId tid, RecordId rid, Permissions perm)
+        throws TransactionAbortedException {
+        lockManager.getLock(tid, rid, perm);
+    }
+
+    /**
+     * Locks a row for tid under row-level locking if that is possible
+     * without waiting.
+     *
+     * @return whether tid holds the lock now
+     */
+    boolean tryLockRow(TransactionId tid, RecordId rid, Permissions perm) {
+        return lockManager.tryLock(tid, rid, perm);
+    }
+
+    /** Return true if the specified transaction has a lock on the specified row */
+    public boolean holdsLock(TransactionId tid, RecordId rid) {
+        return lockManager.holdsLock(tid, rid);
+    }
+
+    /**
+     * Creates a replacement policy by name.  Known names are "clock" and
+     * "lru-K" for a positive K, e.g. "lru-2" (and "lru-1", which is plain
+     * LRU).
+     *
+     * @param name the policy name, case insensitive
+     * @param numPages the number of pages in the buffer pool
+     * @throws IllegalArgumentException if the name is not known
+     */
+    public static ReplacementPolicy createPolicy(String name, int numPages) {
+        String n = name.trim().toLowerCase();
+        if (n.equals("clock"))
+            return new ClockPolicy(numPages);
+        if (n.startsWith("lru-")) {
+            try {
+                return new LruKPolicy(Integer.parseInt(n.substring(4)), numPages);
+            } catch (NumberFormatException e) {
+                // fall through
+            }
+        }
+        throw new IllegalArgumentException("Unknown replacement policy " + name);
     }
 
     public static int getPageSize() {
@@ -75,21 +644,361 @@ public class BufferPool {
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
         // some code goes here
+        return getPage(tid, pid, perm, null);
+    }
 
+    /**
+     * Retrieve the specified page on behalf of a scan that reads through a
+     * {@link BufferRing}.  A page that is not resident takes the frame of
+     * the oldest page of the ring once the ring is full, instead of a frame
+     * chosen by the replacement policy.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @param ring the ring of the scan, or null to use the whole pool
+     * @see #ringFor
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
+        throws TransactionAbortedException, DbException {
         lockManager.getLock(tid, pid, perm);
-        Page _page = _pidMappedPage.get(pid);
-        if (_page == null) try {
-            if (_pidMappedPage.size() == _maxPageNum)
-                evictPage();
+        return fetchPage(pid, ring);
+    }
+
+    /**
+     * Retrieve a page under row-level locking.  Only an intention lock is
+     * taken on the page, for reading or writing rows of it that are locked
+     * one by one through {@link #lockRow} or {@link #tryLockRow}.
+     */
+    Page getRowPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
+        throws TransactionAbortedException, DbException {
+        lockManager.getIntentionLock(tid, pid, perm);
+        return fetchPage(pid, ring);
+    }
+
+    private Page fetchPage(PageId pid, BufferRing ring) throws DbException {
+        Partition part = partitionOf(pid);
+        Page _page = part.cachedPage(pid);
+        if (_page != null) {
+            _stats.hit(pid);
+            pageHit(part, pid, ring);
+            return _page;
+        }
+        // rather than reading the page a second time, wait for a read-ahead
+        // that is already on its way
+        CompletableFuture<Boolean> _ahead = _prefetching.get(pid);
+        if (_ahead != null && _ahead.join()) {
+            _page = part.cachedPage(pid);
+            if (_page != null) {
+                _stats.hit(pid);
+                pageHit(part, pid, ring);
+                return _page;
+            }
+        }
+        _stats.miss(pid);
+        if (ring == null)
+            return readPage(part, pid, null);
+        // read-aheads of the ring must not fill the frame freed for this page
+        synchronized (ring._filling) {
+            return readPage(part, pid, ring);
+        }
+    }
+
+    /**
+     * Retrieve the specified page without waiting for it to be read.  The
+     * lock is acquired before this returns, as by {@link #getPage}, so that
+     * a transaction takes its locks in the order of its calls; only the
+     * read of a page that is not resident is left to the returned future.
+     * Concurrent requests for the same missing page share a single read,
+     * and so do requests for a page that is already being read ahead.
+     * <p>
+     * Operators that know the pages they are going to need can request them
+     * all at once and overlap the reads, see also {@link #prefetch}.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @return completes with the page, or exceptionally with a
+     *         TransactionAbortedException or DbException
+     */
+    public CompletableFuture<Page> getPageAsync(TransactionId tid, final PageId pid, Permissions perm) {
+        final Partition part = partitionOf(pid);
+        try {
+            lockManager.getLock(tid, pid, perm);
+            Page _page = part.cachedPage(pid);
+            if (_page != null) {
+                _stats.hit(pid);
+                pageHit(part, pid, null);
+                return CompletableFuture.completedFuture(_page);
+            }
+        } catch (TransactionAbortedException | DbException e) {
+            CompletableFuture<Page> failed = new CompletableFuture<Page>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        _stats.miss(pid);
+        return prefetchPage(pid).thenCompose(new Function<Boolean, CompletionStage<Page>>() {
+            public CompletionStage<Page> apply(Boolean loaded) {
+                try {
+                    Page _page = loaded ? part.cachedPage(pid) : null;
+                    if (_page != null) {
+                        pageHit(part, pid, null);
+                        return CompletableFuture.completedFuture(_page);
+                    }
+                } catch (DbException e) {
+                    throw new CompletionException(e);
+                }
+                // read-ahead gave up on the page, e.g. because every frame
+                // is dirty or the read was stale; read it the blocking way
+                return CompletableFuture.supplyAsync(new Supplier<Page>() {
+                    public Page get() {
+                        try {
+                            return readPage(part, pid, null);
+                        } catch (DbException e) {
+                            throw new CompletionException(e);
+                        }
+                    }
+                }, _readAheadExecutor);
+            }
+        });
+    }
+
+    /**
+     * Starts reading the given pages into the buffer pool in the background,
+     * as by {@link #prefetchPage(PageId)}.  The reads are all issued before
+     * this returns, so that they overlap each other.
+     *
+     * @param pids the IDs of the pages to read
+     * @return completes when every read has finished or given up
+     */
+    public CompletableFuture<Void> prefetch(Collection<? extends PageId> pids) {
+        CompletableFuture<?>[] reads = new CompletableFuture<?>[pids.size()];
+        int i = 0;
+        for (PageId pid : pids)
+            reads[i++] = prefetchPage(pid);
+        return CompletableFuture.allOf(reads);
+    }
+
+    /**
+     * Reads a page that is not resident into a free frame of its partition.
+     */
+    private Page readPage(Partition part, PageId pid, BufferRing ring) throws DbException {
+        Page _page;
+        try {
             DbFile _file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+            if (ring == null)
+                makeRoom(part);
+            else
+                makeRoom(part, ring);
+            long start = System.nanoTime();
             _page = _file.readPage(pid);
-            _pidMappedPage.put(pid, _page);
+            _stats.read(pid, System.nanoTime() - start);
         } catch (NoSuchElementException e) {
             System.out.println(e.toString());
             throw new DbException("Get Dbfile failed");
         }
+        part.latch();
+        try {
+            // another transaction holding a shared lock may have read it meanwhile
+            Page _cached = part.cachedPage(pid);
+            if (_cached != null) {
+                pageHit(part, pid, ring);
+                return _cached;
+            }
+            part.install(pid, _page, true);
+            if (ring != null) {
+                ring.add(pid);
+                _ringPages.put(pid, ring);
+            }
+            part._policy.pageLoaded(pid);
+            _accesses.put(pid, new AtomicInteger(1));
+            return _page;
+        } finally {
+            part.unlatch();
+        }
+    }
+
+    private void pageHit(Partition part, PageId pid, BufferRing ring) {
+        // a page of a ring that is wanted outside the scan joins the pool
+        if (ring == null)
+            _ringPages.remove(pid);
+        part._policy.pageAccessed(pid);
+        AtomicInteger fresh = new AtomicInteger();
+        AtomicInteger n = _accesses.putIfAbsent(pid, fresh);
+        (n != null ? n : fresh).incrementAndGet();
+    }
+
+    /**
+     * Decides whether a sequential scan of a file should read through a
+     * {@link BufferRing}.  That is the case when the file has more pages
+     * than the pool: such a scan would push out every other page, and could
+     * not find its own pages cached the next time anyway.
+     *
+     * @param numPages the number of pages of the scanned file
+     * @return a new ring for the scan, or null if it should use the pool
+     */
+    public BufferRing ringFor(int numPages) {
+        if (numPages <= _maxPageNum)
+            return null;
+        return new BufferRing(Math.max(4, Math.min(MAX_RING_PAGES, _maxPageNum / 8)));
+    }
+
+    /**
+     * Frees a frame for one more page of the ring, by dropping the oldest
+     * page of the ring once it is full.  That page only leaves the pool if
+     * it is still clean and still belongs to the ring; otherwise it is left
+     * to the pool and a frame is found the usual way.  The freed frame moves
+     * to the partition of the page the ring is about to read.
+     */
+    private void recycle(BufferRing ring, Partition target) {
+        while (ring.isFull()) {
+            PageId old = ring.removeOldest();
+            Partition part = partitionOf(old);
+            part.latch();
+            try {
+                if (!_ringPages.remove(old, ring))
+                    continue;
+                Page pg = part._pidMappedPage.get(old);
+                if (pg != null && pg.isDirty() != null)
+                    continue;
+                if (!part.removeResident(old))
+                    continue;
+                part._policy.pageRemoved(old);
+                pageRemoved(old);
+                _stats.eviction(old);
+                if (part == target)
+                    return;
+                --part._frames;
+            } finally {
+                part.unlatch();
+            }
+            target.takeFrame();
+            return;
+        }
+    }
+
+    private void makeRoom(Partition part, BufferRing ring) throws DbException {
+        recycle(ring, part);
+        makeRoom(part);
+    }
+
+    /**
+     * Starts reading a page into the buffer pool in the background, so that
+     * a later {@link #getPage} finds it resident.  No lock is taken: the
+     * transaction that reads the page still locks it through getPage.
+     * <p>
+     * Read-ahead is only a hint.  It never evicts a dirty page, and a page
+     * that was read while a newer version of it may have left the pool is
+     * dropped instead of cached.
+     *
+     * @param pid the ID of the page to read
+     * @return completes with true if the page was resident or made resident
+     */
+    public CompletableFuture<Boolean> prefetchPage(PageId pid) {
+        return prefetchPage(pid, null);
+    }
+
+    /**
+     * Starts reading a page of a scan that uses a {@link BufferRing} into
+     * the ring, see {@link #prefetchPage(PageId)}.
+     *
+     * @param pid the ID of the page to read
+     * @param ring the ring of the scan, or null to use the whole pool
+     * @return completes with true if the page was resident or made resident
+     */
+    public CompletableFuture<Boolean> prefetchPage(final PageId pid, final BufferRing ring) {
+        if (isResident(pid))
+            return CompletableFuture.completedFuture(true);
+        CompletableFuture<Boolean> pending = _prefetching.get(pid);
+        if (pending != null)
+            return pending;
+        final DbFile file;
+        try {
+            file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        } catch (NoSuchElementException e) {
+            return CompletableFuture.completedFuture(false);
+        }
+        final CompletableFuture<Boolean> f = new CompletableFuture<Boolean>();
+        if (_prefetching.putIfAbsent(pid, f) != null)
+            return _prefetching.get(pid);
+        _staleReads.remove(pid);
+        if (isResident(pid)) {
+            _prefetching.remove(pid);
+            f.complete(true);
+            return f;
+        }
+        final long start = System.nanoTime();
+        CompletableFuture<Page> read;
+        try {
+            read = file.readPageAsync(pid, _readAheadExecutor);
+        } catch (RuntimeException e) {
+            read = new CompletableFuture<Page>();
+            read.completeExceptionally(e);
+        }
+        // the page is installed on a read-ahead thread, not on the thread
+        // that completed the I/O
+        read.handleAsync(new BiFunction<Page, Throwable, Void>() {
+            public Void apply(Page pg, Throwable failure) {
+                boolean loaded = false;
+                try {
+                    if (pg != null) {
+                        _stats.read(pid, System.nanoTime() - start);
+                        loaded = loadAhead(pid, pg, ring);
+                    }
+                } finally {
+                    _prefetching.remove(pid);
+                    f.complete(loaded);
+                }
+                return null;
+            }
+        }, _readAheadExecutor);
+        return f;
+    }
+
+    private boolean loadAhead(PageId pid, Page pg, BufferRing ring) {
+        Partition part = partitionOf(pid);
+        if (ring == null)
+            return installAhead(part, pid, pg, null);
+        synchronized (ring._filling) {
+            recycle(ring, part);
+            return installAhead(part, pid, pg, ring);
+        }
+    }
+
+    private boolean installAhead(Partition part, PageId pid, Page pg, BufferRing ring) {
+        part.latch();
+        try {
+            // the page left the pool while we were reading it, and may have
+            // been written after our read
+            if (_staleReads.remove(pid))
+                return part.isResident(pid);
+            if (part.residentCount() >= part._frames && !part.evictCleanPage())
+                return false;
+            if (!part.isResident(pid)) {
+                part.install(pid, pg, false);
+                if (ring != null) {
+                    ring.add(pid);
+                    _ringPages.put(pid, ring);
+                }
+                part._policy.pagePrefetched(pid);
+                _accesses.putIfAbsent(pid, new AtomicInteger());
+            }
+            return true;
+        } finally {
+            part.unlatch();
+        }
+    }
+
+    /**
+     * @return the most pages a scan should read ahead of itself in this pool
+     */
+    int readAheadLimit() {
+        return Math.min(MAX_READ_AHEAD_PAGES, _maxPageNum / 4);
+    }
 
-        return _page;
+    /** Return true if the specified page is in the buffer pool */
+    boolean isResident(PageId pid) {
+        return partitionOf(pid).isResident(pid);
     }
 
     /**
@@ -136,9 +1045,24 @@ public class BufferPool {
         throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
-        if (commit)
+        Set<PageId> used = _partitions[0]._arena == null ? null : lockManager.getLockedPages(tid);
+        if (commit) {
             flushPages(tid);
-        else {
+            _stolenTids.remove(tid);
+        } else {
+            // pages stolen from the transaction are on disk and must be
+            // put back from their logged before images; pages it appended
+            // are taken back
+            if (_stolenTids.contains(tid))
+                Database.getLogFile().rollback(tid);
+            // rows are taken back one by one, other transactions may have
+            // changed other rows of the same pages
+            for (PageId pid : lockManager.getWrittenRowPages(tid)) {
+                // pages with row changes are dirty, so never only in the arena
+                Page pg = partitionOf(pid)._pidMappedPage.get(pid);
+                if (pg instanceof HeapPage)
+                    ((HeapPage) pg).undoRows(tid);
+            }
             Iterator<PageId> itr = lockManager.getWrittenPage(tid).iterator();
             while (itr.hasNext()) {
                 PageId pid = itr.next();
@@ -146,6 +1070,9 @@ public class BufferPool {
             }
         }
         lockManager.relTrans(tid);
+        if (used != null)
+            for (PageId pid : used)
+                partitionOf(pid).unpin(pid);
     }
 
     /**
@@ -197,6 +1124,16 @@ public class BufferPool {
         trimCache(tid, dirtyPgList);
     }
 
+    /**
+     * Caches pages that tid changed directly in its file rather than through
+     * insertTuple() or deleteTuple(), as {@link Vacuum} does, marking them
+     * dirty like those would.
+     */
+    void pagesDirtied(TransactionId tid, ArrayList<Page> dirtyPages)
+        throws DbException {
+        trimCache(tid, dirtyPages);
+    }
+
     private void trimCache(TransactionId tid, ArrayList<Page> dirtyPages)
         throws DbException {
         Page curPg;
@@ -204,30 +1141,104 @@ public class BufferPool {
 
         while (pgItr.hasNext()) {
             curPg = pgItr.next();
-            if (!_pidMappedPage.containsKey(curPg.getId()) &&
-                    _pidMappedPage.size() == _maxPageNum)
-                evictPage();
+            Partition part = partitionOf(curPg.getId());
+            boolean resident = part.isResident(curPg.getId());
+            if (!resident)
+                makeRoom(part);
             curPg.markDirty(true, tid);
-            _pidMappedPage.put(curPg.getId(), curPg);
+            part.latch();
+            try {
+                // the dirty object supersedes the image in the arena
+                if (part._arena != null)
+                    part.dropFrame(curPg.getId());
+                part._pidMappedPage.put(curPg.getId(), curPg);
+            } finally {
+                part.unlatch();
+            }
+            if (resident)
+                part._policy.pageAccessed(curPg.getId());
+            else
+                part._policy.pageLoaded(curPg.getId());
         }
     }
 
+    /**
+     * Evicts pages until the partition has a free frame for one more page,
+     * borrowing a frame from another partition if none of its own pages
+     * can be evicted.
+     */
+    private void makeRoom(Partition part) throws DbException {
+        while (true) {
+            part.latch();
+            try {
+                if (part.residentCount() < part._frames)
+                    return;
+                if (part.evictPage())
+                    continue;
+            } finally {
+                part.unlatch();
+            }
+            if (!borrowFrame(part))
+                throw new DbException("No available page for eviction");
+        }
+    }
+
+    private boolean borrowFrame(Partition part) {
+        for (int i = 1; i < _partitions.length; ++i) {
+            Partition lender = _partitions[(part._index + i) % _partitions.length];
+            if (lender.giveFrame()) {
+                part.takeFrame();
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Flush all dirty pages to disk.
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      *     break simpledb if running in NO STEAL mode.
      */
-    public synchronized void flushAllPages() throws IOException {
+    public void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
-        for (Map.Entry<PageId, Page> e : _pidMappedPage.entrySet()) {
-            Page pg = e.getValue();
-            if (pg.isDirty() == null)
-                continue;
-            DbFile f = Database.getCatalog().getDatabaseFile(pg.getId().getTableId());
-            f.writePage(pg);
-            pg.setBeforeImage();
-            pg.markDirty(false, null);
+        latchAll();
+        try {
+            List<Page> dirty = new ArrayList<Page>();
+            for (Partition part : _partitions)
+                for (Page pg : part._pidMappedPage.values())
+                    if (pg.isDirty() != null)
+                        dirty.add(pg);
+            writePages(dirty);
+            for (Page pg : dirty) {
+                pg.setBeforeImage();
+                pg.markDirty(false, null);
+            }
+        } finally {
+            unlatchAll();
+        }
+    }
+
+    /**
+     * Writes pages grouped by file, so that each file can sort its pages
+     * and write adjacent ones together.
+     */
+    private void writePages(Collection<Page> pages) throws IOException {
+        Map<Integer, List<Page>> byTable = new HashMap<Integer, List<Page>>();
+        for (Page pg : pages) {
+            List<Page> l = byTable.get(pg.getId().getTableId());
+            if (l == null) {
+                l = new ArrayList<Page>();
+                byTable.put(pg.getId().getTableId(), l);
+            }
+            l.add(pg);
+        }
+        for (Map.Entry<Integer, List<Page>> e : byTable.entrySet()) {
+            long start = System.nanoTime();
+            Database.getCatalog().getDatabaseFile(e.getKey()).writePages(e.getValue());
+            // a file writes adjacent pages together, so only the mean is known
+            _stats.writeBack(e.getKey(), (System.nanoTime() - start) / e.getValue().size(),
+                    e.getValue().size());
         }
     }
 
@@ -239,64 +1250,373 @@ public class BufferPool {
         Also used by B+ tree files to ensure that deleted pages
         are removed from the cache so they can be reused safely
     */
-    public synchronized void discardPage(PageId pid) {
+    public void discardPage(PageId pid) {
         // some code goes here
         // not necessary for lab1
-        _pidMappedPage.remove(pid);
+        Partition part = partitionOf(pid);
+        part.latch();
+        try {
+            if (part.removeResident(pid))
+                part._policy.pageRemoved(pid);
+            // the page may have just been rewritten on disk, e.g. by recovery
+            pageRemoved(pid);
+        } finally {
+            part.unlatch();
+        }
     }
 
     /**
      * Flushes a certain page to disk
      * @param pid an ID indicating the page to flush
      */
-    private synchronized void flushPage(PageId pid) throws IOException {
+    private void flushPage(PageId pid) throws IOException {
         // some code goes here
         // not necessary for lab1
-        Page pg = _pidMappedPage.get(pid);
+        Partition part = partitionOf(pid);
+        part.latch();
+        try {
+            Page pg = part._pidMappedPage.get(pid);
 
-        if (pg == null || pg.isDirty() == null)
-            return;
-        DbFile f = Database.getCatalog().getDatabaseFile(pg.getId().getTableId());
-        f.writePage(pg);
-        pg.markDirty(false, null);
-        pg.setBeforeImage();
+            if (pg == null || pg.isDirty() == null)
+                return;
+            DbFile f = Database.getCatalog().getDatabaseFile(pg.getId().getTableId());
+            long start = System.nanoTime();
+            f.writePage(pg);
+            _stats.writeBack(pid.getTableId(), System.nanoTime() - start, 1);
+            pg.markDirty(false, null);
+            pg.setBeforeImage();
+        } finally {
+            part.unlatch();
+        }
     }
 
     /** Write all pages of the specified transaction to disk.
      */
-    public synchronized  void flushPages(TransactionId tid) throws IOException {
+    public void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
 
-        Iterator<PageId> itr = lockManager.getWrittenPage(tid).iterator();
-        while (itr.hasNext()) {
-            PageId pid = itr.next();
-            Page pg = _pidMappedPage.get(pid);
-            if (pg != null) {
-                DbFile f = Database.getCatalog().getDatabaseFile(pid.getTableId());
-                f.writePage(pg);
-                pg.setBeforeImage();
+        Set<PageId> written = lockManager.getWrittenPage(tid);
+        Set<PageId> rowPages = lockManager.getWrittenRowPages(tid);
+        written.addAll(rowPages);
+        // only the partitions of the transaction's pages wait for the write
+        List<Partition> latched = latch(written);
+        try {
+            List<Page> resident = new ArrayList<Page>();
+            List<Page> dirty = new ArrayList<Page>();
+            Iterator<PageId> itr = written.iterator();
+            while (itr.hasNext()) {
+                PageId pid = itr.next();
+                Page pg = partitionOf(pid)._pidMappedPage.get(pid);
+                if (pg == null)
+                    continue;
+                // the rows the transaction changed are written from now on
+                if (rowPages.contains(pid) && pg instanceof HeapPage)
+                    ((HeapPage) pg).rowsCommitted(tid);
+                resident.add(pg);
+                if (pg.isDirty() != null)
+                    dirty.add(pg);
+            }
+            writePages(dirty);
+            for (Page pg : dirty)
                 pg.markDirty(false, null);
+            // pages written ahead by the page cleaner are already on disk, but
+            // their before image still has to move forward
+            for (Page pg : resident)
+                pg.setBeforeImage();
+        } finally {
+            unlatch(latched);
+        }
+    }
+
+    /**
+     * Locks a page without reading it, e.g. a page a transaction is about
+     * to append to a file.
+     */
+    void lockPage(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException {
+        lockManager.getLock(tid, pid, perm);
+    }
+
+    /**
+     * Locks a page without reading it if no other transaction holds a
+     * conflicting lock, without waiting.
+     *
+     * @return whether tid holds the lock now
+     */
+    boolean tryLockPage(TransactionId tid, PageId pid, Permissions perm) {
+        return lockManager.tryLock(tid, pid, perm);
+    }
+
+    /**
+     * Called when a transaction wrote pages straight to a file and logged
+     * them, as {@link HeapFile#bulkLoad} does.  Should the transaction
+     * abort, they are taken back through {@link LogFile#rollback}.
+     */
+    void appendedPages(TransactionId tid) {
+        _stolenTids.add(tid);
+    }
+
+    /**
+     * Called by {@link LogFile#rollback} once the pages stolen from the
+     * transaction have been put back on disk.
+     */
+    void rolledBack(TransactionId tid) {
+        _stolenTids.remove(tid);
+    }
+
+    /**
+     * Writes out dirty pages of transactions that have not committed yet,
+     * following the write-ahead rule: the before images are logged and the
+     * log forced before the pages reach the file.  Called with the
+     * partitions of the pages latched.
+     * <p>
+     * Each page is marked clean before its contents are captured, so an
+     * update that races with the write marks the page dirty again instead
+     * of being lost.  Pages with uncommitted row changes are skipped.
+     *
+     * @return the number of pages written
+     */
+    private int writeAhead(List<Page> pages) throws IOException {
+        LogFile log = Database.getLogFile();
+        List<Page> logged = new ArrayList<Page>(pages.size());
+        for (Page pg : pages) {
+            TransactionId dirtier = pg.isDirty();
+            if (dirtier == null || hasRowChanges(pg))
+                continue;
+            pg.markDirty(false, null);
+            log.logWrite(dirtier, pg.getBeforeImage(), pg);
+            _stolenTids.add(dirtier);
+            logged.add(pg);
+        }
+        if (logged.isEmpty())
+            return 0;
+        log.force();
+        writePages(logged);
+        return logged.size();
+    }
+
+    /**
+     * Starts a background {@link PageCleaner} for this buffer pool, stopping
+     * the one already running, if any.  The cleaner only writes pages in
+     * STEAL mode, see {@link #setSteal}.
+     *
+     * @param intervalMillis how long the cleaner sleeps between rounds
+     * @param pagesPerRound the most pages written in one round
+     * @param highDirtyRatio the fraction of dirty frames that starts cleaning
+     * @param lowDirtyRatio the fraction of dirty frames that stops cleaning
+     */
+    public synchronized PageCleaner startPageCleaner(long intervalMillis, int pagesPerRound,
+            double highDirtyRatio, double lowDirtyRatio) {
+        stopPageCleaner();
+        _cleaner = new PageCleaner(this, intervalMillis, pagesPerRound, highDirtyRatio, lowDirtyRatio);
+        _cleaner.start();
+        return _cleaner;
+    }
+
+    /** Stops the background page cleaner, if one is running. */
+    public synchronized void stopPageCleaner() {
+        if (_cleaner != null) {
+            _cleaner.shutdown();
+            _cleaner = null;
+        }
+    }
+
+    /**
+     * Starts a background {@link ResidentSetSaver} that saves the resident
+     * set of this pool to the given file, stopping the one already running,
+     * if any.
+     *
+     * @param f the file to save to, see {@link #saveResidentSet}
+     * @param intervalMillis how long the saver sleeps between saves
+     */
+    public synchronized ResidentSetSaver startResidentSetSaver(File f, long intervalMillis) {
+        stopResidentSetSaver();
+        _saver = new ResidentSetSaver(this, f, intervalMillis);
+        _saver.start();
+        return _saver;
+    }
+
+    /** Stops the background resident set saver, if one is running, after a last save. */
+    public synchronized void stopResidentSetSaver() {
+        if (_saver != null) {
+            _saver.shutdown();
+            _saver = null;
+        }
+    }
+
+    /**
+     * Saves the ids of the resident pages, with the number of requests each
+     * has had since it was read, to a file that {@link #warmUp} reads back.
+     * Pages still waiting to be preloaded from an earlier save are kept.
+     *
+     * @param f the file to write
+     */
+    public void saveResidentSet(File f) throws IOException {
+        Map<PageId, Integer> accesses = new LinkedHashMap<PageId, Integer>();
+        for (Map<PageId, Integer> pending : _warmPending.values())
+            accesses.putAll(pending);
+        for (Map.Entry<PageId, AtomicInteger> e : _accesses.entrySet()) {
+            if (isResident(e.getKey()))
+                accesses.put(e.getKey(), e.getValue().get());
+        }
+        ResidentSetSaver.write(f, accesses);
+    }
+
+    /**
+     * Preloads the pages saved by {@link #saveResidentSet}, at most as many
+     * as the pool holds and the most requested first.  The pages of each
+     * table are read ahead in file order.  Tables that are not in the
+     * catalog yet are preloaded once they are added to it.
+     * <p>
+     * The file may be older than the tables: pages of tables that are gone
+     * or past the end of their file are skipped.  Like any read-ahead,
+     * preloading takes no locks and never evicts a dirty page.
+     *
+     * @param f the file to read; nothing is preloaded if it does not exist
+     * @return completes when the pages of the tables now in the catalog have
+     *         been read, see also {@link #warming}
+     */
+    public CompletableFuture<Void> warmUp(File f) {
+        return warmUp(f, Database.getCatalog());
+    }
+
+    CompletableFuture<Void> warmUp(File f, Catalog catalog) {
+        Map<PageId, Integer> saved;
+        try {
+            saved = ResidentSetSaver.read(f);
+        } catch (IOException e) {
+            System.err.println("Not preloading the buffer pool from " + f + ": " + e);
+            return CompletableFuture.completedFuture(null);
+        }
+        List<Map.Entry<PageId, Integer>> hottest = new ArrayList<Map.Entry<PageId, Integer>>(saved.entrySet());
+        Collections.sort(hottest, new Comparator<Map.Entry<PageId, Integer>>() {
+            public int compare(Map.Entry<PageId, Integer> a, Map.Entry<PageId, Integer> b) {
+                return Integer.compare(b.getValue(), a.getValue());
             }
+        });
+        Map<Integer, Map<PageId, Integer>> byTable = new HashMap<Integer, Map<PageId, Integer>>();
+        for (Map.Entry<PageId, Integer> e : hottest.subList(0, Math.min(_maxPageNum, hottest.size()))) {
+            Map<PageId, Integer> pages = byTable.get(e.getKey().getTableId());
+            if (pages == null) {
+                pages = new HashMap<PageId, Integer>();
+                byTable.put(e.getKey().getTableId(), pages);
+            }
+            pages.put(e.getKey(), e.getValue());
         }
+        _warmPending.putAll(byTable);
 
+        List<CompletableFuture<Void>> loads = new ArrayList<CompletableFuture<Void>>();
+        Iterator<Integer> tableIds = catalog.tableIdIterator();
+        while (tableIds.hasNext()) {
+            int tableId = tableIds.next();
+            if (_warmPending.containsKey(tableId))
+                loads.add(tableAdded(catalog.getDatabaseFile(tableId)));
+        }
+        return CompletableFuture.allOf(loads.toArray(new CompletableFuture<?>[loads.size()]));
     }
+
     /**
-     * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Called by the {@link Catalog} when a table is added, to preload the
+     * pages of the table that {@link #warmUp} found in the saved resident
+     * set.
+     *
+     * @return completes when the pages have been read
      */
-    private synchronized void evictPage() throws DbException {
-        // some code goes here
-        // not necessary for lab1
+    CompletableFuture<Void> tableAdded(DbFile file) {
+        Map<PageId, Integer> pending = _warmPending.remove(file.getId());
+        if (pending == null)
+            return CompletableFuture.completedFuture(null);
+        List<PageId> pids = new ArrayList<PageId>();
+        for (Map.Entry<PageId, Integer> e : pending.entrySet()) {
+            try {
+                if (!file.hasPage(e.getKey()))
+                    continue;
+            } catch (UnsupportedOperationException ex) {
+                // let the read find out
+            }
+            pids.add(e.getKey());
+            // the pages keep their rank for the next save
+            _accesses.putIfAbsent(e.getKey(), new AtomicInteger(e.getValue()));
+        }
+        Collections.sort(pids, new Comparator<PageId>() {
+            public int compare(PageId a, PageId b) {
+                return Integer.compare(a.pageNumber(), b.pageNumber());
+            }
+        });
+        CompletableFuture<Void> loaded = prefetch(pids);
+        synchronized (this) {
+            _warming = CompletableFuture.allOf(_warming, loaded);
+        }
+        return loaded;
+    }
 
-        Iterator<Map.Entry<PageId, Page>> itr = _pidMappedPage.entrySet().iterator();
-        while (itr.hasNext()) {
-            Page pg = itr.next().getValue();
-            if (pg.isDirty() == null) {
-                itr.remove();
-                return;
+    /**
+     * @return completes once every page that {@link #warmUp} has started
+     *         to preload so far has been read, e.g. for a server to wait on
+     *         before it takes queries
+     */
+    public synchronized CompletableFuture<Void> warming() {
+        return _warming;
+    }
+
+    /**
+     * @return the fraction of the frames of this pool that hold dirty pages
+     */
+    double dirtyRatio() {
+        int dirty = 0;
+        for (Partition part : _partitions)
+            for (Page pg : part._pidMappedPage.values())
+                if (pg.isDirty() != null)
+                    ++dirty;
+        return (double) dirty / _maxPageNum;
+    }
+
+    /**
+     * Writes out up to maxPages dirty pages, in file order, ahead of commit
+     * or eviction.  Used by the {@link PageCleaner}.  Commits write their
+     * own pages, so every dirty page belongs to a transaction that has not
+     * committed yet; in NO STEAL mode nothing is written.
+     *
+     * @return the number of pages written
+     */
+    int cleanPages(int maxPages) throws IOException {
+        if (!_steal)
+            return 0;
+        List<Page> dirty = new ArrayList<Page>();
+        for (Partition part : _partitions)
+            for (Page pg : part._pidMappedPage.values())
+                if (pg.isDirty() != null)
+                    dirty.add(pg);
+        Collections.sort(dirty, new Comparator<Page>() {
+            public int compare(Page a, Page b) {
+                int c = Integer.compare(a.getId().getTableId(), b.getId().getTableId());
+                return c != 0 ? c : Integer.compare(a.getId().pageNumber(), b.getId().pageNumber());
             }
+        });
+        if (dirty.size() > maxPages)
+            dirty = dirty.subList(0, maxPages);
+        List<PageId> pids = new ArrayList<PageId>(dirty.size());
+        for (Page pg : dirty)
+            pids.add(pg.getId());
+        List<Partition> latched = latch(pids);
+        try {
+            return writeAhead(dirty);
+        } finally {
+            unlatch(latched);
         }
-        throw new DbException("No available page for eviction");
     }
-}
\ No newline at end of file
+
+    /**
+     * Called with the partition of the page latched whenever a page leaves
+     * the pool or is discarded.  By then the file holds the version of the
+     * page later readers should see, so only a read-ahead already in
+     * progress can end up with a stale copy.
+     */
+    private void pageRemoved(PageId pid) {
+        _ringPages.remove(pid);
+        _accesses.remove(pid);
+        if (_prefetching.containsKey(pid))
+            _staleReads.add(pid);
+    }
+}
@@ -0,0 +1,234 @@
+package simpledb;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * BufferPoolStats counts what the buffer pool does, per table: requests
+ * that hit a resident page, requests that missed, pages evicted, dirty
+ * pages written back, and how long the files took to read and write pages.
+ * Every BufferPool has one, see {@link BufferPool#getStats}; the one of the
+ * current pool is registered with the platform MBean server under
+ * {@link #OBJECT_NAME}, and the shell prints it on <tt>SHOW BUFFERPOOL</tt>.
+ *
+ * @Threadsafe
+ */
+public class BufferPoolStats implements BufferPoolStatsMBean {
+
+    /** The JMX name the stats of the current buffer pool are registered under */
+    public static final String OBJECT_NAME = "simpledb:type=BufferPool";
+
+    /** The counters of one table. */
+    public static class TableCounters {
+        final LongAdder _hits = new LongAdder();
+        final LongAdder _misses = new LongAdder();
+        final LongAdder _evictions = new LongAdder();
+        final LatencyHistogram _reads = new LatencyHistogram();
+        final LatencyHistogram _writes = new LatencyHistogram();
+
+        public long hits() {
+            return _hits.sum();
+        }
+
+        public long misses() {
+            return _misses.sum();
+        }
+
+        /** @return hits over requests, or 0 if there were none */
+        public double hitRatio() {
+            long hits = hits(), requests = hits + misses();
+            return requests == 0 ? 0 : (double) hits / requests;
+        }
+
+        public long evictions() {
+            return _evictions.sum();
+        }
+
+        /** @return the number of dirty pages written back */
+        public long writeBacks() {
+            return _writes.count();
+        }
+
+        /** @return the times the file took to read pages */
+        public LatencyHistogram reads() {
+            return _reads;
+        }
+
+        /** @return the times the file took to write pages */
+        public LatencyHistogram writes() {
+            return _writes;
+        }
+
+        void reset() {
+            _hits.reset();
+            _misses.reset();
+            _evictions.reset();
+            _reads.reset();
+            _writes.reset();
+        }
+    }
+
+    private final Map<Integer, TableCounters> _tables = new ConcurrentHashMap<Integer, TableCounters>();
+    private final TableCounters _total = new TableCounters();
+
+    private TableCounters counters(int tableId) {
+        TableCounters c = _tables.get(tableId);
+        if (c == null) {
+            _tables.putIfAbsent(tableId, new TableCounters());
+            c = _tables.get(tableId);
+        }
+        return c;
+    }
+
+    void hit(PageId pid) {
+        counters(pid.getTableId())._hits.increment();
+        _total._hits.increment();
+    }
+
+    void miss(PageId pid) {
+        counters(pid.getTableId())._misses.increment();
+        _total._misses.increment();
+    }
+
+    void eviction(PageId pid) {
+        counters(pid.getTableId())._evictions.increment();
+        _total._evictions.increment();
+    }
+
+    /** Records a page read from disk that took nanos nanoseconds */
+    void read(PageId pid, long nanos) {
+        counters(pid.getTableId())._reads.record(nanos);
+        _total._reads.record(nanos);
+    }
+
+    /** Records count dirty pages of a table written back in nanos nanoseconds each */
+    void writeBack(int tableId, long nanos, int count) {
+        counters(tableId)._writes.record(nanos, count);
+        _total._writes.record(nanos, count);
+    }
+
+    /**
+     * @return the counters of a table, all zero if the pool has not seen
+     *         a page of it
+     */
+    public TableCounters forTable(int tableId) {
+        TableCounters c = _tables.get(tableId);
+        return c != null ? c : new TableCounters();
+    }
+
+    /** @return the counters summed over every table */
+    public TableCounters total() {
+        return _total;
+    }
+
+    /** @return the ids of the tables the pool has seen pages of, in order */
+    public SortedSet<Integer> tableIds() {
+        return new TreeSet<Integer>(_tables.keySet());
+    }
+
+    public long getHits() {
+        return _total.hits();
+    }
+
+    public long getMisses() {
+        return _total.misses();
+    }
+
+    public double getHitRatio() {
+        return _total.hitRatio();
+    }
+
+    public long getEvictions() {
+        return _total.evictions();
+    }
+
+    public long getWriteBacks() {
+        return _total.writeBacks();
+    }
+
+    public long getPageReads() {
+        return _total._reads.count();
+    }
+
+    public double getMeanReadMicros() {
+        return _total._reads.meanNanos() / 1000;
+    }
+
+    public double getP99ReadMicros() {
+        return _total._reads.percentileNanos(0.99) / 1000.0;
+    }
+
+    public double getMeanWriteMicros() {
+        return _total._writes.meanNanos() / 1000;
+    }
+
+    public double getP99WriteMicros() {
+        return _total._writes.percentileNanos(0.99) / 1000.0;
+    }
+
+    public void reset() {
+        for (TableCounters c : _tables.values())
+            c.reset();
+        _total.reset();
+    }
+
+    private static String tableName(int tableId) {
+        try {
+            return Database.getCatalog().getTableName(tableId);
+        } catch (RuntimeException e) {
+            // the table is no longer in the catalog
+            return Integer.toString(tableId);
+        }
+    }
+
+    private static void appendLine(StringBuilder sb, String name, TableCounters c) {
+        sb.append(String.format("%-20s %10d %10d %6.1f %10d %10d %9.1f %9.1f %9.1f %9.1f%n",
+                name, c.hits(), c.misses(),
+                100 * c.hitRatio(), c.evictions(), c.writeBacks(),
+                c._reads.meanNanos() / 1000, c._reads.percentileNanos(0.99) / 1000.0,
+                c._writes.meanNanos() / 1000, c._writes.percentileNanos(0.99) / 1000.0));
+    }
+
+    /**
+     * @return a table of the counters, one line per table plus a total;
+     *         times are in microseconds
+     */
+    public String getReport() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-20s %10s %10s %6s %10s %10s %9s %9s %9s %9s%n", "table", "hits",
+                "misses", "hit%", "evictions", "writebacks", "read avg", "read p99", "write avg", "write p99"));
+        for (int tableId : tableIds())
+            appendLine(sb, tableName(tableId), _tables.get(tableId));
+        appendLine(sb, "(total)", _total);
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return getReport();
+    }
+
+    /**
+     * Registers these stats with the platform MBean server under
+     * {@link #OBJECT_NAME}, replacing the stats of an earlier buffer pool.
+     */
+    void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            synchronized (BufferPoolStats.class) {
+                if (server.isRegistered(name))
+                    server.unregisterMBean(name);
+                server.registerMBean(this, name);
+            }
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+}
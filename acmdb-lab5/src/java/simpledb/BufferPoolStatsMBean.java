@@ -0,0 +1,45 @@
+package simpledb;
+
+/**
+ * The management interface of {@link BufferPoolStats}, through which JMX
+ * clients such as jconsole read the counters of the buffer pool.  The
+ * counters cover every table; the per-table breakdown is in the report.
+ */
+public interface BufferPoolStatsMBean {
+
+    /** @return the number of requests for pages that were resident */
+    public long getHits();
+
+    /** @return the number of requests for pages that had to be read */
+    public long getMisses();
+
+    /** @return hits over requests, or 0 if there were none */
+    public double getHitRatio();
+
+    /** @return the number of pages that left the pool to make room */
+    public long getEvictions();
+
+    /** @return the number of dirty pages written back to their files */
+    public long getWriteBacks();
+
+    /** @return the number of pages read from disk, by misses and read-ahead */
+    public long getPageReads();
+
+    /** @return the mean time to read a page, in microseconds */
+    public double getMeanReadMicros();
+
+    /** @return the 99th percentile time to read a page, in microseconds */
+    public double getP99ReadMicros();
+
+    /** @return the mean time to write a page, in microseconds */
+    public double getMeanWriteMicros();
+
+    /** @return the 99th percentile time to write a page, in microseconds */
+    public double getP99WriteMicros();
+
+    /** @return the counters of every table, one line per table */
+    public String getReport();
+
+    /** Sets every counter back to zero. */
+    public void reset();
+}
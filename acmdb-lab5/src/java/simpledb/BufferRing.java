@@ -0,0 +1,48 @@
+package simpledb;
+
+import java.util.ArrayDeque;
+
+/**
+ * A BufferRing is a small, private set of buffer pool frames that a large
+ * sequential scan reads through.  Once the ring is full, the scan reuses the
+ * frame of its oldest page instead of asking the replacement policy for a
+ * victim, so a scan of a table much larger than the pool only ever occupies
+ * a few frames and the rest of the pool keeps its hot pages.
+ * <p>
+ * A page of the ring that is requested outside the scan joins the pool
+ * proper and leaves the ring; so do pages the scan dirties, which the ring
+ * cannot simply drop.
+ * <p>
+ * Rings are handed out by {@link BufferPool#ringFor}.  A ring is shared by
+ * the partitions of the pool its pages hash to, so it guards its own state.
+ */
+public class BufferRing {
+
+    private final int _capacity;
+    private final ArrayDeque<PageId> _pages;
+    /** held from freeing a frame of the ring until its new page is added */
+    final Object _filling = new Object();
+
+    BufferRing(int capacity) {
+        _capacity = capacity;
+        _pages = new ArrayDeque<PageId>(capacity);
+    }
+
+    /** @return the number of frames of the ring */
+    public int capacity() {
+        return _capacity;
+    }
+
+    synchronized boolean isFull() {
+        return _pages.size() >= _capacity;
+    }
+
+    synchronized void add(PageId pid) {
+        _pages.addLast(pid);
+    }
+
+    /** @return the page that has been in the ring longest */
+    synchronized PageId removeOldest() {
+        return _pages.pollFirst();
+    }
+}
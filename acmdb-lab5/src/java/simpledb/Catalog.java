@@ -53,6 +53,7 @@ public class Catalog {
         // some code goes here
         _idMappedTable.put(file.getId(), new Table(file, name, pkeyField));
         _nameMappedTable.put(name, file.getId());
+        Database.getBufferPool().tableAdded(file);
     }
 
     public void addTable(DbFile file, String name) {
@@ -133,6 +134,20 @@ public class Catalog {
         throw new NoSuchElementException("Can not find table with table id:".concat(String.valueOf(id)));
     }
     
+    /**
+     * Closes the files of all tables in the catalog.  The tables stay in the
+     * catalog and their files are reopened when next accessed.
+     */
+    public void closeFiles() {
+        for (Table t : _idMappedTable.values()) {
+            try {
+                t.file.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
     /** Delete all tables from the catalog */
     public void clear() {
         // some code goes here
@@ -141,6 +156,14 @@ public class Catalog {
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line describes one table as
+     * <pre>name (field type [pk], field type [pk], ...) [storage]</pre>
+     * where the optional storage keyword selects how the table's file is
+     * accessed; <code>mmap</code> memory-maps a read-mostly table,
+     * <code>slotted</code> stores it in a {@link SlottedFile}, which suits
+     * tables of short strings, and <code>deflate</code> or <code>lz</code>
+     * store an archive table in a {@link CompressedHeapFile}, and
+     * <code>columnar</code> stores a wide table in a {@link ColumnFile}.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -154,6 +177,7 @@ public class Catalog {
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
                 String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
+                String storage = line.substring(line.indexOf(")") + 1).trim().toLowerCase();
                 String[] els = fields.split(",");
                 ArrayList<String> names = new ArrayList<String>();
                 ArrayList<Type> types = new ArrayList<Type>();
@@ -181,7 +205,25 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                File tabFile = new File(baseFolder+"/"+name + ".dat");
+                DbFile tabHf;
+                if (storage.equals(""))
+                    tabHf = new HeapFile(tabFile, t);
+                else if (storage.equals("mmap"))
+                    tabHf = new HeapFile(tabFile, t, true);
+                else if (storage.equals("slotted"))
+                    tabHf = new SlottedFile(tabFile, t);
+                else if (storage.equals("deflate"))
+                    tabHf = new CompressedHeapFile(tabFile, t, new DeflatePageCodec());
+                else if (storage.equals("lz"))
+                    tabHf = new CompressedHeapFile(tabFile, t, new LzPageCodec());
+                else if (storage.equals("columnar"))
+                    tabHf = new ColumnFile(tabFile, t);
+                else {
+                    System.out.println("Unknown storage " + storage);
+                    System.exit(0);
+                    return;
+                }
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
@@ -0,0 +1,85 @@
+package simpledb;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * CLOCK (second chance) replacement.  Resident pages sit in a circular
+ * array of frames, each with a reference bit that is set on load and on
+ * every hit.  The clock hand sweeps the frames, clearing reference bits as
+ * it passes, and stops at the first evictable page whose bit is already
+ * clear.
+ *
+ * @Threadsafe
+ */
+public class ClockPolicy implements ReplacementPolicy {
+
+    private final ArrayList<PageId> _frames;
+    private final ArrayList<Boolean> _refBits;
+    private final Map<PageId, Integer> _pidMappedFrame;
+    private final Deque<Integer> _freeFrames;
+    private int _hand;
+
+    /**
+     * @param numFrames the expected number of resident pages; the clock
+     *                  grows past it if the buffer pool briefly overshoots.
+     */
+    public ClockPolicy(int numFrames) {
+        _frames = new ArrayList<PageId>(numFrames);
+        _refBits = new ArrayList<Boolean>(numFrames);
+        _pidMappedFrame = new HashMap<PageId, Integer>();
+        _freeFrames = new ArrayDeque<Integer>();
+        _hand = 0;
+    }
+
+    public synchronized void pageLoaded(PageId pid) {
+        Integer frame = _pidMappedFrame.get(pid);
+        if (frame == null) {
+            if (_freeFrames.isEmpty()) {
+                frame = _frames.size();
+                _frames.add(pid);
+                _refBits.add(true);
+            } else {
+                frame = _freeFrames.pop();
+                _frames.set(frame, pid);
+            }
+            _pidMappedFrame.put(pid, frame);
+        }
+        _refBits.set(frame, true);
+    }
+
+    public synchronized void pageAccessed(PageId pid) {
+        Integer frame = _pidMappedFrame.get(pid);
+        if (frame != null)
+            _refBits.set(frame, true);
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        Integer frame = _pidMappedFrame.remove(pid);
+        if (frame == null)
+            return;
+        _frames.set(frame, null);
+        _refBits.set(frame, false);
+        _freeFrames.push(frame);
+    }
+
+    public synchronized PageId chooseVictim(Predicate<PageId> evictable) {
+        int n = _frames.size();
+        // the first sweep clears every reference bit, so two sweeps are
+        // enough to visit every page with its bit cleared
+        for (int step = 0; step < 2 * n; ++step) {
+            int frame = _hand;
+            _hand = (_hand + 1) % n;
+            PageId pid = _frames.get(frame);
+            if (pid == null)
+                continue;
+            if (_refBits.get(frame)) {
+                _refBits.set(frame, false);
+                continue;
+            }
+            if (evictable.test(pid))
+                return pid;
+        }
+        return null;
+    }
+}
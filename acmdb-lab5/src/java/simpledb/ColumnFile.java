@@ -0,0 +1,450 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * ColumnFile is a column-oriented implementation of a DbFile.  Where a
+ * HeapFile stores whole rows on each page, a ColumnFile stores each column
+ * in its own run of {@link ColumnPage}s, so a scan that needs only some of
+ * the columns of a wide table reads only their pages; see
+ * {@link #iterator(TransactionId, int[])}.
+ * <p>
+ * Rows are stored in groups of {@link #rowsPerGroup()} rows.  A group holds,
+ * for each column in turn, a run of pages with the group's values of that
+ * column, so that every run has as many rows as the run of the narrowest
+ * column has on a single page.  A group takes {@link #pagesPerGroup()}
+ * pages, and the file is simply a sequence of groups.
+ * <p>
+ * A row is identified by a RecordId whose page is the first page of its
+ * group and whose tuple number is the number of the row in the group.
+ *
+ * @see ColumnPage
+ */
+public class ColumnFile implements DbFile {
+
+    private final File _file;
+    private final TupleDesc _schema;
+    private final DbFileChannel _channel;
+    /** free rows per group */
+    private final FreeSpaceMap _fsm;
+    /** held while groups are appended to the file */
+    private final Object _appendLock = new Object();
+
+    private final int _rowsPerGroup;
+    /** the first page of the run of each column in a group, and the total */
+    private final int[] _runStart;
+    private final int[] _slotsPerPage;
+
+    /**
+     * Constructs a column file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this
+     *            file.
+     * @param td
+     *            the TupleDesc of the table
+     */
+    public ColumnFile(File f, TupleDesc td) {
+        _file = f;
+        _schema = td;
+        _channel = new DbFileChannel(f);
+        _fsm = new FreeSpaceMap(f);
+
+        int n = td.numFields();
+        _slotsPerPage = new int[n];
+        int rows = 1;
+        for (int c = 0; c < n; ++c) {
+            _slotsPerPage[c] = ColumnPage.slotsPerPage(td.getFieldType(c));
+            rows = Math.max(rows, _slotsPerPage[c]);
+        }
+        _rowsPerGroup = rows;
+        _runStart = new int[n + 1];
+        for (int c = 0; c < n; ++c)
+            _runStart[c + 1] = _runStart[c] + (rows + _slotsPerPage[c] - 1) / _slotsPerPage[c];
+    }
+
+    /**
+     * Writes the rows of input to f as a new ColumnFile, packing full
+     * groups.  Whatever f held before is overwritten.  The new file is not
+     * added to the catalog.
+     *
+     * @param input the rows to store, already opened
+     * @param f the file to hold the table
+     * @return the new ColumnFile
+     */
+    public static ColumnFile create(DbIterator input, File f)
+            throws DbException, IOException, TransactionAbortedException {
+        TupleDesc td = input.getTupleDesc();
+        new FileOutputStream(f).close();
+        FreeSpaceMap.fileFor(f).delete();
+        ColumnFile cf = new ColumnFile(f, td);
+        int n = td.numFields();
+        List<List<Field>> columns = new ArrayList<List<Field>>();
+        for (int c = 0; c < n; ++c)
+            columns.add(new ArrayList<Field>(cf._rowsPerGroup));
+        int group = 0;
+        boolean more = input.hasNext();
+        while (more) {
+            Tuple t = input.next();
+            for (int c = 0; c < n; ++c)
+                columns.get(c).add(t.getField(c));
+            more = input.hasNext();
+            if (columns.get(0).size() == cf._rowsPerGroup || !more) {
+                cf.writeGroup(group++, columns);
+                for (List<Field> column : columns)
+                    column.clear();
+            }
+        }
+        cf.close();
+        return cf;
+    }
+
+    /**
+     * Writes the images of a whole group with one gathering write.
+     */
+    private void writeGroup(int group, List<List<Field>> columns) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        ByteBuffer[] pages = new ByteBuffer[pagesPerGroup()];
+        for (int c = 0; c < _schema.numFields(); ++c) {
+            List<Field> values = columns.get(c);
+            for (int k = 0; k < _runStart[c + 1] - _runStart[c]; ++k) {
+                int from = Math.min(values.size(), k * _slotsPerPage[c]);
+                int to = Math.min(values.size(), from + _slotsPerPage[c]);
+                int slots = Math.min(_slotsPerPage[c], _rowsPerGroup - k * _slotsPerPage[c]);
+                pages[_runStart[c] + k] = ByteBuffer.wrap(ColumnPage.createPageData(
+                        _schema.getFieldType(c), values.subList(from, to), slots));
+            }
+        }
+        _channel.write(pages, (long) group * pagesPerGroup() * pageSize);
+        _fsm.update(group, _rowsPerGroup - columns.get(0).size());
+        _fsm.flush();
+    }
+
+    /**
+     * @return the number of rows in a group
+     */
+    public int rowsPerGroup() {
+        return _rowsPerGroup;
+    }
+
+    /**
+     * @return the number of pages of a group
+     */
+    public int pagesPerGroup() {
+        return _runStart[_runStart.length - 1];
+    }
+
+    /**
+     * @return the number of groups in the file
+     */
+    public int numGroups() {
+        return numPages() / pagesPerGroup();
+    }
+
+    /**
+     * @return the column a page of this file holds values of
+     */
+    int columnOf(int pgNo) {
+        int k = pgNo % pagesPerGroup();
+        int c = 0;
+        while (_runStart[c + 1] <= k)
+            ++c;
+        return c;
+    }
+
+    /**
+     * @return the number of rows a page of this file holds values for
+     */
+    int slotsOn(int pgNo) {
+        int c = columnOf(pgNo);
+        int k = pgNo % pagesPerGroup() - _runStart[c];
+        return Math.min(_slotsPerPage[c], _rowsPerGroup - k * _slotsPerPage[c]);
+    }
+
+    /**
+     * @return the page that holds the value of a row of a group in a column
+     */
+    private HeapPageId pageOf(int group, int column, int row) {
+        return new HeapPageId(getId(),
+                group * pagesPerGroup() + _runStart[column] + row / _slotsPerPage[column]);
+    }
+
+    private RecordId recordId(int group, int row) {
+        return new RecordId(new HeapPageId(getId(), group * pagesPerGroup()), row);
+    }
+
+    /**
+     * Returns the File backing this ColumnFile on disk.
+     */
+    public File getFile() {
+        return _file;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this ColumnFile, the hash of the
+     * absolute name of its file, like HeapFile's.
+     */
+    public int getId() {
+        return _file.getAbsoluteFile().hashCode();
+    }
+
+    /**
+     * Returns the TupleDesc of the table stored in this DbFile.
+     */
+    public TupleDesc getTupleDesc() {
+        return _schema;
+    }
+
+    /**
+     * Returns the number of pages in this ColumnFile.
+     */
+    public int numPages() {
+        return (int) (_file.length() / BufferPool.getPageSize());
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) throws IllegalArgumentException {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        try {
+            // a short read leaves the rest of the page zeroed, i.e. empty
+            _channel.read(ByteBuffer.wrap(data), (long) pid.pageNumber() * BufferPool.getPageSize());
+            return new ColumnPage((HeapPageId) pid, data);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public Page parsePage(PageId pid, ByteBuffer data) throws IOException {
+        byte[] bytes = new byte[data.remaining()];
+        data.duplicate().get(bytes);
+        return new ColumnPage((HeapPageId) pid, bytes);
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        _channel.write(ByteBuffer.wrap(page.getPageData(), 0, BufferPool.getPageSize()),
+                (long) page.getId().pageNumber() * BufferPool.getPageSize());
+    }
+
+    // see DbFile.java for javadocs
+    public void writePages(List<Page> pages) throws IOException {
+        _channel.writePages(pages, 0, BufferPool.getPageSize());
+    }
+
+    // see DbFile.java for javadocs
+    public void close() throws IOException {
+        _channel.close();
+        _fsm.close();
+    }
+
+    private ColumnPage getPage(TransactionId tid, HeapPageId pid, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        return (ColumnPage) Database.getBufferPool().getPage(tid, pid, perm);
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!_schema.equals(t.getTupleDesc()))
+            throw new DbException("Insertion failed: Tuple descriptor mismatch");
+        // a free row is found on the pages of the first column; the pages
+        // of the other columns have the same rows free
+        int numGroups = numGroups();
+        for (int group = _fsm.nextCandidate(0, numGroups); group >= 0;
+                group = _fsm.nextCandidate(group + 1, numGroups)) {
+            for (int row = 0; row < _rowsPerGroup; row += _slotsPerPage[0]) {
+                HeapPageId pid = pageOf(group, 0, row);
+                boolean held = Database.getBufferPool().holdsLock(tid, pid);
+                ColumnPage pg = getPage(tid, pid, Permissions.READ_WRITE);
+                int slot = pg.firstFreeSlot();
+                if (slot >= 0) {
+                    ArrayList<Page> dirtyPages = insertRow(tid, t, group, row + slot);
+                    // other pages of the group may have room too
+                    if (pg.getNumEmptySlots() > 0)
+                        _fsm.update(group, pg.getNumEmptySlots());
+                    return dirtyPages;
+                }
+                if (!held)
+                    Database.getBufferPool().releasePage(tid, pid);
+            }
+            _fsm.update(group, 0);
+        }
+        int group;
+        synchronized (_appendLock) {
+            group = numGroups();
+            List<List<Field>> empty = new ArrayList<List<Field>>();
+            for (int c = 0; c < _schema.numFields(); ++c)
+                empty.add(Collections.<Field>emptyList());
+            writeGroup(group, empty);
+        }
+        ArrayList<Page> dirtyPages = insertRow(tid, t, group, 0);
+        _fsm.update(group, _rowsPerGroup - 1);
+        return dirtyPages;
+    }
+
+    private ArrayList<Page> insertRow(TransactionId tid, Tuple t, int group, int row)
+            throws DbException, TransactionAbortedException {
+        ArrayList<Page> dirtyPages = new ArrayList<Page>();
+        for (int c = 0; c < _schema.numFields(); ++c) {
+            ColumnPage pg = getPage(tid, pageOf(group, c, row), Permissions.READ_WRITE);
+            pg.setValue(row % _slotsPerPage[c], t.getField(c));
+            dirtyPages.add(pg);
+        }
+        t.setRecordId(recordId(group, row));
+        return dirtyPages;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        RecordId recId = t.getRecordId();
+        if (recId == null)
+            throw new DbException("Try to delete a tuple with invalid reference");
+        PageId pid = recId.getPageId();
+        if (pid.getTableId() != getId())
+            throw new DbException("Try to delete a tuple in another ColumnFile");
+        if (pid.pageNumber() % pagesPerGroup() != 0 || recId.tupleno() < 0
+                || recId.tupleno() >= _rowsPerGroup)
+            throw new DbException("Try to delete a tuple with invalid reference");
+        int group = pid.pageNumber() / pagesPerGroup();
+        int row = recId.tupleno();
+        ArrayList<Page> dirtyPages = new ArrayList<Page>();
+        for (int c = 0; c < _schema.numFields(); ++c) {
+            ColumnPage pg = getPage(tid, pageOf(group, c, row), Permissions.READ_WRITE);
+            pg.clearValue(row % _slotsPerPage[c]);
+            dirtyPages.add(pg);
+        }
+        int free = _fsm.freeSlots(group);
+        if (free >= 0)
+            _fsm.update(group, free + 1);
+        return dirtyPages;
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        int[] all = new int[_schema.numFields()];
+        for (int c = 0; c < all.length; ++c)
+            all[c] = c;
+        return iterator(tid, all);
+    }
+
+    /**
+     * @return the TupleDesc of the tuples returned by
+     *         {@link #iterator(TransactionId, int[])} for the given columns
+     */
+    public TupleDesc getTupleDesc(int[] columns) {
+        Type[] types = new Type[columns.length];
+        String[] names = new String[columns.length];
+        for (int i = 0; i < columns.length; ++i) {
+            types[i] = _schema.getFieldType(columns[i]);
+            names[i] = _schema.getFieldName(columns[i]);
+        }
+        return new TupleDesc(types, names);
+    }
+
+    /**
+     * Returns an iterator over the rows of this file that reads only the
+     * pages of the given columns.  The tuples it returns have just those
+     * columns, in the given order, and the RecordIds of their rows, so they
+     * can be passed to {@link #deleteTuple}.
+     *
+     * @param tid the transaction the scan runs for
+     * @param columns the numbers of the columns to read, at least one
+     * @see #getTupleDesc(int[])
+     */
+    public DbFileIterator iterator(final TransactionId tid, final int[] columns) {
+        if (columns.length == 0)
+            throw new IllegalArgumentException("a scan must read at least one column");
+        final TupleDesc td = getTupleDesc(columns);
+
+        class ColumnFileIterator implements DbFileIterator {
+
+            private int _numGroups;
+            private int _group;
+            private int _row;
+            private BufferRing _ring;
+            private ColumnPage[] _pages = new ColumnPage[columns.length];
+            private Tuple _next;
+            private boolean _open = false;
+
+            private ColumnPage page(int i, int row) throws DbException, TransactionAbortedException {
+                HeapPageId pid = pageOf(_group, columns[i], row);
+                if (_pages[i] == null || !_pages[i].getId().equals(pid))
+                    _pages[i] = (ColumnPage) Database.getBufferPool().getPage(tid,
+                            pid, Permissions.READ_ONLY, _ring);
+                return _pages[i];
+            }
+
+            private Tuple fetch() throws DbException, TransactionAbortedException {
+                while (_group < _numGroups) {
+                    while (_row < _rowsPerGroup) {
+                        int row = _row++;
+                        // the row's bit is the same on the pages of all columns
+                        if (!page(0, row).isSlotUsed(row % _slotsPerPage[columns[0]]))
+                            continue;
+                        Tuple t = new Tuple(td);
+                        for (int i = 0; i < columns.length; ++i)
+                            t.setField(i, page(i, row).getValue(row % _slotsPerPage[columns[i]]));
+                        t.setRecordId(recordId(_group, row));
+                        return t;
+                    }
+                    ++_group;
+                    _row = 0;
+                    Arrays.fill(_pages, null);
+                }
+                return null;
+            }
+
+            @Override
+            public void open() throws DbException, TransactionAbortedException {
+                _numGroups = numGroups();
+                // the ring is sized for the pages the scan actually reads
+                int pages = 0;
+                for (int c : columns)
+                    pages += _runStart[c + 1] - _runStart[c];
+                _ring = Database.getBufferPool().ringFor(_numGroups * pages);
+                _open = true;
+                rewind();
+            }
+
+            @Override
+            public boolean hasNext() throws DbException, TransactionAbortedException {
+                if (!_open)
+                    return false;
+                if (_next == null)
+                    _next = fetch();
+                return _next != null;
+            }
+
+            @Override
+            public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                Tuple t = _next;
+                _next = null;
+                return t;
+            }
+
+            @Override
+            public void rewind() throws DbException, TransactionAbortedException {
+                _group = 0;
+                _row = 0;
+                _next = null;
+                Arrays.fill(_pages, null);
+            }
+
+            @Override
+            public void close() {
+                _open = false;
+                _next = null;
+                Arrays.fill(_pages, null);
+            }
+        }
+
+        return new ColumnFileIterator();
+    }
+
+}
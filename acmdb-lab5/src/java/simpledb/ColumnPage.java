@@ -0,0 +1,272 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Each instance of ColumnPage stores the values of one column for a range
+ * of rows of a {@link ColumnFile}, and implements the Page interface that
+ * is used by BufferPool.
+ * <p>
+ * The format of a ColumnPage is a header bitmap with one bit per row,
+ * which is set if the row is in use, followed by one fixed-size slot per
+ * row holding the row's value in this column.  Every page of a row carries
+ * its own copy of the row's bit, so that a scan of any subset of the
+ * columns can tell which rows are in use.
+ *
+ * @see ColumnFile
+ * @see BufferPool
+ */
+public class ColumnPage implements Page {
+
+    final HeapPageId pid;
+    final Type type;
+    final int numSlots;
+    final byte header[];
+    final Field values[];
+    /** the image the page was created from; a used slot with no entry in
+     *  values[] has not been decoded yet and is still only in here */
+    final byte data[];
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    TransactionId lastModifiedTid;
+
+    /**
+     * Create a ColumnPage from a set of bytes of data read from disk.  The
+     * column and the number of rows of the page follow from its page number
+     * and the layout of its ColumnFile, which is looked up in the catalog.
+     * <p>
+     * The page keeps a reference to <tt>data</tt> and decodes values from it
+     * lazily, so the array must not be modified afterwards.
+     *
+     * @see ColumnFile
+     */
+    public ColumnPage(HeapPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        ColumnFile f = (ColumnFile) Database.getCatalog().getDatabaseFile(id.getTableId());
+        int column = f.columnOf(id.pageNumber());
+        this.type = f.getTupleDesc().getFieldType(column);
+        this.numSlots = f.slotsOn(id.pageNumber());
+        if (data.length < headerSize(numSlots) + numSlots * type.getLen())
+            throw new EOFException("column page image too short: " + data.length + " bytes");
+        this.data = data;
+        header = Arrays.copyOf(data, headerSize(numSlots));
+        values = new Field[numSlots];
+        this.lastModifiedTid = null;
+        // the page image is never modified, so it doubles as the before image
+        oldData = data;
+    }
+
+    /**
+     * @return the number of values of the given type that fit on a page
+     */
+    static int slotsPerPage(Type type) {
+        return (BufferPool.getPageSize() * 8) / (type.getLen() * 8 + 1);
+    }
+
+    private static int headerSize(int numSlots) {
+        return (numSlots + 7) / 8;
+    }
+
+    /**
+     * Returns the image of a page whose first values.size() slots hold the
+     * given values and are in use.  Used to write a ColumnFile without
+     * going through the catalog.
+     *
+     * @param type the type of the column
+     * @param values the values, at most numSlots of them
+     * @param numSlots the number of rows of the page
+     */
+    static byte[] createPageData(Type type, List<Field> values, int numSlots) throws IOException {
+        byte[] page = new byte[BufferPool.getPageSize()];
+        int h = headerSize(numSlots);
+        for (int i = 0; i < values.size(); ++i)
+            page[i / 8] |= (byte) (1 << (i % 8));
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(values.size() * type.getLen());
+        DataOutputStream dos = new DataOutputStream(baos);
+        for (Field f : values)
+            f.serialize(dos);
+        dos.flush();
+        System.arraycopy(baos.toByteArray(), 0, page, h, baos.size());
+        return page;
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * ColumnPage.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public ColumnPage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return new ColumnPage(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData().clone();
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * @return the number of rows this page holds values for
+     */
+    public int getNumSlots() {
+        return numSlots;
+    }
+
+    /**
+     * Returns the value in a used slot, decoding it from the page image the
+     * first time it is asked for.
+     */
+    public Field getValue(int slot) throws NoSuchElementException {
+        Field f = values[slot];
+        if (f != null)
+            return f;
+        if (!isSlotUsed(slot))
+            throw new NoSuchElementException("slot " + slot + " of " + pid + " is empty");
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data,
+                header.length + slot * type.getLen(), type.getLen()));
+        try {
+            f = type.parse(dis);
+        } catch (java.text.ParseException e) {
+            e.printStackTrace();
+            throw new NoSuchElementException("parsing error!");
+        }
+        values[slot] = f;
+        return f;
+    }
+
+    /**
+     * Puts a value into an empty slot and marks the slot used.
+     *
+     * @throws DbException if the slot is in use or the value has the wrong type
+     */
+    void setValue(int slot, Field f) throws DbException {
+        if (slot < 0 || slot >= numSlots || isSlotUsed(slot))
+            throw new DbException("Insertion failed: slot " + slot + " of " + pid + " is not free");
+        if (f.getType() != type)
+            throw new DbException("Insertion failed: Tuple descriptor mismatch");
+        values[slot] = f;
+        markSlotUsed(slot, true);
+    }
+
+    /**
+     * Marks a used slot empty.
+     *
+     * @throws DbException if the slot is already empty
+     */
+    void clearValue(int slot) throws DbException {
+        if (slot < 0 || slot >= numSlots || !isSlotUsed(slot))
+            throw new DbException("Deletion failed: slot " + slot + " of " + pid + " is empty");
+        values[slot] = null;
+        markSlotUsed(slot, false);
+    }
+
+    /**
+     * @return the first empty slot, or -1 if the page is full
+     */
+    int firstFreeSlot() {
+        for (int i = 0; i < numSlots; ++i)
+            if (!isSlotUsed(i))
+                return i;
+        return -1;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page.
+     * Used to serialize this page to disk.
+     *
+     * @see #ColumnPage
+     * @return A byte array correspond to the bytes of this page.
+     */
+    public byte[] getPageData() {
+        byte[] page = new byte[BufferPool.getPageSize()];
+        System.arraycopy(header, 0, page, 0, header.length);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(type.getLen());
+        DataOutputStream dos = new DataOutputStream(baos);
+        for (int i = 0; i < numSlots; ++i) {
+            int pos = header.length + i * type.getLen();
+            if (!isSlotUsed(i))
+                continue;
+            if (values[i] == null) {
+                // never decoded: copy it as it is
+                System.arraycopy(data, pos, page, pos, type.getLen());
+                continue;
+            }
+            baos.reset();
+            try {
+                values[i].serialize(dos);
+                dos.flush();
+            } catch (IOException e) {
+                // this really shouldn't happen
+                e.printStackTrace();
+            }
+            System.arraycopy(baos.toByteArray(), 0, page, pos, type.getLen());
+        }
+        return page;
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.lastModifiedTid = dirty ? tid : null;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return this.lastModifiedTid;
+    }
+
+    /**
+     * Returns the number of empty slots on this page.
+     */
+    public int getNumEmptySlots() {
+        int n = 0;
+        for (int i = 0; i < numSlots; ++i)
+            if (!isSlotUsed(i))
+                ++n;
+        return n;
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return (header[i / 8] & (1 << (i % 8))) != 0;
+    }
+
+    private void markSlotUsed(int i, boolean value) {
+        if (value)
+            header[i / 8] |= (byte) (1 << (i % 8));
+        else
+            header[i / 8] &= (byte) ~(1 << (i % 8));
+    }
+}
@@ -0,0 +1,404 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * CompressedHeapFile is a DbFile for append-mostly archive tables that
+ * stores HeapPages compressed with a {@link PageCodec}.  In memory, and to
+ * the rest of the system, its pages are ordinary HeapPages; they are
+ * decompressed in {@link #readPage} and compressed again in
+ * {@link #writePage}.
+ * <p>
+ * Compressed pages differ in size, so they are not at fixed offsets: the
+ * data file is a log of compressed page images, and a side file with the
+ * suffix <tt>.idx</tt> holds, for each page number, the offset and length
+ * of the page's latest image.  A page that is written again is appended
+ * anew and its old image is left behind as garbage, which is fine for
+ * tables that are rarely updated but makes the file grow under updates;
+ * {@link #fromHeapFile} writes a compact copy.
+ *
+ * @see HeapFile
+ * @see HeapPage
+ */
+public class CompressedHeapFile implements DbFile {
+
+    /** bytes per page in the index: the offset and the length of its image */
+    private static final int INDEX_ENTRY_SIZE = 12;
+
+    private final File _file;
+    private final TupleDesc _schema;
+    private final PageCodec _codec;
+    private final DbFileChannel _channel;
+    private final DbFileChannel _index;
+    private final FreeSpaceMap _fsm;
+    /** held while pages are appended to the table */
+    private final Object _appendLock = new Object();
+
+    // the index, guarded by this
+    private long[] _offsets;
+    private int[] _lengths;
+    private int _numPages;
+    private long _end;
+
+    /**
+     * Constructs a compressed heap file backed by the specified file and
+     * its index.
+     *
+     * @param f
+     *            the file that holds the compressed pages
+     * @param td
+     *            the TupleDesc of the table
+     * @param codec
+     *            the codec the pages were, and will be, compressed with
+     */
+    public CompressedHeapFile(File f, TupleDesc td, PageCodec codec) {
+        _file = f;
+        _schema = td;
+        _codec = codec;
+        _channel = new DbFileChannel(f);
+        _index = new DbFileChannel(indexFileFor(f));
+        _fsm = new FreeSpaceMap(f);
+        try {
+            loadIndex();
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * @return the side file that holds the page index of a compressed heap
+     *         file
+     */
+    public static File indexFileFor(File f) {
+        return new File(f.getPath() + ".idx");
+    }
+
+    private synchronized void loadIndex() throws IOException {
+        File index = indexFileFor(_file);
+        _numPages = index.exists() ? (int) (index.length() / INDEX_ENTRY_SIZE) : 0;
+        _offsets = new long[Math.max(16, _numPages)];
+        _lengths = new int[_offsets.length];
+        _end = _file.length();
+        if (_numPages == 0)
+            return;
+        ByteBuffer buf = ByteBuffer.allocate(_numPages * INDEX_ENTRY_SIZE);
+        _index.read(buf, 0);
+        buf.flip();
+        for (int i = 0; i < _numPages; ++i) {
+            _offsets[i] = buf.getLong();
+            _lengths[i] = buf.getInt();
+            if (_offsets[i] < 0 || _offsets[i] + _lengths[i] > _end)
+                throw new IOException("index of " + _file + " points past the end for page " + i);
+        }
+    }
+
+    /**
+     * Writes a compact compressed copy of a heap file.  Whatever dest and
+     * its index held before is overwritten.  The new file is not added to
+     * the catalog.
+     *
+     * @param heapFile the file of a HeapFile
+     * @param td the TupleDesc of the HeapFile
+     * @param dest the file to hold the compressed pages
+     * @param codec the codec to compress the pages with
+     * @return the new CompressedHeapFile
+     */
+    public static CompressedHeapFile fromHeapFile(File heapFile, TupleDesc td, File dest,
+            PageCodec codec) throws IOException {
+        new FileOutputStream(dest).close();
+        new FileOutputStream(indexFileFor(dest)).close();
+        FreeSpaceMap.fileFor(dest).delete();
+        CompressedHeapFile cf = new CompressedHeapFile(dest, td, codec);
+        int pageSize = BufferPool.getPageSize();
+        InputStream in = new BufferedInputStream(new FileInputStream(heapFile), 1 << 16);
+        try {
+            byte[] page = new byte[pageSize];
+            int pgNo = 0;
+            for (int n = readPage(in, page); n == pageSize; n = readPage(in, page))
+                cf.writeImage(pgNo++, page);
+        } finally {
+            in.close();
+            cf.close();
+        }
+        return cf;
+    }
+
+    private static int readPage(InputStream in, byte[] page) throws IOException {
+        int len = 0;
+        while (len < page.length) {
+            int n = in.read(page, len, page.length - len);
+            if (n < 0)
+                break;
+            len += n;
+        }
+        return len;
+    }
+
+    /**
+     * Returns the File that holds the compressed pages of this file.
+     */
+    public File getFile() {
+        return _file;
+    }
+
+    /**
+     * @return the codec the pages of this file are compressed with
+     */
+    public PageCodec getCodec() {
+        return _codec;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this file, the hash of the absolute
+     * name of its data file, like HeapFile's.
+     */
+    public int getId() {
+        return _file.getAbsoluteFile().hashCode();
+    }
+
+    /**
+     * Returns the TupleDesc of the table stored in this DbFile.
+     */
+    public TupleDesc getTupleDesc() {
+        return _schema;
+    }
+
+    /**
+     * Returns the number of pages in this file.
+     */
+    public synchronized int numPages() {
+        return _numPages;
+    }
+
+    /**
+     * Returns the number of bytes this file takes on disk, with its index.
+     */
+    public synchronized long sizeOnDisk() {
+        return _end + (long) _numPages * INDEX_ENTRY_SIZE;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) throws IllegalArgumentException {
+        int pgNo = pid.pageNumber();
+        long offset;
+        int length;
+        synchronized (this) {
+            if (pgNo >= _numPages) {
+                // like a HeapFile, a page past the end reads as empty
+                offset = -1;
+                length = 0;
+            } else {
+                offset = _offsets[pgNo];
+                length = _lengths[pgNo];
+            }
+        }
+        try {
+            byte[] data;
+            if (offset < 0) {
+                data = HeapPage.createEmptyPageData();
+            } else {
+                byte[] compressed = new byte[length];
+                if (!_channel.read(ByteBuffer.wrap(compressed), offset))
+                    throw new EOFException("compressed page " + pgNo + " is cut short");
+                data = _codec.decompress(compressed, BufferPool.getPageSize());
+            }
+            return noteFreeSpace(new HeapPage((HeapPageId) pid, data));
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Builds a page from the uncompressed image returned by
+     * {@link HeapPage#getPageData}, not from an image in the data file.
+     */
+    public Page parsePage(PageId pid, ByteBuffer data) throws IOException {
+        return new HeapPage((HeapPageId) pid, data);
+    }
+
+    private HeapPage noteFreeSpace(HeapPage pg) {
+        _fsm.update(pg.getId().pageNumber(), pg.getNumEmptySlots());
+        return pg;
+    }
+
+    /**
+     * Appends the compressed image of a page to the data file, then points
+     * the index at it, so that a crash in between leaves the old image in
+     * place.
+     */
+    private void writeImage(int pgNo, byte[] image) throws IOException {
+        writeImages(new int[] { pgNo }, new byte[][] { _codec.compress(image) });
+    }
+
+    private void writeImages(int[] pgNos, byte[][] compressed) throws IOException {
+        ByteBuffer[] bufs = new ByteBuffer[compressed.length];
+        long total = 0;
+        for (int i = 0; i < compressed.length; ++i) {
+            bufs[i] = ByteBuffer.wrap(compressed[i]);
+            total += compressed[i].length;
+        }
+        long offset;
+        synchronized (this) {
+            offset = _end;
+            _end += total;
+        }
+        _channel.write(bufs, offset);
+
+        ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+        synchronized (this) {
+            for (int i = 0; i < pgNos.length; ++i) {
+                int pgNo = pgNos[i];
+                if (pgNo >= _offsets.length) {
+                    int capacity = Math.max(pgNo + 1, _offsets.length * 2);
+                    _offsets = Arrays.copyOf(_offsets, capacity);
+                    _lengths = Arrays.copyOf(_lengths, capacity);
+                }
+                _offsets[pgNo] = offset;
+                _lengths[pgNo] = compressed[i].length;
+                offset += compressed[i].length;
+                _numPages = Math.max(_numPages, pgNo + 1);
+                entry.clear();
+                entry.putLong(_offsets[pgNo]).putInt(_lengths[pgNo]).flip();
+                _index.write(entry, (long) pgNo * INDEX_ENTRY_SIZE);
+            }
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        writeImage(page.getId().pageNumber(), page.getPageData());
+        noteFreeSpace((HeapPage) page);
+        _fsm.flush();
+    }
+
+    // see DbFile.java for javadocs
+    public void writePages(List<Page> pages) throws IOException {
+        // compress all pages first, then append them with one write
+        int[] pgNos = new int[pages.size()];
+        byte[][] compressed = new byte[pages.size()][];
+        for (int i = 0; i < pgNos.length; ++i) {
+            pgNos[i] = pages.get(i).getId().pageNumber();
+            compressed[i] = _codec.compress(pages.get(i).getPageData());
+        }
+        writeImages(pgNos, compressed);
+        for (Page page : pages)
+            noteFreeSpace((HeapPage) page);
+        _fsm.flush();
+    }
+
+    // see DbFile.java for javadocs
+    public void close() throws IOException {
+        _channel.close();
+        _index.close();
+        _fsm.close();
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        HeapPageId pid;
+        ArrayList<Page> dirtyPages = new ArrayList<Page>();
+        // as in HeapFile, only visit pages that may have room
+        int numPages = numPages();
+        for (int pgNo = _fsm.nextCandidate(0, numPages); pgNo >= 0;
+                pgNo = _fsm.nextCandidate(pgNo + 1, numPages)) {
+            pid = new HeapPageId(getId(), pgNo);
+            boolean held = Database.getBufferPool().holdsLock(tid, pid);
+            HeapPage pg = (HeapPage) Database.getBufferPool().getPage(tid,
+                    pid, Permissions.READ_WRITE);
+            if (pg.getNumEmptySlots() > 0) {
+                pg.insertTuple(t);
+                _fsm.update(pgNo, pg.getNumEmptySlots());
+                dirtyPages.add(pg);
+                return dirtyPages;
+            }
+            _fsm.update(pgNo, 0);
+            if (!held)
+                Database.getBufferPool().releasePage(tid, pid);
+        }
+        HeapPage pg;
+        synchronized (_appendLock) {
+            pid = new HeapPageId(getId(), numPages());
+            writeImage(pid.pageNumber(), HeapPage.createEmptyPageData());
+        }
+        pg = (HeapPage) Database.getBufferPool().getPage(tid,
+                pid, Permissions.READ_WRITE);
+        pg.insertTuple(t);
+        _fsm.update(pid.pageNumber(), pg.getNumEmptySlots());
+        dirtyPages.add(pg);
+        return dirtyPages;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        RecordId recId = t.getRecordId();
+        if (recId == null)
+            throw new DbException("Try to delete a tuple with invalid reference");
+        HeapPageId pid = (HeapPageId) recId.getPageId();
+        if (pid.getTableId() != getId())
+            throw new DbException("Try to delete a tuple in another CompressedHeapFile");
+        HeapPage pg = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+        pg.deleteTuple(t);
+        _fsm.update(pid.pageNumber(), pg.getNumEmptySlots());
+        ArrayList<Page> dirtyPages = new ArrayList<Page>();
+        dirtyPages.add(pg);
+        return dirtyPages;
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(final TransactionId tid) {
+        class CompressedHeapFileIterator implements DbFileIterator {
+
+            private int _nxtPgNo;
+            private int _numPg;
+            private Iterator<Tuple> _curPgItr = null;
+            private BufferRing _ring = null;
+
+            private void nextPage() throws DbException, TransactionAbortedException {
+                HeapPageId pid = new HeapPageId(getId(), _nxtPgNo++);
+                _curPgItr = ((HeapPage) Database.getBufferPool().getPage(tid, pid,
+                        Permissions.READ_ONLY, _ring)).iterator();
+            }
+
+            @Override
+            public void open() throws DbException, TransactionAbortedException {
+                _numPg = numPages();
+                _ring = Database.getBufferPool().ringFor(_numPg);
+                rewind();
+            }
+
+            @Override
+            public boolean hasNext() throws DbException, TransactionAbortedException {
+                if (_curPgItr == null)
+                    return false;
+                while (!_curPgItr.hasNext() && _nxtPgNo < _numPg)
+                    nextPage();
+                return _curPgItr.hasNext();
+            }
+
+            @Override
+            public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return _curPgItr.next();
+            }
+
+            @Override
+            public void rewind() throws DbException, TransactionAbortedException {
+                _nxtPgNo = 0;
+                _curPgItr = Collections.<Tuple>emptyList().iterator();
+            }
+
+            @Override
+            public void close() {
+                _curPgItr = null;
+            }
+        }
+
+        return new CompressedHeapFileIterator();
+    }
+
+}
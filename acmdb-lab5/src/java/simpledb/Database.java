@@ -24,6 +24,7 @@ public class Database {
     private Database() {
         _catalog = new Catalog();
         _bufferpool = new BufferPool(BufferPool.DEFAULT_PAGES);
+        _bufferpool.getStats().register();
         LogFile tmp = null;
         try {
             tmp = new LogFile(new File(LOGFILENAME));
@@ -32,6 +33,16 @@ public class Database {
             System.exit(1);
         }
         _logfile = tmp;
+        if (Boolean.getBoolean(PageCleaner.ENABLE_PROPERTY))
+            _bufferpool.startPageCleaner(PageCleaner.DEFAULT_INTERVAL_MILLIS,
+                    PageCleaner.DEFAULT_PAGES_PER_ROUND,
+                    PageCleaner.DEFAULT_HIGH_DIRTY_RATIO,
+                    PageCleaner.DEFAULT_LOW_DIRTY_RATIO);
+        String warmFile = System.getProperty(ResidentSetSaver.FILE_PROPERTY);
+        if (warmFile != null) {
+            _bufferpool.warmUp(new File(warmFile), _catalog);
+            _bufferpool.startResidentSetSaver(new File(warmFile), ResidentSetSaver.DEFAULT_INTERVAL_MILLIS);
+        }
         // startControllerThread();
     }
 
@@ -55,11 +66,30 @@ public class Database {
      * return it
      */
     public static BufferPool resetBufferPool(int pages) {
+        return resetBufferPool(new BufferPool(pages));
+    }
+
+    /**
+     * Method used for testing -- create a new instance of the buffer pool
+     * with the given replacement policy and return it
+     */
+    public static BufferPool resetBufferPool(int pages, ReplacementPolicy policy) {
+        return resetBufferPool(new BufferPool(pages, policy));
+    }
+
+    /**
+     * Method used for testing -- replace the buffer pool with the given one
+     * and return it
+     */
+    public static BufferPool resetBufferPool(BufferPool bufferPool) {
         java.lang.reflect.Field bufferPoolF=null;
         try {
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
-            bufferPoolF.set(_instance.get(), new BufferPool(pages));
+            _instance.get()._bufferpool.stopPageCleaner();
+            _instance.get()._bufferpool.stopResidentSetSaver();
+            bufferPoolF.set(_instance.get(), bufferPool);
+            bufferPool.getStats().register();
         } catch (NoSuchFieldException e) {
             e.printStackTrace();
         } catch (SecurityException e) {
@@ -75,7 +105,10 @@ public class Database {
 
     // reset the database, used for unit tests only.
     public static void reset() {
-        _instance.set(new Database());
+        Database old = _instance.getAndSet(new Database());
+        old._bufferpool.stopPageCleaner();
+        old._bufferpool.stopResidentSetSaver();
+        old._catalog.closeFiles();
     }
 
 }
@@ -3,6 +3,10 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
 
 /**
  * The interface for database files on disk. Each table is represented by a
@@ -19,6 +23,37 @@ public interface DbFile {
      */
     public Page readPage(PageId id);
 
+    /**
+     * Starts reading the specified page from disk, without waiting for it.
+     * Files with asynchronous I/O issue the read directly; by default
+     * {@link #readPage} is run on the given executor.
+     *
+     * @param id the id of the page
+     * @param executor where to run blocking reads
+     * @return completes with the page, or exceptionally if it cannot be read
+     */
+    public default CompletableFuture<Page> readPageAsync(final PageId id, Executor executor) {
+        return CompletableFuture.supplyAsync(new Supplier<Page>() {
+            public Page get() {
+                return readPage(id);
+            }
+        }, executor);
+    }
+
+    /**
+     * Builds a page of this file from its in-memory image, without any I/O.
+     * Used by a BufferPool that keeps pages in a {@link PageArena}.
+     *
+     * @param id the id of the page
+     * @param data the image of the page, as returned by
+     *        {@link Page#getPageData}; a file that stores pages in another
+     *        form, such as CompressedHeapFile, does not get its on-disk image
+     * @throws UnsupportedOperationException if the file does not support it
+     */
+    public default Page parsePage(PageId id, ByteBuffer data) throws IOException {
+        throw new UnsupportedOperationException("parsePage not supported by " + getClass().getName());
+    }
+
     /**
      * Push the specified page to disk.
      *
@@ -28,6 +63,19 @@ public interface DbFile {
      */
     public void writePage(Page p) throws IOException;
 
+    /**
+     * Push several pages of this file to disk.  Files may sort the pages
+     * and write runs of adjacent pages with a single call; by default the
+     * pages are written one at a time.
+     *
+     * @param pages The pages to write, in any order.
+     * @throws IOException if a write fails
+     */
+    public default void writePages(List<Page> pages) throws IOException {
+        for (Page p : pages)
+            writePage(p);
+    }
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
@@ -83,9 +131,37 @@ public interface DbFile {
      */
     public int getId();
     
+    /**
+     * Returns the number of pages in this DbFile.
+     *
+     * @throws UnsupportedOperationException if the file does not know it
+     */
+    public default int numPages() {
+        throw new UnsupportedOperationException("numPages not supported by " + getClass().getName());
+    }
+
+    /**
+     * Returns whether the specified page is part of this DbFile.  By default
+     * pages are numbered from 0 up to {@link #numPages}.
+     *
+     * @throws UnsupportedOperationException if the file does not know it
+     */
+    public default boolean hasPage(PageId id) {
+        return id.pageNumber() >= 0 && id.pageNumber() < numPages();
+    }
+
     /**
      * Returns the TupleDesc of the table stored in this DbFile.
      * @return TupleDesc of this DbFile.
      */
     public TupleDesc getTupleDesc();
+
+    /**
+     * Releases the file handles held by this DbFile.  The file stays usable;
+     * handles are reopened on the next access.
+     *
+     * @throws IOException if closing fails
+     */
+    public default void close() throws IOException {
+    }
 }
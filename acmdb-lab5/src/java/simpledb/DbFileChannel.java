@@ -0,0 +1,234 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * DbFileChannel is the long-lived handle a DbFile keeps on its backing file.
+ * Pages are read and written with positional I/O, so a page miss costs a
+ * single read call, and concurrent readers neither reopen the file nor
+ * serialize on a shared file pointer.
+ * <p>
+ * The channel is opened on first use.  A FileChannel is closed for every
+ * user when a thread doing I/O on it is interrupted; the channel is then
+ * reopened and the operation retried once on behalf of the other threads.
+ * <p>
+ * Reads that should not hold up the caller go through a second,
+ * asynchronous channel, see {@link #readAsync}.  It is opened on the first
+ * such read and is not affected by interrupts.
+ *
+ * @Threadsafe
+ */
+class DbFileChannel {
+
+    private final File _file;
+    private volatile FileChannel _channel;
+    private volatile AsynchronousFileChannel _async;
+
+    DbFileChannel(File f) {
+        _file = f;
+    }
+
+    private FileChannel channel() throws IOException {
+        FileChannel ch = _channel;
+        if (ch != null && ch.isOpen())
+            return ch;
+        synchronized (this) {
+            if (_channel == null || !_channel.isOpen())
+                _channel = new RandomAccessFile(_file, "rw").getChannel();
+            return _channel;
+        }
+    }
+
+    /**
+     * Reads dst.remaining() bytes starting at the given file position.
+     *
+     * @return false if the file ends before dst is full
+     */
+    boolean read(ByteBuffer dst, long position) throws IOException {
+        int start = dst.position();
+        for (int attempt = 0; ; ++attempt) {
+            try {
+                FileChannel ch = channel();
+                while (dst.hasRemaining()) {
+                    if (ch.read(dst, position + dst.position() - start) < 0)
+                        return false;
+                }
+                return true;
+            } catch (ClosedChannelException e) {
+                if (e instanceof ClosedByInterruptException || attempt > 0)
+                    throw e;
+                dst.position(start);
+            }
+        }
+    }
+
+    private AsynchronousFileChannel asyncChannel() throws IOException {
+        AsynchronousFileChannel ch = _async;
+        if (ch != null && ch.isOpen())
+            return ch;
+        synchronized (this) {
+            if (_async == null || !_async.isOpen())
+                _async = AsynchronousFileChannel.open(_file.toPath(), StandardOpenOption.READ,
+                        StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+            return _async;
+        }
+    }
+
+    /**
+     * Starts reading dst.remaining() bytes starting at the given file
+     * position, without waiting for the read.  dst must not be touched
+     * until the returned future completes.
+     *
+     * @return completes with false if the file ends before dst is full, or
+     *         exceptionally if the read fails
+     */
+    CompletableFuture<Boolean> readAsync(final ByteBuffer dst, final long position) {
+        final CompletableFuture<Boolean> f = new CompletableFuture<Boolean>();
+        final int start = dst.position();
+        try {
+            asyncChannel().read(dst, position, null, new CompletionHandler<Integer, Void>() {
+                public void completed(Integer n, Void attachment) {
+                    if (n < 0) {
+                        f.complete(false);
+                    } else if (!dst.hasRemaining()) {
+                        f.complete(true);
+                    } else {
+                        // a short read; ask for the rest
+                        try {
+                            asyncChannel().read(dst, position + dst.position() - start, null, this);
+                        } catch (IOException e) {
+                            f.completeExceptionally(e);
+                        }
+                    }
+                }
+
+                public void failed(Throwable e, Void attachment) {
+                    f.completeExceptionally(e);
+                }
+            });
+        } catch (IOException e) {
+            f.completeExceptionally(e);
+        }
+        return f;
+    }
+
+    /**
+     * Writes all of src starting at the given file position, extending the
+     * file if needed.
+     */
+    void write(ByteBuffer src, long position) throws IOException {
+        int start = src.position();
+        for (int attempt = 0; ; ++attempt) {
+            try {
+                FileChannel ch = channel();
+                while (src.hasRemaining())
+                    ch.write(src, position + src.position() - start);
+                return;
+            } catch (ClosedChannelException e) {
+                if (e instanceof ClosedByInterruptException || attempt > 0)
+                    throw e;
+                src.position(start);
+            }
+        }
+    }
+
+    /**
+     * Maps the first size bytes of the file read-only.  Writes made through
+     * this channel afterwards are visible through the mapping.
+     */
+    MappedByteBuffer map(long size) throws IOException {
+        return channel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+    }
+
+    /**
+     * Writes all of srcs, one after the other, starting at the given file
+     * position with a single gathering write where possible.
+     */
+    synchronized void write(ByteBuffer[] srcs, long position) throws IOException {
+        int[] starts = new int[srcs.length];
+        long total = 0;
+        for (int i = 0; i < srcs.length; ++i) {
+            starts[i] = srcs[i].position();
+            total += srcs[i].remaining();
+        }
+        for (int attempt = 0; ; ++attempt) {
+            try {
+                // gathering writes go through the channel position, which
+                // the positional reads and writes leave alone
+                FileChannel ch = channel();
+                ch.position(position);
+                for (long written = 0; written < total; )
+                    written += ch.write(srcs);
+                return;
+            } catch (ClosedChannelException e) {
+                if (e instanceof ClosedByInterruptException || attempt > 0)
+                    throw e;
+                for (int i = 0; i < srcs.length; ++i)
+                    srcs[i].position(starts[i]);
+            }
+        }
+    }
+
+    /**
+     * Writes pages of a file that stores page n at base + n * pageSize.  The
+     * pages are sorted by page number and every run of adjacent pages is
+     * written with one gathering write.
+     */
+    void writePages(List<Page> pages, long base, int pageSize) throws IOException {
+        List<Page> sorted = new ArrayList<Page>(pages);
+        Collections.sort(sorted, new Comparator<Page>() {
+            public int compare(Page a, Page b) {
+                return Integer.compare(a.getId().pageNumber(), b.getId().pageNumber());
+            }
+        });
+        int start = 0;
+        while (start < sorted.size()) {
+            int end = start + 1;
+            while (end < sorted.size() && sorted.get(end).getId().pageNumber()
+                    == sorted.get(end - 1).getId().pageNumber() + 1)
+                ++end;
+            long position = base + (long) sorted.get(start).getId().pageNumber() * pageSize;
+            if (end - start == 1) {
+                write(ByteBuffer.wrap(sorted.get(start).getPageData(), 0, pageSize), position);
+            } else {
+                ByteBuffer[] run = new ByteBuffer[end - start];
+                for (int i = start; i < end; ++i)
+                    run[i - start] = ByteBuffer.wrap(sorted.get(i).getPageData(), 0, pageSize);
+                write(run, position);
+            }
+            start = end;
+        }
+    }
+
+    /** Cuts the file down to the given size. */
+    synchronized void truncate(long size) throws IOException {
+        channel().truncate(size);
+    }
+
+    /** @return the current size of the file in bytes */
+    long size() throws IOException {
+        return channel().size();
+    }
+
+    /** Closes the channels; they are reopened if used again. */
+    synchronized void close() throws IOException {
+        if (_channel != null) {
+            _channel.close();
+            _channel = null;
+        }
+        if (_async != null) {
+            _async.close();
+            _async = null;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * DeflatePageCodec compresses pages with the JDK's {@link Deflater}, which
+ * gives small files at some cost in CPU time.  Each thread keeps its own
+ * Deflater and Inflater.
+ */
+public class DeflatePageCodec implements PageCodec {
+
+    private final ThreadLocal<Deflater> _deflater;
+    private final ThreadLocal<Inflater> _inflater = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater(true);
+        }
+    };
+
+    /**
+     * Creates a codec with Deflater's default compression level.
+     */
+    public DeflatePageCodec() {
+        this(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param level the compression level, from {@link Deflater#BEST_SPEED}
+     *        to {@link Deflater#BEST_COMPRESSION}
+     */
+    public DeflatePageCodec(final int level) {
+        _deflater = new ThreadLocal<Deflater>() {
+            @Override
+            protected Deflater initialValue() {
+                // raw deflate: pages carry no zlib header or checksum
+                return new Deflater(level, true);
+            }
+        };
+    }
+
+    public byte[] compress(byte[] page) {
+        Deflater d = _deflater.get();
+        d.reset();
+        d.setInput(page);
+        d.finish();
+        // incompressible data grows by a few bytes per 16KB block
+        byte[] out = new byte[page.length + page.length / 1000 + 64];
+        int len = 0;
+        while (!d.finished()) {
+            if (len == out.length)
+                out = Arrays.copyOf(out, out.length * 2);
+            len += d.deflate(out, len, out.length - len);
+        }
+        return Arrays.copyOf(out, len);
+    }
+
+    public byte[] decompress(byte[] data, int pageSize) throws IOException {
+        Inflater inf = _inflater.get();
+        inf.reset();
+        inf.setInput(data);
+        byte[] page = new byte[pageSize];
+        try {
+            int len = 0;
+            while (len < pageSize && !inf.finished()) {
+                int n = inf.inflate(page, len, pageSize - len);
+                if (n == 0 && (inf.needsInput() || inf.needsDictionary()))
+                    break;
+                len += n;
+            }
+            if (len != pageSize || !inf.finished())
+                throw new IOException("compressed page does not hold " + pageSize + " bytes");
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        }
+        return page;
+    }
+}
@@ -0,0 +1,158 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A FreeSpaceMap records roughly how many free tuple slots each page of a
+ * HeapFile has, so that an insert can go straight to a page with room
+ * instead of reading the file from its first page.
+ * <p>
+ * The map is kept in a side file next to the heap file, one byte per page:
+ * 0 for a full page, the number of free slots (capped at 254) otherwise,
+ * and 255 for a page nothing is known about.  Pages past the end of the
+ * map, e.g. of a file written by {@link HeapFileEncoder}, are unknown too.
+ * <p>
+ * The map is only a hint.  Entries are updated when pages are read,
+ * written, or changed by inserts and deletes, and an insert checks the
+ * page itself before using it, so an entry that is out of date, for
+ * instance after an abort, costs a page read at worst.
+ *
+ * @Threadsafe
+ */
+class FreeSpaceMap {
+
+    private static final int UNKNOWN = 0xff;
+    private static final int MAX_TRACKED = 0xfe;
+
+    private final File _file;
+    private final DbFileChannel _channel;
+    private byte[] _free;
+    private int _size;
+    /** no page below this one has free slots */
+    private int _hint;
+    private int _dirtyFrom, _dirtyTo;
+
+    /**
+     * @param heapFile the file of the HeapFile the map is for
+     */
+    FreeSpaceMap(File heapFile) {
+        _file = fileFor(heapFile);
+        _channel = new DbFileChannel(_file);
+        _dirtyFrom = Integer.MAX_VALUE;
+        _dirtyTo = 0;
+    }
+
+    /**
+     * @return the side file that holds the free space map of a heap file
+     */
+    static File fileFor(File heapFile) {
+        return new File(heapFile.getPath() + ".fsm");
+    }
+
+    private void load() {
+        if (_free != null)
+            return;
+        _size = 0;
+        if (_file.exists()) {
+            try {
+                _size = (int) _channel.size();
+                _free = new byte[Math.max(_size, 64)];
+                _channel.read(ByteBuffer.wrap(_free, 0, _size), 0);
+            } catch (IOException e) {
+                // a map that cannot be read just means nothing is known
+                _size = 0;
+            }
+        }
+        if (_free == null)
+            _free = new byte[64];
+        Arrays.fill(_free, _size, _free.length, (byte) UNKNOWN);
+    }
+
+    private int entry(int pgNo) {
+        return pgNo < _size ? _free[pgNo] & 0xff : UNKNOWN;
+    }
+
+    /**
+     * Finds the next page that may have a free slot.
+     *
+     * @param from the first page number to consider
+     * @param numPages the number of pages of the heap file
+     * @return the page number, or -1 if every page from <tt>from</tt> on is
+     *         known to be full
+     */
+    synchronized int nextCandidate(int from, int numPages) {
+        return nextCandidate(from, numPages, 1);
+    }
+
+    /**
+     * Finds the next page that may have at least <tt>minFree</tt> free
+     * slots, or units of whatever else the owner of the map records.
+     *
+     * @param from the first page number to consider
+     * @param numPages the number of pages of the file
+     * @param minFree the free space wanted; values past 254 are treated as 254
+     * @return the page number, or -1 if every page from <tt>from</tt> on is
+     *         known to have less room
+     */
+    synchronized int nextCandidate(int from, int numPages, int minFree) {
+        load();
+        minFree = Math.max(1, Math.min(minFree, MAX_TRACKED));
+        int pgNo = Math.max(from, _hint);
+        while (pgNo < numPages && entry(pgNo) < minFree)
+            ++pgNo;
+        // pages skipped for having too little room may still have some
+        if (from <= _hint && minFree == 1)
+            _hint = pgNo;
+        return pgNo < numPages ? pgNo : -1;
+    }
+
+    /**
+     * @return the recorded number of free slots of a page, capped at 254, or
+     *         -1 if nothing is known about the page
+     */
+    synchronized int freeSlots(int pgNo) {
+        load();
+        int e = entry(pgNo);
+        return e == UNKNOWN ? -1 : e;
+    }
+
+    /**
+     * Records the number of free slots of a page.
+     */
+    synchronized void update(int pgNo, int freeSlots) {
+        load();
+        if (pgNo >= _free.length) {
+            int oldLength = _free.length;
+            _free = Arrays.copyOf(_free, Math.max(pgNo + 1, oldLength * 2));
+            Arrays.fill(_free, oldLength, _free.length, (byte) UNKNOWN);
+        }
+        byte e = (byte) Math.min(freeSlots, MAX_TRACKED);
+        if (pgNo < _size && _free[pgNo] == e)
+            return;
+        _free[pgNo] = e;
+        // pages skipped over are written as unknown, not as zeroes
+        _dirtyFrom = Math.min(_dirtyFrom, Math.min(pgNo, _size));
+        _size = Math.max(_size, pgNo + 1);
+        _dirtyTo = Math.max(_dirtyTo, pgNo + 1);
+        if (freeSlots > 0 && pgNo < _hint)
+            _hint = pgNo;
+    }
+
+    /**
+     * Writes the entries that changed since the last flush to the side file.
+     */
+    synchronized void flush() throws IOException {
+        if (_dirtyFrom >= _dirtyTo)
+            return;
+        _channel.write(ByteBuffer.wrap(_free, _dirtyFrom, _dirtyTo - _dirtyFrom), _dirtyFrom);
+        _dirtyFrom = Integer.MAX_VALUE;
+        _dirtyTo = 0;
+    }
+
+    synchronized void close() throws IOException {
+        flush();
+        _channel.close();
+    }
+}
@@ -92,9 +92,9 @@ public class HashEquiJoin extends Operator {
                 Tuple newTp = new Tuple(td);
                 int ind, now;
                 for (ind = 0, now = 0; now < len1; ++ind, ++now)
-                    newTp.setField(ind, tp.getField(now));
+                    tp.copyField(now, newTp, ind);
                 for (now = 0; now < len2; ++now, ++ind)
-                    newTp.setField(ind, _t.getField(now));
+                    _t.copyField(now, newTp, ind);
                 filteredTuples.add(newTp);
             }
         }
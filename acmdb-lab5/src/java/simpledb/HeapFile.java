@@ -1,7 +1,12 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
 
 /**
  * HeapFile is an implementation of a DbFile that stores a collection of tuples
@@ -25,11 +30,52 @@ public class HeapFile implements DbFile {
     private int _numPg;
     private File _file;
     private TupleDesc _schema;
+    private DbFileChannel _channel;
+    private final boolean _mmap;
+    private volatile MappedByteBuffer _map;
+    private final FreeSpaceMap _fsm;
+    /** held while pages are appended to the file */
+    private final Object _appendLock = new Object();
+
+    /**
+     * The number of pages {@link #bulkLoad} fills in memory before writing
+     * them to the file with one gathering write.
+     */
+    public static final int BULK_LOAD_BATCH_PAGES = 64;
+
     public HeapFile(File f, TupleDesc td) {
-        // some code goes here
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, optionally
+     * memory-mapping it for reads.  Mapping suits tables that are loaded
+     * once and then mostly scanned: pages are parsed straight from the
+     * mapping, with no read call and no copy per page.  Writes still go
+     * through the file channel and show up in the mapping.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param td
+     *            the TupleDesc of the table
+     * @param mmap
+     *            whether to serve reads from a memory mapping of the file
+     */
+    public HeapFile(File f, TupleDesc td, boolean mmap) {
         _file = f;
         _schema = td;
         _numPg = (int) (_file.length() / BufferPool.getPageSize());
+        _channel = new DbFileChannel(f);
+        _mmap = mmap;
+        _fsm = new FreeSpaceMap(f);
+    }
+
+    /**
+     * @return true if reads of this HeapFile are served from a memory mapping
+     */
+    public boolean isMemoryMapped() {
+        return _mmap;
     }
 
     /**
@@ -71,31 +117,119 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) throws IllegalArgumentException {
         // some code goes here
+        if (_mmap) {
+            ByteBuffer slice = mappedPage(pid.pageNumber());
+            if (slice != null) {
+                try {
+                    return noteFreeSpace(new HeapPage((HeapPageId) pid, slice));
+                } catch (IOException e) {
+                    throw new IllegalArgumentException(e);
+                }
+            }
+        }
         byte[] _retrievedPage = new byte[BufferPool.getPageSize()];
         try {
-            RandomAccessFile _fptr = new RandomAccessFile(_file, "r");
-            _fptr.seek(pid.pageNumber() * BufferPool.getPageSize());
-            _fptr.read(_retrievedPage, 0, BufferPool.getPageSize());
-            _fptr.close();
-            return new HeapPage((HeapPageId) pid, _retrievedPage);
-        } catch (FileNotFoundException e) {
-            throw new IllegalArgumentException();
+            // a short read leaves the rest of the page zeroed, i.e. empty
+            _channel.read(ByteBuffer.wrap(_retrievedPage),
+                    (long) pid.pageNumber() * BufferPool.getPageSize());
+            return noteFreeSpace(new HeapPage((HeapPageId) pid, _retrievedPage));
         } catch (IOException e) {
-            throw new IllegalArgumentException();
+            throw new IllegalArgumentException(e);
         }
     }
 
+    /**
+     * Starts reading a page through the asynchronous channel of the file.
+     * Memory-mapped files and subclasses read through {@link #readPage} on
+     * the executor instead, so that a subclass that changes or counts reads
+     * still sees every read; it may override this method to read
+     * asynchronously as well.
+     */
+    public CompletableFuture<Page> readPageAsync(final PageId pid, Executor executor) {
+        if (_mmap || getClass() != HeapFile.class)
+            return DbFile.super.readPageAsync(pid, executor);
+        final byte[] _retrievedPage = new byte[BufferPool.getPageSize()];
+        return _channel.readAsync(ByteBuffer.wrap(_retrievedPage),
+                (long) pid.pageNumber() * BufferPool.getPageSize()).thenApply(new Function<Boolean, Page>() {
+            public Page apply(Boolean full) {
+                // a short read leaves the rest of the page zeroed, i.e. empty
+                try {
+                    return noteFreeSpace(new HeapPage((HeapPageId) pid, _retrievedPage));
+                } catch (IOException e) {
+                    throw new IllegalArgumentException(e);
+                }
+            }
+        });
+    }
+
+    private HeapPage noteFreeSpace(HeapPage pg) {
+        _fsm.update(pg.getId().pageNumber(), pg.getNumEmptySlots());
+        return pg;
+    }
+
+    // see DbFile.java for javadocs
+    public Page parsePage(PageId pid, ByteBuffer data) throws IOException {
+        return new HeapPage((HeapPageId) pid, data);
+    }
+
+    /**
+     * Returns a view of the given page in the mapping of the file, remapping
+     * the file if it has grown past the current mapping.
+     *
+     * @return the page, or null if it lies beyond the end of the file
+     */
+    private ByteBuffer mappedPage(int pgNo) {
+        int pageSize = BufferPool.getPageSize();
+        long end = (long) (pgNo + 1) * pageSize;
+        MappedByteBuffer map = _map;
+        if (map == null || map.capacity() < end) {
+            synchronized (this) {
+                map = _map;
+                if (map == null || map.capacity() < end) {
+                    long size = _file.length() / pageSize * pageSize;
+                    if (size < end || size > Integer.MAX_VALUE)
+                        return null;
+                    try {
+                        map = _channel.map(size);
+                    } catch (IOException e) {
+                        throw new IllegalArgumentException(e);
+                    }
+                    _map = map;
+                }
+            }
+        }
+        // the shared buffer's position is never moved, so views can be
+        // taken concurrently
+        ByteBuffer page = map.duplicate();
+        page.position((int) end - pageSize);
+        page.limit((int) end);
+        return page.slice();
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for lab1
-        try {
-            RandomAccessFile _fptr = new RandomAccessFile(_file, "rw");
-            _fptr.seek(page.getId().pageNumber() * BufferPool.getPageSize());
-            _fptr.write(page.getPageData(), 0, BufferPool.getPageSize());
-        } catch (FileNotFoundException e) {
-            throw new IOException();
-        }
+        _channel.write(ByteBuffer.wrap(page.getPageData(), 0, BufferPool.getPageSize()),
+                (long) page.getId().pageNumber() * BufferPool.getPageSize());
+        noteFreeSpace((HeapPage) page);
+        _fsm.flush();
+    }
+
+    // see DbFile.java for javadocs
+    public void writePages(List<Page> pages) throws IOException {
+        _channel.writePages(pages, 0, BufferPool.getPageSize());
+        for (Page page : pages)
+            noteFreeSpace((HeapPage) page);
+        _fsm.flush();
+    }
+
+    // see DbFile.java for javadocs
+    public void close() throws IOException {
+        // the mapping itself is released when it is garbage collected
+        _map = null;
+        _channel.close();
+        _fsm.close();
     }
 
     /**
@@ -112,33 +246,339 @@ public class HeapFile implements DbFile {
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
+        if (Database.getBufferPool().isRowLocking())
+            return insertRow(tid, t);
         HeapPageId pid;
         ArrayList<Page> dirtyPages = new ArrayList<Page>();
-        for (int pgNo = 0; pgNo < _numPg; ++pgNo) {
+        // only visit pages the free space map says may have room; each is
+        // checked under the write lock the insert needs anyway
+        int numPages = numPages();
+        for (int pgNo = _fsm.nextCandidate(0, numPages); pgNo >= 0;
+                pgNo = _fsm.nextCandidate(pgNo + 1, numPages)) {
             pid = new HeapPageId(getId(), pgNo);
+            // never give up a lock the transaction held already, it may
+            // have written the page
+            boolean held = Database.getBufferPool().holdsLock(tid, pid);
             HeapPage pg = (HeapPage) Database.getBufferPool().getPage(tid,
-                    pid, Permissions.READ_ONLY);
+                    pid, Permissions.READ_WRITE);
             if (pg.getNumEmptySlots() > 0) {
-                pg = (HeapPage) Database.getBufferPool().getPage(tid,
-                        pid, Permissions.READ_WRITE);
                 pg.insertTuple(t);
+                _fsm.update(pgNo, pg.getNumEmptySlots());
                 dirtyPages.add(pg);
+                return dirtyPages;
             }
-            else Database.getBufferPool().releasePage(tid, pid);
+            _fsm.update(pgNo, 0);
+            if (!held)
+                Database.getBufferPool().releasePage(tid, pid);
         }
-        if (dirtyPages.size() == 0) {
-            pid = new HeapPageId(getId(), _numPg++);
-            HeapPage pg = new HeapPage(pid, HeapPage.createEmptyPageData());
+        HeapPage pg;
+        synchronized (_appendLock) {
+            pid = new HeapPageId(getId(), numPages());
+            pg = new HeapPage(pid, HeapPage.createEmptyPageData());
             writePage(pg);
-            pg = (HeapPage) Database.getBufferPool().getPage(tid,
-                    pid, Permissions.READ_WRITE);
-            assert pg.getNumEmptySlots() > 0;
-            pg.insertTuple(t);
-            dirtyPages.add(pg);
+        }
+        pg = (HeapPage) Database.getBufferPool().getPage(tid,
+                pid, Permissions.READ_WRITE);
+        assert pg.getNumEmptySlots() > 0;
+        pg.insertTuple(t);
+        _fsm.update(pid.pageNumber(), pg.getNumEmptySlots());
+        dirtyPages.add(pg);
+        return dirtyPages;
+    }
+
+    /**
+     * Inserts t under row-level locking: the page is locked with an
+     * intention lock, and the row of the slot t goes into exclusively.  Slots whose row another
+     * transaction has locked, or emptied without committing yet, are
+     * skipped, so that an abort can always put a deleted tuple back.
+     */
+    private ArrayList<Page> insertRow(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        ArrayList<Page> dirtyPages = new ArrayList<Page>();
+        int numPages = numPages();
+        for (int pgNo = _fsm.nextCandidate(0, numPages); pgNo >= 0;
+                pgNo = _fsm.nextCandidate(pgNo + 1, numPages)) {
+            HeapPageId pid = new HeapPageId(getId(), pgNo);
+            boolean held = bp.holdsLock(tid, pid);
+            HeapPage pg = (HeapPage) bp.getRowPage(tid, pid, Permissions.READ_WRITE, null);
+            if (placeRow(tid, pg, t)) {
+                _fsm.update(pgNo, pg.getNumEmptySlots());
+                dirtyPages.add(pg);
+                return dirtyPages;
+            }
+            if (pg.getNumEmptySlots() == 0)
+                _fsm.update(pgNo, 0);
+            if (!held)
+                bp.releasePage(tid, pid);
+        }
+        while (true) {
+            HeapPageId pid;
+            synchronized (_appendLock) {
+                pid = new HeapPageId(getId(), numPages());
+                writePage(new HeapPage(pid, HeapPage.createEmptyPageData()));
+            }
+            HeapPage pg = (HeapPage) bp.getRowPage(tid, pid, Permissions.READ_WRITE, null);
+            // others may fill a new page as soon as it is in the file
+            if (placeRow(tid, pg, t)) {
+                _fsm.update(pid.pageNumber(), pg.getNumEmptySlots());
+                dirtyPages.add(pg);
+                return dirtyPages;
+            }
+        }
+    }
+
+    private boolean placeRow(TransactionId tid, HeapPage pg, Tuple t)
+            throws DbException {
+        BufferPool bp = Database.getBufferPool();
+        for (int slot = 0; slot < pg.numSlots; ++slot) {
+            if (pg.isSlotUsed(slot) || pg.isRowChanged(slot))
+                continue;
+            RecordId rid = new RecordId(pg.getId(), slot);
+            if (bp.tryLockRow(tid, rid, Permissions.READ_WRITE) && pg.insertRow(tid, t, slot))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Reads the tuples of a page for a scan under row-level locking, taking
+     * a shared lock on each row first.  Rows changed by transactions that
+     * have not completed yet are waited for, including the ones they
+     * emptied.
+     */
+    private Iterator<Tuple> lockedRows(TransactionId tid, HeapPage pg)
+            throws TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        ArrayList<Tuple> rows = new ArrayList<Tuple>();
+        for (int slot = 0; slot < pg.numSlots; ++slot) {
+            if (!pg.isSlotUsed(slot) && !pg.isRowChanged(slot))
+                continue;
+            bp.lockRow(tid, new RecordId(pg.getId(), slot), Permissions.READ_ONLY);
+            Tuple t = pg.row(slot);
+            if (t != null)
+                rows.add(t);
+        }
+        return rows.iterator();
+    }
+
+    /**
+     * Appends the tuples of child to this file on behalf of transaction
+     * tid, bypassing the buffer pool.  The tuples are read in runs of
+     * {@link #BULK_LOAD_BATCH_PAGES} pages, which are packed into full pages
+     * in memory and written to the end of the file with one gathering write.
+     * <p>
+     * Each new page is locked exclusively for tid before it is written, so
+     * other transactions see the loaded tuples only once tid commits.  Each
+     * run is logged with one BULK_APPEND record rather than an update record
+     * per page, and the log is forced before the run is written, so the log
+     * describes every page the load has put in the file, also after a
+     * crash half way.  If tid aborts, the pages are taken back.
+     * Existing pages are left alone, even if they have free slots.
+     *
+     * @param tid the transaction loading the tuples
+     * @param child the tuples to load, already opened
+     * @return the number of tuples loaded
+     * @throws DbException if a tuple does not match the TupleDesc of the file
+     */
+    public int bulkLoad(TransactionId tid, DbIterator child)
+            throws DbException, IOException, TransactionAbortedException {
+        int slotsPerPage = new HeapPage(new HeapPageId(getId(), 0),
+                HeapPage.createEmptyPageData()).numSlots;
+        int count = 0;
+        List<Tuple> run = new ArrayList<Tuple>();
+        // reading child may wait for page locks, so the append lock is
+        // only taken once a run is complete
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            if (!_schema.equals(t.getTupleDesc()))
+                throw new DbException("bulk load: tuple descriptor mismatch");
+            run.add(t);
+            if (run.size() == BULK_LOAD_BATCH_PAGES * slotsPerPage) {
+                appendPages(tid, run, slotsPerPage);
+                count += run.size();
+                run.clear();
+            }
+        }
+        appendPages(tid, run, slotsPerPage);
+        return count + run.size();
+    }
+
+    /**
+     * Appends a run of tuples to the end of the file as new pages, for
+     * {@link #bulkLoad}.  The BULK_APPEND record is forced before the
+     * filled pages reach the file.
+     */
+    private void appendPages(TransactionId tid, List<Tuple> tuples, int slotsPerPage)
+            throws DbException, IOException, TransactionAbortedException {
+        if (tuples.isEmpty())
+            return;
+        int numPages = (tuples.size() + slotsPerPage - 1) / slotsPerPage;
+        int first = reservePages(tid, numPages);
+        Database.getLogFile().logBulkAppend(tid, getId(), first, numPages);
+        Database.getBufferPool().appendedPages(tid);
+        List<Page> pages = new ArrayList<Page>(numPages);
+        for (int i = 0; i < numPages; ++i) {
+            HeapPage pg = new HeapPage(new HeapPageId(getId(), first + i),
+                    HeapPage.createEmptyPageData());
+            int end = Math.min(tuples.size(), (i + 1) * slotsPerPage);
+            for (Tuple t : tuples.subList(i * slotsPerPage, end))
+                pg.insertTuple(t);
+            pages.add(pg);
+        }
+        writePages(pages);
+    }
+
+    /**
+     * Extends the file by numPages empty pages, locked exclusively for tid,
+     * and returns the number of the first.  The free space map calls them
+     * full, so that inserts leave them alone.
+     * <p>
+     * Nothing waits while holding the append lock: insertTuple and
+     * undoAppend need it too, and a thread blocked on it is invisible to
+     * deadlock detection.  So the page locks are only tried under it; a
+     * lock tid cannot get at once is waited for outside, and the
+     * reservation tried again.
+     */
+    private int reservePages(TransactionId tid, int numPages)
+            throws IOException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        while (true) {
+            PageId busy = null;
+            synchronized (_appendLock) {
+                int first = numPages();
+                List<Page> empty = new ArrayList<Page>(numPages);
+                for (int pgNo = first; pgNo < first + numPages && busy == null; ++pgNo) {
+                    HeapPageId pid = new HeapPageId(getId(), pgNo);
+                    if (bp.tryLockPage(tid, pid, Permissions.READ_WRITE))
+                        empty.add(new HeapPage(pid, HeapPage.createEmptyPageData()));
+                    else
+                        busy = pid;
+                }
+                if (busy == null) {
+                    _channel.writePages(empty, 0, BufferPool.getPageSize());
+                    for (int pgNo = first; pgNo < first + numPages; ++pgNo)
+                        _fsm.update(pgNo, 0);
+                    _fsm.flush();
+                    return first;
+                }
+                for (Page pg : empty)
+                    bp.releasePage(tid, pg.getId());
+            }
+            bp.lockPage(tid, busy, Permissions.READ_WRITE);
+        }
+    }
+
+    /**
+     * Takes back pages appended by {@link #bulkLoad}, when the transaction
+     * that loaded them aborts.  The file is cut short if nothing was
+     * appended after them, also if they were logged but never or only
+     * partly written; otherwise they are overwritten with empty pages.
+     */
+    void undoAppend(int first, int numPages) throws IOException {
+        synchronized (_appendLock) {
+            // a mapping must not outlive the part of the file it covers
+            if (!_mmap && numPages() <= first + numPages) {
+                _channel.truncate((long) first * BufferPool.getPageSize());
+                for (int pgNo = first; pgNo < first + numPages; ++pgNo)
+                    _fsm.update(pgNo, 0);
+                _fsm.flush();
+                return;
+            }
+            List<Page> empty = new ArrayList<Page>(numPages);
+            for (int pgNo = first; pgNo < first + numPages; ++pgNo)
+                empty.add(new HeapPage(new HeapPageId(getId(), pgNo), HeapPage.createEmptyPageData()));
+            writePages(empty);
+        }
+    }
+
+    /**
+     * Moves the tuples of a page into free slots of earlier pages, on behalf
+     * of transaction tid, for {@link Vacuum}.  The tuples that fit are moved
+     * and get new RecordIds, as if deleted and inserted again.  Once the
+     * page is empty, the free space map calls it full, so that inserts do
+     * not refill it before {@link #truncateEmptyPages} cuts it off.
+     *
+     * @param tid the transaction moving the tuples
+     * @param pgNo the page to empty
+     * @return the pages that were modified, empty if nothing moved
+     */
+    ArrayList<Page> moveTuples(TransactionId tid, int pgNo)
+            throws DbException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        HeapPage src = (HeapPage) bp.getPage(tid, new HeapPageId(getId(), pgNo), Permissions.READ_WRITE);
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        Iterator<Tuple> it = src.iterator();
+        while (it.hasNext())
+            tuples.add(it.next());
+
+        ArrayList<Page> dirtyPages = new ArrayList<Page>();
+        int next = 0;
+        for (int dstNo = _fsm.nextCandidate(0, pgNo); dstNo >= 0 && next < tuples.size();
+                dstNo = _fsm.nextCandidate(dstNo + 1, pgNo)) {
+            HeapPageId pid = new HeapPageId(getId(), dstNo);
+            boolean held = bp.holdsLock(tid, pid);
+            HeapPage dst = (HeapPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+            if (dst.getNumEmptySlots() == 0) {
+                _fsm.update(dstNo, 0);
+                if (!held)
+                    bp.releasePage(tid, pid);
+                continue;
+            }
+            while (dst.getNumEmptySlots() > 0 && next < tuples.size()) {
+                Tuple t = tuples.get(next++);
+                src.deleteTuple(t);
+                dst.insertTuple(t);
+            }
+            _fsm.update(dstNo, dst.getNumEmptySlots());
+            dirtyPages.add(dst);
+        }
+        if (next > 0) {
+            _fsm.update(pgNo, next == tuples.size() ? 0 : src.getNumEmptySlots());
+            dirtyPages.add(src);
         }
         return dirtyPages;
     }
 
+    /**
+     * Cuts the empty pages at the end of the file off, on behalf of
+     * transaction tid, for {@link Vacuum}.  Each page is locked exclusively
+     * before it is checked, so none of them is in use by another
+     * transaction.  Pages appended meanwhile keep the file as it is.
+     *
+     * @param tid the transaction cutting the pages off
+     * @return the number of pages cut off
+     */
+    int truncateEmptyPages(TransactionId tid)
+            throws DbException, TransactionAbortedException, IOException {
+        // a mapping must not outlive the part of the file it covers
+        if (_mmap)
+            return 0;
+        BufferPool bp = Database.getBufferPool();
+        int numPages = numPages();
+        int first = numPages;
+        while (first > 0) {
+            HeapPage pg = (HeapPage) bp.getPage(tid, new HeapPageId(getId(), first - 1),
+                    Permissions.READ_WRITE);
+            if (pg.getNumEmptySlots() != pg.numSlots)
+                break;
+            --first;
+        }
+        if (first == numPages)
+            return 0;
+        synchronized (_appendLock) {
+            if (numPages() != numPages)
+                return 0;
+            for (int pgNo = first; pgNo < numPages; ++pgNo) {
+                bp.discardPage(new HeapPageId(getId(), pgNo));
+                _fsm.update(pgNo, 0);
+            }
+            _channel.truncate((long) first * BufferPool.getPageSize());
+            _fsm.flush();
+        }
+        return numPages - first;
+    }
+
     // see DbFile.java for javadocs
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
@@ -150,8 +590,16 @@ public class HeapFile implements DbFile {
         HeapPageId pid = (HeapPageId) recId.getPageId();
         if (pid.getTableId() != getId())
             throw new DbException("Try to delete a tuple in another HeapFile");
-        HeapPage pg = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
-        pg.deleteTuple(t);
+        HeapPage pg;
+        if (Database.getBufferPool().isRowLocking()) {
+            Database.getBufferPool().lockRow(tid, recId, Permissions.READ_WRITE);
+            pg = (HeapPage) Database.getBufferPool().getRowPage(tid, pid, Permissions.READ_WRITE, null);
+            pg.deleteRow(tid, t);
+        } else {
+            pg = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+            pg.deleteTuple(t);
+        }
+        _fsm.update(pid.pageNumber(), pg.getNumEmptySlots());
         ArrayList<Page> dirtyPages = new ArrayList<Page>();
         dirtyPages.add(pg);
         return dirtyPages;
@@ -160,6 +608,15 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         // some code goes here
+        /*
+         * The iterator reads pages ahead of itself through the buffer pool.
+         * The read-ahead window doubles whenever the scan catches up with a
+         * page that is still being read, and halves when a page read ahead
+         * was evicted again before the scan got to it.
+         *
+         * A scan of a file that is large compared to the pool reads through
+         * a BufferRing, so it does not push the rest of the pool out.
+         */
         class HeapFileIterator implements DbFileIterator {
 
             private int _curPgNo;
@@ -168,13 +625,46 @@ public class HeapFile implements DbFile {
             private Permissions _per = Permissions.READ_ONLY;
 
             private Iterator<Tuple> _curPgItr = null;
+            private BufferRing _ring = null;
+
+            private int _readAhead = 2;
+            private int _aheadPgNo = 0;
+            private Map<Integer, CompletableFuture<Boolean>> _pending =
+                    new HashMap<Integer, CompletableFuture<Boolean>>();
+
+            private void readAhead(int pgNo) {
+                BufferPool bp = Database.getBufferPool();
+                int limit = bp.readAheadLimit();
+                if (_ring != null)
+                    limit = Math.min(limit, _ring.capacity() / 2);
+                if (limit < 1)
+                    return;
+                CompletableFuture<Boolean> f = _pending.remove(pgNo);
+                if (f != null) {
+                    if (!f.isDone())
+                        _readAhead *= 2;
+                    else if (!f.getNow(false) || !bp.isResident(new HeapPageId(_tableId, pgNo)))
+                        _readAhead /= 2;
+                }
+                _readAhead = Math.max(1, Math.min(_readAhead, limit));
+                _aheadPgNo = Math.max(_aheadPgNo, pgNo + 1);
+                int end = Math.min(_numPg, pgNo + 1 + _readAhead);
+                for (; _aheadPgNo < end; ++_aheadPgNo)
+                    _pending.put(_aheadPgNo, bp.prefetchPage(new HeapPageId(_tableId, _aheadPgNo), _ring));
+            }
 
             private void redirPgItr() throws DbException, TransactionAbortedException {
                 try {
 //                    if (_curPgItr != null)
 //                        Database.getBufferPool().releaseReadPage(tid, new HeapPageId(_tableId, _curPgNo));
                     _curPgNo = _nxtPgNo;
-                    _curPgItr = ((HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(_tableId, _nxtPgNo++), _per)).iterator();
+                    readAhead(_nxtPgNo);
+                    BufferPool bp = Database.getBufferPool();
+                    HeapPageId pid = new HeapPageId(_tableId, _nxtPgNo++);
+                    if (bp.isRowLocking())
+                        _curPgItr = lockedRows(tid, (HeapPage) bp.getRowPage(tid, pid, _per, _ring));
+                    else
+                        _curPgItr = ((HeapPage) bp.getPage(tid, pid, _per, _ring)).iterator();
                 } catch (DbException e) {
                     throw e;
                 }
@@ -184,7 +674,10 @@ public class HeapFile implements DbFile {
             public void open() throws DbException, TransactionAbortedException {
                 _curPgNo = -1;
                 _nxtPgNo = 0;
+                _aheadPgNo = 0;
+                _pending.clear();
                 _tableId = getId();
+                _ring = Database.getBufferPool().ringFor(numPages());
                 redirPgItr();
             }
 
@@ -206,6 +699,8 @@ public class HeapFile implements DbFile {
             @Override
             public void rewind() throws DbException, TransactionAbortedException {
                 _nxtPgNo = 0;
+                _aheadPgNo = 0;
+                _pending.clear();
                 redirPgItr();
             }
 
@@ -213,6 +708,7 @@ public class HeapFile implements DbFile {
             public void close() {
 //                Database.getBufferPool().releaseReadPage(tid, new HeapPageId(_tableId, _curPgNo));
                 _curPgItr = null;
+                _pending.clear();
             }
         }
 
@@ -2,6 +2,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
@@ -15,12 +16,39 @@ public class HeapPage implements Page {
 
     final HeapPageId pid;
     final TupleDesc td;
-    final byte header[];
+    /** decoded tuples; a used slot with no entry has not been decoded yet */
     final Tuple tuples[];
+    /** the image of the page, header and slots, kept up to date by
+     *  insertTuple() and deleteTuple() */
+    volatile byte data[];
+    /** whether data[] is also the before image, the caller's array or an
+     *  array handed out by getPageData(), and so must be copied before the
+     *  page changes it */
+    boolean shared;
+    final int headerSize;
     final int numSlots;
 
     byte[] oldData;
-    private final Byte oldDataLock=new Byte((byte)0);
+    /** guards oldData, rowChanges, and data[] while it is handed out or
+     *  copied */
+    private final Object oldDataLock = new Object();
+
+    /** uncommitted changes to single rows, by slot, made under row locks by
+     *  transactions that share the page, see insertRow(); null while there
+     *  are none */
+    private Map<Integer, RowChange> rowChanges;
+
+    /** An uncommitted change to a slot, made under a row lock */
+    private static class RowChange {
+        final TransactionId tid;
+        /** the bytes of the slot before the change, null if it was empty */
+        final byte[] before;
+
+        RowChange(TransactionId tid, byte[] before) {
+            this.tid = tid;
+            this.before = before;
+        }
+    }
 
     TransactionId lastModifiedTid;
     /**
@@ -35,6 +63,11 @@ public class HeapPage implements Page {
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
+     * <p>
+     * The page keeps a reference to <tt>data</tt> and decodes tuples from it
+     * lazily, so the array must not be modified afterwards.  The page copies
+     * it before it changes for the first time.
+     *
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#getPageSize()
@@ -43,28 +76,43 @@ public class HeapPage implements Page {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
+        this.headerSize = getHeaderSize();
 
         //lab2
         this.lastModifiedTid = null;
 
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
-        tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
+        if (data.length < headerSize + numSlots * td.getSize())
+            throw new EOFException("heap page image too short: " + data.length + " bytes");
+        // nothing is read here; tuples are decoded from the page image by
+        // tuple() when they are first asked for
+        if (data.length == BufferPool.getPageSize()) {
+            this.data = data;
+        } else {
+            this.data = Arrays.copyOf(data, BufferPool.getPageSize());
         }
-        dis.close();
+        tuples = new Tuple[numSlots];
 
-        setBeforeImage();
+        // the image is copied before it is modified, so until then it
+        // doubles as the before image
+        oldData = this.data;
+        shared = true;
+    }
+
+    /**
+     * Create a HeapPage from the remaining bytes of a buffer, e.g. a slice of
+     * a memory-mapped file or a buffer pool frame.  The bytes are copied, so
+     * the buffer may be reused once the constructor returns.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this(id, toArray(data));
+    }
+
+    private static byte[] toArray(ByteBuffer data) {
+        byte[] bytes = new byte[data.remaining()];
+        data.duplicate().get(bytes);
+        return bytes;
     }
 
     /** Retrieve the number of tuples on this page.
@@ -106,7 +154,12 @@ public class HeapPage implements Page {
     public void setBeforeImage() {
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+        if (rowChanges != null) {
+            oldData = committedData();
+            return;
+        }
+        oldData = data;
+        shared = true;
         }
     }
 
@@ -119,36 +172,36 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Returns the tuple in a used slot, decoding it from the page image the
+     * first time it is asked for.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
-        }
-
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
+    private Tuple tuple(int slotId) throws NoSuchElementException {
+        Tuple t = tuples[slotId];
+        if (t != null)
+            return t;
+
+        // read fields in the tuple; ints go into the tuple unboxed
+        t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slotId));
+        int base = headerSize + slotId * td.getSize();
         try {
             for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
+                Type type = td.getFieldType(j);
+                int off = base + td.getOffset(j);
+                if (type == Type.INT_TYPE) {
+                    t.setInt(j, readInt(data, off));
+                    continue;
+                }
+                DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data,
+                        off, type.getLen()));
+                t.setField(j, type.parse(dis));
             }
         } catch (java.text.ParseException e) {
             e.printStackTrace();
             throw new NoSuchElementException("parsing error!");
         }
 
+        tuples[slotId] = t;
         return t;
     }
 
@@ -159,69 +212,121 @@ public class HeapPage implements Page {
      * The invariant here is that it should be possible to pass the byte
      * array generated by getPageData to the HeapPage constructor and
      * have it produce an identical HeapPage object.
+     * <p>
+     * Inserts and deletes keep the page image up to date, so this returns
+     * the image itself rather than a copy.  The array must not be modified;
+     * the page copies it before it changes again.  While rows of the page
+     * have uncommitted changes, a copy without them is returned instead, so
+     * that they never reach the disk.
      *
      * @see #HeapPage
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
+        synchronized(oldDataLock)
+        {
+        if (rowChanges != null)
+            return committedData();
+        shared = true;
+        return data;
         }
+    }
 
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
+    /**
+     * Returns a copy of the page image with the uncommitted row changes
+     * taken back.  Must be called with oldDataLock held.
+     */
+    private byte[] committedData() {
+        byte[] image = data.clone();
+        for (Map.Entry<Integer, RowChange> e : rowChanges.entrySet())
+            restoreSlot(image, e.getKey(), e.getValue().before);
+        return image;
+    }
 
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
+    /** Puts a slot of image back to what it held before a row change */
+    private void restoreSlot(byte[] image, int slotId, byte[] before) {
+        int off = headerSize + slotId * td.getSize();
+        int bit = 1 << (slotId % 8);
+        if (before == null) {
+            Arrays.fill(image, off, off + td.getSize(), (byte) 0);
+            image[slotId / 8] &= ~bit;
+        } else {
+            System.arraycopy(before, 0, image, off, before.length);
+            image[slotId / 8] |= bit;
+        }
+    }
 
-                }
-                continue;
-            }
+    /**
+     * Returns the page image for a change, copying it first if it is shared.
+     * Must be called with oldDataLock held.
+     */
+    private byte[] writableData() {
+        if (shared) {
+            data = data.clone();
+            shared = false;
+        }
+        return data;
+    }
 
-            // non-empty slot
+    /**
+     * Writes the fields of t into a slot of the page image, in the format
+     * tuple() reads them back in.
+     */
+    private void writeTuple(byte[] image, int slotId, Tuple t) {
+        int base = headerSize + slotId * td.getSize();
+        try {
             for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
+                int off = base + td.getOffset(j);
+                if (td.getFieldType(j) == Type.INT_TYPE) {
+                    writeInt(image, off, t.getInt(j));
+                    continue;
                 }
+                DataOutputStream dos = new DataOutputStream(new SlotOutputStream(image, off));
+                t.getField(j).serialize(dos);
             }
-        }
-
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
         } catch (IOException e) {
+            // this really shouldn't happen
             e.printStackTrace();
         }
+    }
 
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
+    /** Reads a big-endian int, as DataInputStream.readInt() does */
+    private static int readInt(byte[] b, int off) {
+        return (b[off] << 24) | ((b[off + 1] & 0xff) << 16)
+                | ((b[off + 2] & 0xff) << 8) | (b[off + 3] & 0xff);
+    }
+
+    /** Writes a big-endian int, as DataOutputStream.writeInt() does */
+    private static void writeInt(byte[] b, int off, int v) {
+        b[off] = (byte) (v >>> 24);
+        b[off + 1] = (byte) (v >>> 16);
+        b[off + 2] = (byte) (v >>> 8);
+        b[off + 3] = (byte) v;
+    }
+
+    /**
+     * Writes into a byte array from an offset on, without a buffer of its
+     * own.
+     */
+    private static class SlotOutputStream extends OutputStream {
+        private final byte[] _buf;
+        private int _pos;
+
+        SlotOutputStream(byte[] buf, int pos) {
+            _buf = buf;
+            _pos = pos;
+        }
+
+        @Override
+        public void write(int b) {
+            _buf[_pos++] = (byte) b;
         }
 
-        return baos.toByteArray();
+        @Override
+        public void write(byte[] b, int off, int len) {
+            System.arraycopy(b, off, _buf, _pos, len);
+            _pos += len;
+        }
     }
 
     /**
@@ -265,7 +370,14 @@ public class HeapPage implements Page {
 //            throw new DbException("Deletion failed: Target mismatch");
 
 //        t.setRecordId(null);
+        synchronized(oldDataLock)
+        {
+        byte[] image = writableData();
+        int off = headerSize + rid.tupleno() * td.getSize();
+        Arrays.fill(image, off, off + td.getSize(), (byte) 0);
         markSlotUsed(rid.tupleno(), false);
+        }
+        tuples[rid.tupleno()] = null;
     }
 
     /**
@@ -290,9 +402,145 @@ public class HeapPage implements Page {
         if (i == tuples.length)
             throw new DbException("Insertion failed: No empty slot in heap page");
 
+        synchronized(oldDataLock)
+        {
+        writeTuple(writableData(), i, t);
+        markSlotUsed(i, true);
+        }
         t.setRecordId(new RecordId(pid, i));
         tuples[i] = t;
-        markSlotUsed(i, true);
+    }
+
+    /**
+     * Adds t to an empty slot on behalf of tid under row-level locking,
+     * where tid holds an exclusive lock on the row of the slot and other
+     * transactions may change other rows of the page meanwhile.  The change
+     * is remembered until {@link #rowsCommitted} or {@link #undoRows}.
+     *
+     * @return false if the slot is in use, or was emptied by another
+     *         transaction that has not completed yet
+     * @throws DbException if the tupledesc is mismatch
+     */
+    boolean insertRow(TransactionId tid, Tuple t, int slotId) throws DbException {
+        if (!td.equals(t.getTupleDesc()))
+            throw new DbException("Insertion failed: Tuple descriptor mismatch");
+        synchronized(oldDataLock)
+        {
+        if (isSlotUsed(slotId))
+            return false;
+        RowChange c = rowChanges == null ? null : rowChanges.get(slotId);
+        if (c != null && !c.tid.equals(tid))
+            return false;
+        if (c == null)
+            rememberRow(tid, slotId, null);
+        writeTuple(writableData(), slotId, t);
+        markSlotUsed(slotId, true);
+        }
+        t.setRecordId(new RecordId(pid, slotId));
+        tuples[slotId] = t;
+        return true;
+    }
+
+    /**
+     * Deletes t on behalf of tid under row-level locking, where tid holds
+     * an exclusive lock on its row, see {@link #insertRow}.
+     *
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     */
+    void deleteRow(TransactionId tid, Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !getId().equals(rid.getPageId()))
+            throw new DbException("Deletion failed: Wrong deletion page");
+        int slotId = rid.tupleno();
+        if (!validTupleNo(slotId))
+            throw new DbException("Deletion failed: Can not find certain tuple");
+        synchronized(oldDataLock)
+        {
+        if (!isSlotUsed(slotId))
+            throw new DbException("Deletion failed: Can not find certain tuple");
+        if (rowChanges == null || !rowChanges.containsKey(slotId)) {
+            int off = headerSize + slotId * td.getSize();
+            rememberRow(tid, slotId, Arrays.copyOfRange(data, off, off + td.getSize()));
+        }
+        byte[] image = writableData();
+        int off = headerSize + slotId * td.getSize();
+        Arrays.fill(image, off, off + td.getSize(), (byte) 0);
+        markSlotUsed(slotId, false);
+        }
+        tuples[slotId] = null;
+    }
+
+    /** Must be called with oldDataLock held */
+    private void rememberRow(TransactionId tid, int slotId, byte[] before) {
+        if (rowChanges == null)
+            rowChanges = new HashMap<Integer, RowChange>();
+        rowChanges.put(slotId, new RowChange(tid, before));
+    }
+
+    /**
+     * Makes the row changes of tid part of the committed page, for when tid
+     * commits.
+     */
+    void rowsCommitted(TransactionId tid) {
+        synchronized(oldDataLock)
+        {
+        if (rowChanges == null)
+            return;
+        Iterator<RowChange> it = rowChanges.values().iterator();
+        while (it.hasNext())
+            if (it.next().tid.equals(tid))
+                it.remove();
+        if (rowChanges.isEmpty())
+            rowChanges = null;
+        }
+    }
+
+    /**
+     * Takes back the row changes of tid, for when tid aborts, and leaves
+     * those of other transactions as they are.
+     */
+    void undoRows(TransactionId tid) {
+        synchronized(oldDataLock)
+        {
+        if (rowChanges == null)
+            return;
+        Iterator<Map.Entry<Integer, RowChange>> it = rowChanges.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Integer, RowChange> e = it.next();
+            if (!e.getValue().tid.equals(tid))
+                continue;
+            restoreSlot(writableData(), e.getKey(), e.getValue().before);
+            tuples[e.getKey()] = null;
+            it.remove();
+        }
+        if (rowChanges.isEmpty())
+            rowChanges = null;
+        }
+    }
+
+    /**
+     * @return whether a row of the slot has been changed by a transaction
+     *         that has not completed yet
+     */
+    boolean isRowChanged(int slotId) {
+        synchronized(oldDataLock)
+        {
+        return rowChanges != null && rowChanges.containsKey(slotId);
+        }
+    }
+
+    /** @return whether rows of the page have uncommitted changes */
+    boolean hasRowChanges() {
+        synchronized(oldDataLock)
+        {
+        return rowChanges != null;
+        }
+    }
+
+    /** @return the tuple in a slot, or null if the slot is empty */
+    Tuple row(int slotId) {
+        return isSlotUsed(slotId) ? tuple(slotId) : null;
     }
 
     /**
@@ -311,7 +559,15 @@ public class HeapPage implements Page {
     public TransactionId isDirty() {
         // some code goes here
 	    // Not necessary for lab1
-        return this.lastModifiedTid;
+        TransactionId dirtier = this.lastModifiedTid;
+        if (dirtier != null)
+            return dirtier;
+        // rows changed by transactions that have not committed yet keep the
+        // page in the pool, even after another transaction wrote it out
+        synchronized(oldDataLock)
+        {
+        return rowChanges == null ? null : rowChanges.values().iterator().next().tid;
+        }
     }
 
     /**
@@ -333,7 +589,7 @@ public class HeapPage implements Page {
         // some code goes here
         int _ind = (int) i / 8;
         int _rem = i - _ind * 8;
-        return ((header[_ind] & (1 << _rem)) == (1 << _rem));
+        return ((data[_ind] & (1 << _rem)) == (1 << _rem));
     }
 
     /**
@@ -345,8 +601,8 @@ public class HeapPage implements Page {
         int _ind = (int) i / 8;
         int _rem = i - _ind * 8;
 
-        header[_ind] = value? (byte) (header[_ind] | (1 << _rem)) :
-                (byte) (header[_ind] & (-1 ^ (1 << _rem)));
+        data[_ind] = value? (byte) (data[_ind] | (1 << _rem)) :
+                (byte) (data[_ind] & (-1 ^ (1 << _rem)));
 
     }
 
@@ -388,7 +644,7 @@ public class HeapPage implements Page {
                 }
                 if (_preSlotNo == _curSlotNo)
                     _curSlotNo = -1;
-                return tuples[_preSlotNo];
+                return tuple(_preSlotNo);
             }
 
             @Override
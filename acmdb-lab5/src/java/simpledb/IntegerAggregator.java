@@ -85,17 +85,17 @@ public class IntegerAggregator implements Aggregator {
      */
     public void mergeTupleIntoGroup(Tuple tup) {
         // some code goes here
-        IntField fd = (IntField) tup.getField(afield);
-        assert fd.getType() == Type.INT_TYPE;
+        // read without boxing it into an IntField
+        int val = tup.getInt(afield);
         if (gbfieldtype == null) {
             if (globVal == null) {
                 if (op == Op.COUNT)
                     globVal = new Rec(1);
                 else
-                    globVal = new Rec(fd.getValue());
+                    globVal = new Rec(val);
             }
             else
-                merge(globVal, fd.getValue());
+                merge(globVal, val);
         }
         else {
             Field idenFd = tup.getField(gbfield);
@@ -104,11 +104,11 @@ public class IntegerAggregator implements Aggregator {
                 if (op == Op.COUNT)
                     r = new Rec(1);
                 else
-                    r = new Rec(fd.getValue());
+                    r = new Rec(val);
                 table.put(idenFd, r);
             }
             else
-                merge(r, fd.getValue());
+                merge(r, val);
         }
     }
 
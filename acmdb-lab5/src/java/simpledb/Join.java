@@ -95,9 +95,9 @@ public class Join extends Operator {
                     Tuple tp = new Tuple(td);
                     int ind, now;
                     for (ind = 0, now = 0; now < len1; ++ind, ++now)
-                        tp.setField(ind, out.getField(now));
+                        out.copyField(now, tp, ind);
                     for (now = 0; now < len2; ++now, ++ind)
-                        tp.setField(ind, in.getField(now));
+                        in.copyField(now, tp, ind);
                     filteredTuples.add(tp);
                 }
             }
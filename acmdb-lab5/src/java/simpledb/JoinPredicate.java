@@ -42,7 +42,7 @@ public class JoinPredicate implements Serializable {
      */
     public boolean filter(Tuple t1, Tuple t2) {
         // some code goes here
-        return t1.getField(fid1).compare(op, t2.getField(fid2));
+        return t1.compareField(fid1, op, t2, fid2);
     }
     
     public int getField1()
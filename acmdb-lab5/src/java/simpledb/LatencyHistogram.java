@@ -0,0 +1,79 @@
+package simpledb;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LatencyHistogram counts durations in buckets whose bounds are powers of
+ * two nanoseconds, so that recording is one increment and the histogram
+ * covers nanoseconds to minutes in 64 counters.  Percentiles are reported
+ * as the upper bound of the bucket they fall in, i.e. to within a factor
+ * of two.
+ *
+ * @Threadsafe
+ */
+public class LatencyHistogram {
+
+    private static final int BUCKETS = 64;
+
+    /** bucket i counts durations in [2^(i-1), 2^i) nanoseconds */
+    private final AtomicLongArray _buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder _count = new LongAdder();
+    private final LongAdder _totalNanos = new LongAdder();
+
+    private static int bucketOf(long nanos) {
+        return nanos <= 0 ? 0 : BUCKETS - Long.numberOfLeadingZeros(nanos);
+    }
+
+    /**
+     * Records count events that took nanos nanoseconds each.
+     */
+    public void record(long nanos, int count) {
+        _buckets.addAndGet(Math.min(bucketOf(nanos), BUCKETS - 1), count);
+        _count.add(count);
+        _totalNanos.add(nanos * count);
+    }
+
+    public void record(long nanos) {
+        record(nanos, 1);
+    }
+
+    /** @return the number of events recorded */
+    public long count() {
+        return _count.sum();
+    }
+
+    /** @return the mean duration in nanoseconds, or 0 if nothing was recorded */
+    public double meanNanos() {
+        long n = _count.sum();
+        return n == 0 ? 0 : (double) _totalNanos.sum() / n;
+    }
+
+    /**
+     * @param q a fraction between 0 and 1, e.g. 0.99
+     * @return an upper bound on the duration in nanoseconds that a fraction
+     *         q of the recorded events did not exceed, or 0 if nothing was
+     *         recorded
+     */
+    public long percentileNanos(double q) {
+        long n = 0;
+        for (int i = 0; i < BUCKETS; ++i)
+            n += _buckets.get(i);
+        long rank = (long) Math.ceil(q * n);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            seen += _buckets.get(i);
+            if (seen >= rank && seen > 0)
+                return i == 0 ? 0 : 1L << Math.min(i, 62);
+        }
+        return 0;
+    }
+
+    /** Forgets everything recorded so far. */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; ++i)
+            _buckets.set(i, 0);
+        _count.reset();
+        _totalNanos.reset();
+    }
+}
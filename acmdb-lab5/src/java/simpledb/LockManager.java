@@ -3,220 +3,537 @@ package simpledb;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * LockManager keeps the locks of transactions on a hierarchy of tables,
+ * pages and, for row-level locking, rows named by the RecordId of a tuple,
+ * see {@link BufferPool#setRowLocking}.  Before a page or row is locked
+ * shared or exclusive, its table and page are locked in the matching
+ * intention mode, so a lock on a table conflicts with the locks on
+ * anything inside it.  Locks are held until the transaction completes, or
+ * are given up early through {@link #relLock}.
+ * <p>
+ * Once a transaction holds more than {@link #getEscalationThreshold} page
+ * and row locks on one table, they are replaced by a single shared lock on
+ * the table if it only read it, or an exclusive one otherwise.  Escalation
+ * never waits: while another transaction holds a conflicting lock on the
+ * table, the fine locks stay, and escalation is tried again after as many
+ * more.  Under a table lock, reads take no further locks; the pages and
+ * rows written are still remembered, for {@link #getWrittenPage} and
+ * {@link #getWrittenRowPages}, but not entered in the lock table.
+ * <p>
+ * A transaction that has to wait for a lock first records what it waits
+ * for and then looks for a cycle in the waits-for graph, so of two
+ * transactions closing a cycle at the same time the later one finds it.
+ * Waiting transactions also look again every {@link #DEADLOCK_CHECK_MILLIS}.
+ */
 class LockManager {
+
+    /** How often a waiting transaction looks for a deadlock again */
+    static final long DEADLOCK_CHECK_MILLIS = 100;
+
+    /** Default for {@link #setEscalationThreshold} */
+    static final int DEFAULT_ESCALATION_THRESHOLD = 1000;
+
+    /** Lock modes, from intention shared to exclusive */
+    enum Mode {
+        IS, IX, S, SIX, X;
+
+        private static final boolean[][] COMPATIBLE = {
+            //          IS     IX     S      SIX    X
+            /* IS  */ { true,  true,  true,  true,  false },
+            /* IX  */ { true,  true,  false, false, false },
+            /* S   */ { true,  false, true,  false, false },
+            /* SIX */ { true,  false, false, false, false },
+            /* X   */ { false, false, false, false, false },
+        };
+
+        private static final boolean[][] COVERS = {
+            //          IS     IX     S      SIX    X
+            /* IS  */ { true,  false, false, false, false },
+            /* IX  */ { true,  true,  false, false, false },
+            /* S   */ { true,  false, true,  false, false },
+            /* SIX */ { true,  true,  true,  true,  false },
+            /* X   */ { true,  true,  true,  true,  true  },
+        };
+
+        static Mode of(Permissions perm) {
+            return perm == Permissions.READ_WRITE ? X : S;
+        }
+
+        boolean compatible(Mode m) {
+            return COMPATIBLE[ordinal()][m.ordinal()];
+        }
+
+        /** @return whether a holder of this mode needs no lock in mode m */
+        boolean covers(Mode m) {
+            return COVERS[ordinal()][m.ordinal()];
+        }
+
+        /** @return the weakest mode covering both this mode and m */
+        Mode join(Mode m) {
+            if (covers(m))
+                return this;
+            if (m.covers(this))
+                return m;
+            return SIX;
+        }
+
+        /** @return the mode the parent of a lock in this mode is locked in */
+        Mode intention() {
+            return this == IS || this == S ? IS : IX;
+        }
+
+        /**
+         * @return whether a lock in this mode on a table or page makes a
+         *         lock in mode m on anything inside it unnecessary
+         */
+        boolean impliesBelow(Mode m) {
+            return this == X || ((this == S || this == SIX) && (m == IS || m == S));
+        }
+    }
+
+    /** The name of the lock on a whole table */
+    static final class TableKey {
+        final int tableId;
+
+        TableKey(int tableId) {
+            this.tableId = tableId;
+        }
+
+        public boolean equals(Object o) {
+            return o instanceof TableKey && ((TableKey) o).tableId == tableId;
+        }
+
+        public int hashCode() {
+            return tableId;
+        }
+
+        public String toString() {
+            return "table " + tableId;
+        }
+    }
+
+    /** @return the table or page a lock is nested in, or null for a table */
+    private static Object parent(Object key) {
+        if (key instanceof RecordId)
+            return ((RecordId) key).getPageId();
+        if (key instanceof PageId)
+            return new TableKey(((PageId) key).getTableId());
+        return null;
+    }
+
+    private static int tableOf(Object key) {
+        if (key instanceof RecordId)
+            return ((RecordId) key).getPageId().getTableId();
+        if (key instanceof PageId)
+            return ((PageId) key).getTableId();
+        return ((TableKey) key).tableId;
+    }
+
     class LockStatus {
-        private int s;
-        private PageId pid;
+        private final Object key;
+        /** the holders; written only with this LockStatus locked, read by
+         *  the deadlock detection without it */
+        private final Map<TransactionId, Mode> holders =
+                new ConcurrentHashMap<TransactionId, Mode>();
+        private int waiting;
+        /** set once the lock is dropped from the lock table */
+        private boolean retired;
 
-        public LockStatus(PageId pid) {
-            s = 0;
-            this.pid = pid;
+        public LockStatus(Object key) {
+            this.key = key;
         }
 
-        public synchronized boolean getSlock(TransactionId tid)
-                throws TransactionAbortedException {
-            while (true) {
-                if (s >= 0) {
-                    s += 1;
-                    blocking.remove(tid);
-                    return true;
-                }
-                else {
-                    if (hasDeadLock(tid, pid))
-                        throw new TransactionAbortedException();
-                    blocking.putIfAbsent(tid, pid);
-                    try {wait();} catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-                }
+        private boolean grantable(TransactionId tid, Mode mode) {
+            for (Map.Entry<TransactionId, Mode> e : holders.entrySet()) {
+                if (e.getKey().equals(tid))
+                    continue;
+                if (!mode.compatible(e.getValue()))
+                    return false;
             }
+            return true;
         }
 
-        public synchronized boolean relSlock() {
-            if (s > 0) {
-                s -= 1;
-                notifyAll();
-                return true;
-            }
-            return false;
+        private void grant(TransactionId tid, Mode mode) {
+            Mode cur = holders.get(tid);
+            holders.put(tid, cur == null ? mode : cur.join(mode));
         }
 
-        public synchronized boolean getXlock(TransactionId tid, boolean holdsSlock)
+        /**
+         * Waits until the lock can be granted to tid, and grants it.
+         *
+         * @return false if the lock was retired meanwhile and has to be
+         *         looked up again
+         */
+        public synchronized boolean acquire(TransactionId tid, Mode mode)
                 throws TransactionAbortedException {
-            while (true) {
-                if (s == 0 || (s == 1 && holdsSlock)) {
-                    s = -1;
-                    blocking.remove(tid);
-                    return true;
-                }
-                else {
-                    if (hasDeadLock(tid, pid))
-                        throw new TransactionAbortedException();
-                    blocking.putIfAbsent(tid, pid);
-                    try {wait();} catch (InterruptedException e) {
-                        e.printStackTrace();
+            if (retired)
+                return false;
+            if (!grantable(tid, mode)) {
+                ++waiting;
+                blocking.put(tid, key);
+                try {
+                    while (!grantable(tid, mode)) {
+                        if (hasDeadLock(tid, key))
+                            throw new TransactionAbortedException();
+                        try {
+                            wait(DEADLOCK_CHECK_MILLIS);
+                        } catch (InterruptedException e) {
+                            e.printStackTrace();
+                        }
                     }
+                } finally {
+                    blocking.remove(tid);
+                    --waiting;
                 }
             }
+            grant(tid, mode);
+            return true;
         }
 
-        public synchronized boolean relXlock() {
-            if (s == -1) {
-                s = 0;
-                notifyAll();
-                return true;
-            }
-            return false;
-        }
-
-        public synchronized boolean uniqueSlock() {
-            return (s == 1);
+        /**
+         * Grants the lock to tid if that is possible without waiting.
+         *
+         * @return null if the lock was retired and has to be looked up again
+         */
+        public synchronized Boolean tryAcquire(TransactionId tid, Mode mode) {
+            if (retired)
+                return null;
+            if (!grantable(tid, mode))
+                return false;
+            grant(tid, mode);
+            return true;
         }
 
-        public synchronized boolean updateSlock() {
-            if (s == 1) {
-                s = -1;
-                return true;
+        public synchronized boolean release(TransactionId tid) {
+            if (holders.remove(tid) == null)
+                return false;
+            if (holders.isEmpty() && waiting == 0) {
+                retired = true;
+                locks.remove(key, this);
             }
-            return false;
+            notifyAll();
+            return true;
         }
 
+        boolean isHeld() {
+            return !holders.isEmpty();
+        }
+    }
 
+    /** The locks of one transaction */
+    private static class TransactionLocks {
+        /** the mode of each lock held, and the exclusive locks implied by a
+         *  table lock */
+        final Map<Object, Mode> modes = new ConcurrentHashMap<Object, Mode>();
+        /** per table, the number of page and row locks in the lock table
+         *  and the number at which to try escalation next; guarded by this */
+        final Map<Integer, int[]> fine = new HashMap<Integer, int[]>();
     }
 
-    private Map<PageId, LockStatus> pid2ls;
-    private Map<TransactionId, Map<PageId, Permissions>> tid2pids;
-    private Map<TransactionId, PageId> blocking;
-    private Map<PageId, Map<TransactionId, Permissions>> pid2tids;
+    private final Map<Object, LockStatus> locks;
+    private final Map<TransactionId, TransactionLocks> tid2locks;
+    private final Map<TransactionId, Object> blocking;
+    private volatile int escalationThreshold = DEFAULT_ESCALATION_THRESHOLD;
+    private final AtomicLong escalations = new AtomicLong();
 
     public LockManager() {
-        pid2ls = new ConcurrentHashMap<PageId, LockStatus>();
-        tid2pids = new ConcurrentHashMap<TransactionId, Map<PageId, Permissions>>();
-        blocking = new ConcurrentHashMap<TransactionId, PageId>();
-        pid2tids = new ConcurrentHashMap<PageId, Map<TransactionId, Permissions>>();
+        locks = new ConcurrentHashMap<Object, LockStatus>();
+        tid2locks = new ConcurrentHashMap<TransactionId, TransactionLocks>();
+        blocking = new ConcurrentHashMap<TransactionId, Object>();
+    }
+
+    /**
+     * Sets the number of page and row locks a transaction may hold on one
+     * table before they are escalated to a table lock; 0 turns escalation
+     * off.
+     */
+    public void setEscalationThreshold(int threshold) {
+        escalationThreshold = threshold;
+    }
+
+    public int getEscalationThreshold() {
+        return escalationThreshold;
+    }
+
+    /** @return how many times fine locks were escalated to a table lock */
+    public long getEscalations() {
+        return escalations.get();
+    }
+
+    /** @return the number of tables, pages and rows locked at the moment */
+    public int numLocks() {
+        return locks.size();
+    }
+
+    private LockStatus lockStatus(Object key) {
+        LockStatus ls = locks.get(key);
+        if (ls == null) {
+            ls = new LockStatus(key);
+            LockStatus prev = locks.putIfAbsent(key, ls);
+            if (prev != null)
+                ls = prev;
+        }
+        return ls;
+    }
+
+    private TransactionLocks locksOf(TransactionId tid) {
+        TransactionLocks tl = tid2locks.get(tid);
+        if (tl == null) {
+            tl = new TransactionLocks();
+            TransactionLocks prev = tid2locks.putIfAbsent(tid, tl);
+            if (prev != null)
+                tl = prev;
+        }
+        return tl;
+    }
+
+    /**
+     * Acquires a lock on a table, page or row for tid, waiting as long as
+     * another transaction holds a conflicting one.  A weaker lock tid holds
+     * already is upgraded.
+     *
+     * @param key the TableKey, PageId or RecordId to lock
+     * @throws TransactionAbortedException if waiting would deadlock
+     */
+    public boolean getLock(TransactionId tid, Object key, Permissions perm)
+            throws TransactionAbortedException {
+        return lock(tid, locksOf(tid), key, Mode.of(perm), true);
     }
 
-    public boolean getLock(TransactionId tid, PageId pid, Permissions perm)
+    /**
+     * Acquires a lock on a page or a row for tid if no other transaction
+     * holds a conflicting one, without waiting.
+     *
+     * @return whether tid holds the lock now
+     */
+    public boolean tryLock(TransactionId tid, Object key, Permissions perm) {
+        try {
+            return lock(tid, locksOf(tid), key, Mode.of(perm), false);
+        } catch (TransactionAbortedException e) {
+            // only waiting can deadlock
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Acquires an intention lock on a page or table for tid, for reading
+     * or writing rows inside it under their own locks.
+     *
+     * @throws TransactionAbortedException if waiting would deadlock
+     */
+    public boolean getIntentionLock(TransactionId tid, Object key, Permissions perm)
             throws TransactionAbortedException {
-        pid2ls.putIfAbsent(pid, new LockStatus(pid));
-        tid2pids.putIfAbsent(tid, new ConcurrentHashMap<PageId, Permissions>());
-        pid2tids.putIfAbsent(pid, new ConcurrentHashMap<TransactionId, Permissions>());
-        LockStatus ls = pid2ls.get(pid);
-        Map<PageId, Permissions> pidPerms = tid2pids.get(tid);
-        Map<TransactionId, Permissions> tidPerms = pid2tids.get(pid);
-        Permissions curPerm = pidPerms.get(pid);
-
-        boolean res;
-        boolean holdsLock = false;
-        if (curPerm != null) {
-            holdsLock = true;
-            if (curPerm.permLevel >= perm.permLevel)
+        return lock(tid, locksOf(tid), key, Mode.of(perm).intention(), true);
+    }
+
+    private boolean lock(TransactionId tid, TransactionLocks tl, Object key, Mode mode,
+            boolean wait) throws TransactionAbortedException {
+        Mode cur = tl.modes.get(key);
+        if (cur != null && cur.covers(mode))
+            return true;
+        if (impliedByAncestor(tl, key, mode)) {
+            // what tid writes has to be written or thrown away when it
+            // completes
+            if (mode == Mode.X)
+                tl.modes.put(key, mode);
+            return true;
+        }
+        Object parent = parent(key);
+        if (parent != null && !lock(tid, tl, parent, mode.intention(), wait))
+            return false;
+        Mode want = cur == null ? mode : cur.join(mode);
+        if (wait) {
+            while (!lockStatus(key).acquire(tid, want))
+                ;
+        } else {
+            Boolean granted;
+            while ((granted = lockStatus(key).tryAcquire(tid, want)) == null)
+                ;
+            if (!granted)
+                return false;
+        }
+        tl.modes.put(key, want);
+        if (cur == null && parent != null)
+            counted(tid, tl, key);
+        return true;
+    }
+
+    private boolean impliedByAncestor(TransactionLocks tl, Object key, Mode mode) {
+        for (Object a = parent(key); a != null; a = parent(a)) {
+            Mode am = tl.modes.get(a);
+            if (am != null && am.impliesBelow(mode))
                 return true;
-            else {
-                if (ls.uniqueSlock()) {
-                    pidPerms.replace(pid, Permissions.READ_WRITE);
-                    return ls.updateSlock();
-                }
+        }
+        return false;
+    }
+
+    /** Counts a new page or row lock of tid, and escalates if there are too many */
+    private void counted(TransactionId tid, TransactionLocks tl, Object key) {
+        int threshold = escalationThreshold;
+        if (threshold <= 0)
+            return;
+        int tableId = tableOf(key);
+        synchronized (tl) {
+            int[] n = tl.fine.get(tableId);
+            if (n == null) {
+                n = new int[] { 0, threshold + 1 };
+                tl.fine.put(tableId, n);
             }
+            if (++n[0] < n[1])
+                return;
+            n[1] = n[0] + threshold;
         }
-        if (perm == Permissions.READ_WRITE) {
-            res = ls.getXlock(tid, holdsLock);
+        escalate(tid, tl, new TableKey(tableId));
+    }
+
+    private void uncounted(TransactionLocks tl, Object key) {
+        synchronized (tl) {
+            int[] n = tl.fine.get(tableOf(key));
+            if (n != null)
+                --n[0];
         }
-        else
-            res = ls.getSlock(tid);
-        pidPerms.put(pid, perm);
-        tidPerms.put(tid, perm);
-        return res;
     }
 
-    public boolean relLock(TransactionId tid, PageId pid) {
-        pid2ls.putIfAbsent(pid, new LockStatus(pid));
-        tid2pids.putIfAbsent(tid, new ConcurrentHashMap<PageId, Permissions>());
-        pid2tids.putIfAbsent(pid, new ConcurrentHashMap<TransactionId, Permissions>());
-        LockStatus ls = pid2ls.get(pid);
-        Map<PageId, Permissions> pidPerms = tid2pids.get(tid);
-        Map<TransactionId, Permissions> tidPerms = pid2tids.get(pid);
-        Permissions curPerm = pidPerms.remove(pid);
-        tidPerms.remove(tid);
+    /**
+     * Replaces the page and row locks tid holds on a table by one lock on
+     * the table, if no other transaction holds a conflicting lock on it.
+     */
+    private void escalate(TransactionId tid, TransactionLocks tl, TableKey table) {
+        Mode cur = tl.modes.get(table);
+        Mode want = cur == Mode.IS ? Mode.S : Mode.X;
+        Boolean granted;
+        while ((granted = lockStatus(table).tryAcquire(tid, want)) == null)
+            ;
+        if (!granted)
+            return;
+        tl.modes.put(table, want);
+        // nobody else can be waiting for a page or row of the table now,
+        // they would hold an intention lock on it
+        Iterator<Map.Entry<Object, Mode>> itr = tl.modes.entrySet().iterator();
+        while (itr.hasNext()) {
+            Map.Entry<Object, Mode> e = itr.next();
+            Object key = e.getKey();
+            if (key instanceof TableKey || tableOf(key) != table.tableId)
+                continue;
+            LockStatus ls = locks.get(key);
+            if (ls != null)
+                ls.release(tid);
+            if (e.getValue() != Mode.X)
+                itr.remove();
+        }
+        synchronized (tl) {
+            tl.fine.remove(table.tableId);
+        }
+        escalations.incrementAndGet();
+    }
 
-        if (curPerm == null)
+    public boolean relLock(TransactionId tid, Object key) {
+        TransactionLocks tl = tid2locks.get(tid);
+        if (tl == null || tl.modes.remove(key) == null)
             return false;
-        else if (curPerm == Permissions.READ_WRITE)
-            return ls.relXlock();
-        else
-            return ls.relSlock();
+        LockStatus ls = locks.get(key);
+        if (ls == null || !ls.release(tid))
+            return false;
+        if (parent(key) != null)
+            uncounted(tl, key);
+        return true;
     }
 
     public void relTrans(TransactionId tid) {
-        tid2pids.putIfAbsent(tid, new ConcurrentHashMap<PageId, Permissions>());
-        Map<PageId, Permissions> pidPerms = tid2pids.remove(tid);
-
-        synchronized (pidPerms) {
-            for (Map.Entry<PageId, Permissions> e : pidPerms.entrySet()) {
-                PageId pid = e.getKey();
-                pid2tids.putIfAbsent(pid, new ConcurrentHashMap<TransactionId, Permissions>());
-                Map<TransactionId, Permissions> tidPerms = pid2tids.get(pid);
-                tidPerms.remove(tid);
-                LockStatus ls = pid2ls.get(pid);
-                if (e.getValue() == Permissions.READ_WRITE)
-                    ls.relXlock();
-                else
-                    ls.relSlock();
+        TransactionLocks tl = tid2locks.remove(tid);
+        if (tl != null) {
+            for (Object key : tl.modes.keySet()) {
+                LockStatus ls = locks.get(key);
+                if (ls != null)
+                    ls.release(tid);
             }
         }
-
         blocking.remove(tid);
     }
 
-    public boolean holdsLock(TransactionId tid, PageId pid) {
-        tid2pids.putIfAbsent(tid, new ConcurrentHashMap<PageId, Permissions>());
-        Map<PageId, Permissions> pidPerms = tid2pids.get(tid);
-        return pidPerms.containsKey(pid);
+    /**
+     * @return whether tid holds a lock on key, or on a table or page that
+     *         lets it read key without one
+     */
+    public boolean holdsLock(TransactionId tid, Object key) {
+        TransactionLocks tl = tid2locks.get(tid);
+        return tl != null && (tl.modes.containsKey(key) || impliedByAncestor(tl, key, Mode.S));
     }
 
-    public synchronized boolean hasDeadLock(TransactionId tid, PageId pid) {
+    /**
+     * Looks for a cycle in the waits-for graph through tid, which is about
+     * to wait for the lock on key.
+     */
+    public synchronized boolean hasDeadLock(TransactionId tid, Object key) {
         Stack<TransactionId> ts = new Stack<TransactionId>();
         Set<TransactionId> visit = new HashSet<TransactionId>();
-
-        visit.add(tid);
-        for (Map.Entry<TransactionId, Permissions> e : pid2tids.get(pid).entrySet()) {
-            TransactionId nt = e.getKey();
-            if (!nt.equals(tid))
-                ts.push(nt);
-        }
+        pushHolders(ts, key, tid);
         while (!ts.empty()) {
-            TransactionId ct = ts.peek();
-            if (visit.contains(ct)) {
-                ts.pop();
-                visit.remove(ct);
-            }
-            visit.add(ct);
-            PageId waitPg = blocking.get(ct);
-            if (waitPg == null)
+            TransactionId ct = ts.pop();
+            if (ct.equals(tid))
+                return true;
+            if (!visit.add(ct))
                 continue;
-            for (Map.Entry<TransactionId, Permissions> e : pid2tids.get(waitPg).entrySet()) {
-                TransactionId nt = e.getKey();
-                if (visit.contains(nt))
-                    return true;
-                else
-                    ts.push(nt);
-            }
+            Object waitKey = blocking.get(ct);
+            if (waitKey != null)
+                pushHolders(ts, waitKey, ct);
         }
         return false;
     }
 
+    private void pushHolders(Stack<TransactionId> ts, Object key, TransactionId waiter) {
+        LockStatus ls = locks.get(key);
+        if (ls == null)
+            return;
+        for (TransactionId nt : ls.holders.keySet())
+            if (!nt.equals(waiter))
+                ts.push(nt);
+    }
+
+    /** @return the pages tid holds an exclusive page lock on */
     public Set<PageId> getWrittenPage(TransactionId tid) {
-        tid2pids.putIfAbsent(tid, new ConcurrentHashMap<PageId, Permissions>());
-        Map<PageId, Permissions> pidPerms = tid2pids.get(tid);
         Set<PageId> writtenPages = new HashSet<PageId>();
-        synchronized (pidPerms) {
-            for (Map.Entry<PageId, Permissions> e : pidPerms.entrySet()) {
-                if (e.getValue() == Permissions.READ_WRITE)
-                    writtenPages.add(e.getKey());
-            }
+        TransactionLocks tl = tid2locks.get(tid);
+        if (tl == null)
+            return writtenPages;
+        for (Map.Entry<Object, Mode> e : tl.modes.entrySet()) {
+            if (e.getKey() instanceof PageId && e.getValue() == Mode.X)
+                writtenPages.add((PageId) e.getKey());
+        }
+        return writtenPages;
+    }
+
+    /** @return the pages of the rows tid holds an exclusive row lock on */
+    public Set<PageId> getWrittenRowPages(TransactionId tid) {
+        Set<PageId> writtenPages = new HashSet<PageId>();
+        TransactionLocks tl = tid2locks.get(tid);
+        if (tl == null)
+            return writtenPages;
+        for (Map.Entry<Object, Mode> e : tl.modes.entrySet()) {
+            if (e.getKey() instanceof RecordId && e.getValue() == Mode.X)
+                writtenPages.add(((RecordId) e.getKey()).getPageId());
         }
         return writtenPages;
     }
 
-}
\ No newline at end of file
+    /** @return the pages tid holds a page lock on */
+    public Set<PageId> getLockedPages(TransactionId tid) {
+        Set<PageId> lockedPages = new HashSet<PageId>();
+        TransactionLocks tl = tid2locks.get(tid);
+        if (tl == null)
+            return lockedPages;
+        for (Object key : tl.modes.keySet())
+            if (key instanceof PageId)
+                lockedPages.add((PageId) key);
+        return lockedPages;
+    }
+
+    public boolean isLocked(PageId pid) {
+        LockStatus ls = locks.get(pid);
+        return ls != null && ls.isHeld();
+    }
+
+}
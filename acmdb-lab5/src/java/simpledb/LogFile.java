@@ -15,21 +15,26 @@ two-phase locking discipline are followed.  <p>
 <p>
 
 Many of the methods here are synchronized (to prevent concurrent log
-writes from happening); many of the methods in BufferPool are also
-synchronized (for similar reasons.)  Problem is that BufferPool writes
-log records (on page flushed) and the log file flushes BufferPool
-pages (on checkpoints and recovery.)  This can lead to deadlock.  For
-that reason, any LogFile operation that needs to access the BufferPool
-must not be declared synchronized and must begin with a block like:
+writes from happening); many of the methods in BufferPool also hold
+the latch of a buffer pool partition (for similar reasons.)  Problem is
+that BufferPool writes log records (on page flushed) and the log file
+flushes BufferPool pages (on checkpoints and recovery.)  This can lead
+to deadlock.  For that reason, any LogFile operation that needs to
+access the BufferPool must not be declared synchronized and must begin
+with a block that latches every partition, like:
 
 <p>
 <pre>
-    synchronized (Database.getBufferPool()) {
+    BufferPool bp = Database.getBufferPool();
+    bp.latchAll();
+    try {
        synchronized (this) {
 
        ..
 
        }
+    } finally {
+        bp.unlatchAll();
     }
 </pre>
 */
@@ -51,8 +56,8 @@ transaction id.
 <li> Each log record ends with a long integer file offset representing
 the position in the log file where the record began.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> There are six record types: ABORT, COMMIT, UPDATE, BEGIN,
+CHECKPOINT, and BULK_APPEND
 
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
@@ -61,6 +66,11 @@ after image.  These images are serialized Page objects, and can be
 accessed with the LogFile.readPageData() and LogFile.writePageData()
 methods.  See LogFile.print() for an example.
 
+<li> BULK_APPEND records stand for a run of pages a transaction
+appended to a HeapFile with {@link HeapFile#bulkLoad}, instead of an
+UPDATE record per page.  They consist of three integers: the table
+id, the number of the first appended page, and the number of pages.
+
 <li> CHECKPOINT records consist of active transactions at the time
 the checkpoint was taken and their first log record on disk.  The format
 of the record is an integer count of the number of transactions, as well
@@ -82,6 +92,7 @@ public class LogFile {
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int BULK_APPEND_RECORD = 6;
     static final long NO_CHECKPOINT_ID = -1;
 
     final static int INT_SIZE = 4;
@@ -147,7 +158,9 @@ public class LogFile {
         // must have buffer pool lock before proceeding, since this
         // calls rollback
 
-        synchronized (Database.getBufferPool()) {
+        BufferPool bp = Database.getBufferPool();
+        bp.latchAll();
+        try {
 
             synchronized(this) {
                 preAppend();
@@ -165,6 +178,8 @@ public class LogFile {
                 force();
                 tidToFirstLogRecord.remove(tid.getId());
             }
+        } finally {
+            bp.unlatchAll();
         }
     }
 
@@ -218,6 +233,32 @@ public class LogFile {
         Debug.log("WRITE OFFSET = " + currentOffset);
     }
 
+    /** Write a BULK_APPEND record to disk for the specified tid, and force
+        the log to disk.
+        @param tid The transaction that appended the pages
+        @param tableId The table the pages were appended to
+        @param firstPage The number of the first appended page
+        @param numPages The number of appended pages
+
+        @see HeapFile#bulkLoad
+    */
+    public synchronized void logBulkAppend(TransactionId tid, int tableId,
+                                           int firstPage, int numPages)
+        throws IOException {
+        preAppend();
+        Debug.log("BULK APPEND " + tid.getId() + ", table = " + tableId +
+                  ", pages " + firstPage + " + " + numPages);
+
+        raf.writeInt(BULK_APPEND_RECORD);
+        raf.writeLong(tid.getId());
+        raf.writeInt(tableId);
+        raf.writeInt(firstPage);
+        raf.writeInt(numPages);
+        raf.writeLong(currentOffset);
+        currentOffset = raf.getFilePointer();
+        force();
+    }
+
     void writePageData(RandomAccessFile raf, Page p) throws IOException{
         PageId pid = p.getId();
         int pageInfo[] = pid.serialize();
@@ -319,7 +360,9 @@ public class LogFile {
     /** Checkpoint the log and write a checkpoint record. */
     public void logCheckpoint() throws IOException {
         //make sure we have buffer pool lock before proceeding
-        synchronized (Database.getBufferPool()) {
+        BufferPool bp = Database.getBufferPool();
+        bp.latchAll();
+        try {
             synchronized (this) {
                 //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
                 preAppend();
@@ -352,6 +395,8 @@ public class LogFile {
                 currentOffset = raf.getFilePointer();
                 //Debug.log("CP OFFSET = " + currentOffset);
             }
+        } finally {
+            bp.unlatchAll();
         }
 
         logTruncate();
@@ -426,6 +471,11 @@ public class LogFile {
                         logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
                     }
                     break;
+                case BULK_APPEND_RECORD:
+                    logNew.writeInt(raf.readInt());
+                    logNew.writeInt(raf.readInt());
+                    logNew.writeInt(raf.readInt());
+                    break;
                 case BEGIN_RECORD:
                     tidToFirstLogRecord.put(record_tid,newStart);
                     break;
@@ -463,14 +513,80 @@ public class LogFile {
     */
     public void rollback(TransactionId tid)
         throws NoSuchElementException, IOException {
-        synchronized (Database.getBufferPool()) {
+        BufferPool bp = Database.getBufferPool();
+        bp.latchAll();
+        try {
             synchronized(this) {
                 preAppend();
                 // some code goes here
+                Long firstRecord = tidToFirstLogRecord.get(tid.getId());
+                // a transaction that never logged BEGIN may still have had
+                // pages stolen by the buffer pool; look at the whole log
+                long start = firstRecord != null ? firstRecord : LONG_SIZE;
+
+                // keep the oldest before image of every page tid updated
+                LinkedHashMap<PageId, Page> beforeImages = new LinkedHashMap<PageId, Page>();
+                ArrayList<int[]> appends = new ArrayList<int[]>();
+                raf.seek(start);
+                while (raf.getFilePointer() < currentOffset) {
+                    int type = raf.readInt();
+                    long recordTid = raf.readLong();
+                    switch (type) {
+                    case UPDATE_RECORD:
+                        if (recordTid == tid.getId()) {
+                            Page before = readPageData(raf);
+                            if (!beforeImages.containsKey(before.getId()))
+                                beforeImages.put(before.getId(), before);
+                        } else {
+                            skipPageData(raf);
+                        }
+                        skipPageData(raf);
+                        break;
+                    case BULK_APPEND_RECORD:
+                        int[] append = { raf.readInt(), raf.readInt(), raf.readInt() };
+                        if (recordTid == tid.getId())
+                            appends.add(append);
+                        break;
+                    case CHECKPOINT_RECORD:
+                        int numXactions = raf.readInt();
+                        raf.seek(raf.getFilePointer() + numXactions * 2 * LONG_SIZE);
+                        break;
+                    }
+                    raf.readLong();
+                }
+                raf.seek(currentOffset);
+
+                // take back appended pages, latest first
+                for (int i = appends.size() - 1; i >= 0; --i) {
+                    int[] append = appends.get(i);
+                    HeapFile f = (HeapFile) Database.getCatalog().getDatabaseFile(append[0]);
+                    f.undoAppend(append[1], append[2]);
+                    for (int pgNo = append[1]; pgNo < append[1] + append[2]; ++pgNo)
+                        Database.getBufferPool().discardPage(new HeapPageId(append[0], pgNo));
+                }
+
+                for (Page before : beforeImages.values()) {
+                    PageId pid = before.getId();
+                    Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(before);
+                    Database.getBufferPool().discardPage(pid);
+                }
+                Database.getBufferPool().rolledBack(tid);
             }
+        } finally {
+            bp.unlatchAll();
         }
     }
 
+    /** Skip over page data written by writePageData, without parsing it */
+    void skipPageData(RandomAccessFile raf) throws IOException {
+        raf.readUTF();
+        raf.readUTF();
+        int numIdArgs = raf.readInt();
+        raf.seek(raf.getFilePointer() + numIdArgs * INT_SIZE);
+        int pageSize = raf.readInt();
+        raf.seek(raf.getFilePointer() + pageSize);
+    }
+
     /** Shutdown the logging system, writing out whatever state
         is necessary so that start up can happen quickly (without
         extensive recovery.)
@@ -490,12 +606,16 @@ public class LogFile {
         updates of uncommitted transactions are not installed.
     */
     public void recover() throws IOException {
-        synchronized (Database.getBufferPool()) {
+        BufferPool bp = Database.getBufferPool();
+        bp.latchAll();
+        try {
             synchronized (this) {
                 recoveryUndecided = false;
                 // some code goes here
             }
-         }
+        } finally {
+            bp.unlatchAll();
+        }
     }
 
     /** Print out a human readable represenation of the log */
@@ -6,6 +6,7 @@ import java.util.Iterator;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.NoSuchElementException;
+import java.util.TreeSet;
 
 /**
  * LogicalPlan represents a logical query plan that has been through
@@ -258,6 +259,59 @@ public class LogicalPlan {
 
     }
 
+    /**
+     * Finds the columns of a table that the query refers to anywhere: in
+     * the select list, a filter, a join, the aggregate, the GROUP BY or the
+     * ORDER BY.
+     *
+     * @param alias the alias of the table in the plan
+     * @param td the TupleDesc of the table
+     * @return the numbers of the columns in ascending order, or null if the
+     *         query needs all of them
+     */
+    int[] referencedColumns(String alias, TupleDesc td) {
+        ArrayList<String> names = new ArrayList<String>();
+        for (LogicalSelectListNode si : selectList)
+            names.add(si.fname);
+        for (LogicalFilterNode lf : filters)
+            names.add(lf.fieldQuantifiedName);
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.f1QuantifiedName);
+            names.add(lj.f2QuantifiedName);
+        }
+        names.add(aggField);
+        names.add(groupByField);
+        names.add(oByField);
+
+        TreeSet<Integer> columns = new TreeSet<Integer>();
+        for (String name : names) {
+            if (name == null)
+                continue;
+            int dot = name.lastIndexOf('.');
+            String table = name.substring(0, Math.max(dot, 0));
+            String field = name.substring(dot + 1);
+            if (field.equals("*") && (table.equals(alias) || table.equals("null")))
+                return null;
+            if (!table.equals(alias))
+                continue;
+            try {
+                columns.add(td.fieldNameToIndex(field));
+            } catch (NoSuchElementException e) {
+                // reported when the plan is built
+            }
+        }
+        if (columns.size() == td.numFields())
+            return null;
+        // a scan reads at least one column, to find the rows
+        if (columns.isEmpty())
+            columns.add(0);
+        int[] result = new int[columns.size()];
+        int i = 0;
+        for (int c : columns)
+            result[i++] = c;
+        return result;
+    }
+
     /** Convert the aggregate operator name s into an Aggregator.op operation.
      *  @throws ParsingException if s is not a valid operator name 
      */
@@ -294,7 +348,11 @@ public class LogicalPlan {
             LogicalScanNode table = tableIt.next();
             SeqScan ss = null;
             try {
-                 ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias);
+                DbFile file = Database.getCatalog().getDatabaseFile(table.t);
+                // a column store reads only the columns the query refers to
+                int[] columns = file instanceof ColumnFile
+                        ? referencedColumns(table.alias, file.getTupleDesc()) : null;
+                ss = new SeqScan(t, file.getId(), table.alias, columns);
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
@@ -0,0 +1,139 @@
+package simpledb;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * LRU-K replacement (O'Neil, O'Neil and Weikum, SIGMOD '93).  The victim is
+ * the resident page whose K-th most recent reference is the oldest.  Pages
+ * referenced fewer than K times have an infinite backward K-distance and go
+ * first, least recently used first, so a page touched once by a large scan
+ * is evicted before a page that is looked up over and over.
+ * <p>
+ * The reference history of evicted pages is kept for a while (up to one
+ * pool's worth of pages), so a hot page that is evicted and read back soon
+ * afterwards does not start from scratch.  LRU-1 is plain LRU.
+ *
+ * @Threadsafe
+ */
+public class LruKPolicy implements ReplacementPolicy {
+
+    /** The last K reference times of a page, newest at refs[0]. */
+    private static class History {
+        final PageId pid;
+        final long[] refs;
+        // loaded by read-ahead and not requested since
+        boolean prefetched;
+
+        History(PageId pid, int k) {
+            this.pid = pid;
+            this.refs = new long[k];
+        }
+
+        void reference(long now) {
+            if (prefetched) {
+                // the read-ahead and the request it anticipated are one
+                // reference, not two
+                prefetched = false;
+            } else {
+                System.arraycopy(refs, 0, refs, 1, refs.length - 1);
+            }
+            refs[0] = now;
+        }
+
+        /** 0 (the beginning of time) if there are fewer than K references */
+        long kthReference() {
+            return refs[refs.length - 1];
+        }
+
+        long lastReference() {
+            return refs[0];
+        }
+    }
+
+    private static final Comparator<History> EVICTION_ORDER = new Comparator<History>() {
+        public int compare(History a, History b) {
+            int c = Long.compare(a.kthReference(), b.kthReference());
+            if (c != 0)
+                return c;
+            // reference times are unique, so this never ties for two pages
+            return Long.compare(a.lastReference(), b.lastReference());
+        }
+    };
+
+    private final int _k;
+    private long _clock;
+    private final TreeSet<History> _resident;
+    private final Map<PageId, History> _pidMappedHistory;
+    private final LinkedHashMap<PageId, History> _retained;
+
+    /**
+     * @param k the number of references to remember per page
+     * @param numPages the size of the buffer pool, also used as the number
+     *                 of evicted pages whose history is retained
+     */
+    public LruKPolicy(int k, final int numPages) {
+        if (k < 1)
+            throw new IllegalArgumentException("LRU-K needs K >= 1");
+        _k = k;
+        _clock = 0;
+        _resident = new TreeSet<History>(EVICTION_ORDER);
+        _pidMappedHistory = new HashMap<PageId, History>();
+        _retained = new LinkedHashMap<PageId, History>() {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(Map.Entry<PageId, History> eldest) {
+                return size() > numPages;
+            }
+        };
+    }
+
+    public synchronized void pageLoaded(PageId pid) {
+        if (_pidMappedHistory.containsKey(pid)) {
+            pageAccessed(pid);
+            return;
+        }
+        load(pid, false);
+    }
+
+    public synchronized void pagePrefetched(PageId pid) {
+        if (!_pidMappedHistory.containsKey(pid))
+            load(pid, true);
+    }
+
+    private void load(PageId pid, boolean prefetched) {
+        History h = _retained.remove(pid);
+        if (h == null)
+            h = new History(pid, _k);
+        h.reference(++_clock);
+        h.prefetched = prefetched;
+        _pidMappedHistory.put(pid, h);
+        _resident.add(h);
+    }
+
+    public synchronized void pageAccessed(PageId pid) {
+        History h = _pidMappedHistory.get(pid);
+        if (h == null)
+            return;
+        // re-insert, the position in the tree depends on the references
+        _resident.remove(h);
+        h.reference(++_clock);
+        _resident.add(h);
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        History h = _pidMappedHistory.remove(pid);
+        if (h == null)
+            return;
+        _resident.remove(h);
+        _retained.put(pid, h);
+    }
+
+    public synchronized PageId chooseVictim(Predicate<PageId> evictable) {
+        for (History h : _resident) {
+            if (evictable.test(h.pid))
+                return h.pid;
+        }
+        return null;
+    }
+}
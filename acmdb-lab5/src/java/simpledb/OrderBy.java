@@ -111,11 +111,9 @@ class TupleComparator implements Comparator<Tuple> {
     }
 
     public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
+        if (o1.compareField(field, Predicate.Op.EQUALS, o2, field))
             return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
+        if (o1.compareField(field, Predicate.Op.GREATER_THAN, o2, field))
             return asc ? 1 : -1;
         else
             return asc ? -1 : 1;
@@ -0,0 +1,99 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * PageArena holds the on-disk images of pages in fixed-size frames carved
+ * out of one direct ByteBuffer that is allocated up front.  The frames live
+ * outside the Java heap, so a large buffer pool of clean pages costs the
+ * garbage collector nothing; pages are decoded from their frame when they
+ * are requested.
+ *
+ * @see BufferPool#BufferPool(int, ReplacementPolicy, boolean)
+ * @Threadsafe
+ */
+class PageArena {
+
+    private final ByteBuffer _frames;
+    private final int _pageSize;
+    private final ArrayDeque<Integer> _free;
+    private final Map<PageId, Integer> _pidMappedFrame;
+
+    /**
+     * @param numFrames the number of frames
+     * @param pageSize the size of a frame in bytes
+     */
+    PageArena(int numFrames, int pageSize) {
+        if ((long) numFrames * pageSize > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("page arena larger than 2GB");
+        _frames = ByteBuffer.allocateDirect(numFrames * pageSize);
+        _pageSize = pageSize;
+        _free = new ArrayDeque<Integer>(numFrames);
+        for (int i = 0; i < numFrames; ++i)
+            _free.add(i);
+        _pidMappedFrame = new ConcurrentHashMap<PageId, Integer>();
+    }
+
+    boolean contains(PageId pid) {
+        return _pidMappedFrame.containsKey(pid);
+    }
+
+    synchronized boolean isFull() {
+        return _free.isEmpty();
+    }
+
+    /** @return the number of frames in use */
+    int size() {
+        return _pidMappedFrame.size();
+    }
+
+    /**
+     * Copies the image of a page into its frame, taking a free frame if the
+     * page has none yet.
+     *
+     * @throws IllegalStateException if every frame is in use
+     */
+    synchronized void store(PageId pid, byte[] data) {
+        Integer frame = _pidMappedFrame.get(pid);
+        if (frame == null) {
+            frame = _free.poll();
+            if (frame == null)
+                throw new IllegalStateException("No free frame in page arena");
+            _pidMappedFrame.put(pid, frame);
+        }
+        ByteBuffer dst = _frames.duplicate();
+        dst.position(frame * _pageSize);
+        // root pointer pages of B+ trees are smaller than a frame
+        dst.put(data, 0, Math.min(data.length, _pageSize));
+    }
+
+    /**
+     * @return a read-only view of the frame of the page, or null if the page
+     *         has no frame.  The view is only valid until the frame is freed.
+     */
+    synchronized ByteBuffer frame(PageId pid) {
+        Integer frame = _pidMappedFrame.get(pid);
+        if (frame == null)
+            return null;
+        ByteBuffer view = _frames.asReadOnlyBuffer();
+        view.position(frame * _pageSize);
+        view.limit((frame + 1) * _pageSize);
+        return view.slice();
+    }
+
+    /**
+     * Gives up the frame of a page.
+     *
+     * @return false if the page had no frame
+     */
+    synchronized boolean free(PageId pid) {
+        Integer frame = _pidMappedFrame.remove(pid);
+        if (frame == null)
+            return false;
+        _free.add(frame);
+        return true;
+    }
+}
@@ -0,0 +1,102 @@
+package simpledb;
+
+import java.io.IOException;
+
+/**
+ * PageCleaner is a background thread that trickles dirty pages from the
+ * BufferPool to disk, so that commits and evictions mostly find the pages
+ * they need to write already clean.
+ * <p>
+ * Every interval the cleaner looks at the fraction of frames holding dirty
+ * pages.  Once it reaches the high watermark the cleaner starts writing
+ * pages out, at most pagesPerRound per interval, and keeps going until the
+ * fraction drops to the low watermark.  The pages belong to transactions
+ * that have not committed yet, so they are written under the write-ahead
+ * rule: their before images are logged and the log is forced first, and
+ * an abort puts them back with {@link LogFile#rollback}.  Writing them
+ * makes the pool steal pages from running transactions, so the cleaner
+ * only works in STEAL mode, see {@link BufferPool#setSteal}; in NO STEAL
+ * mode it finds nothing to write.
+ *
+ * @see BufferPool#startPageCleaner
+ */
+public class PageCleaner extends Thread {
+
+    /** System property that makes Database start a cleaner with the defaults */
+    public static final String ENABLE_PROPERTY = "simpledb.pagecleaner";
+
+    public static final long DEFAULT_INTERVAL_MILLIS = 100;
+    public static final int DEFAULT_PAGES_PER_ROUND = 16;
+    public static final double DEFAULT_HIGH_DIRTY_RATIO = 0.5;
+    public static final double DEFAULT_LOW_DIRTY_RATIO = 0.2;
+
+    private final BufferPool _pool;
+    private final long _intervalMillis;
+    private final int _pagesPerRound;
+    private final double _highDirtyRatio;
+    private final double _lowDirtyRatio;
+    private volatile boolean _running;
+
+    PageCleaner(BufferPool pool, long intervalMillis, int pagesPerRound,
+                double highDirtyRatio, double lowDirtyRatio) {
+        super("PageCleaner");
+        if (lowDirtyRatio > highDirtyRatio)
+            throw new IllegalArgumentException("low dirty ratio above high dirty ratio");
+        _pool = pool;
+        _intervalMillis = intervalMillis;
+        _pagesPerRound = pagesPerRound;
+        _highDirtyRatio = highDirtyRatio;
+        _lowDirtyRatio = lowDirtyRatio;
+        _running = true;
+        setDaemon(true);
+    }
+
+    public void run() {
+        boolean cleaning = false;
+        while (_running) {
+            // wait() rather than sleep(): interrupting a thread in the
+            // middle of channel I/O would close the channel
+            synchronized (this) {
+                try {
+                    wait(_intervalMillis);
+                } catch (InterruptedException e) {
+                    // check _running
+                }
+            }
+            if (!_running)
+                break;
+
+            double ratio = _pool.dirtyRatio();
+            if (ratio >= _highDirtyRatio)
+                cleaning = true;
+            else if (ratio <= _lowDirtyRatio)
+                cleaning = false;
+            if (!cleaning)
+                continue;
+            try {
+                if (_pool.cleanPages(_pagesPerRound) == 0)
+                    cleaning = false;
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Stops the cleaner after the round in progress, if any, and waits for
+     * that round to finish writing.
+     */
+    public void shutdown() {
+        _running = false;
+        synchronized (this) {
+            notifyAll();
+        }
+        if (Thread.currentThread() == this)
+            return;
+        try {
+            join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
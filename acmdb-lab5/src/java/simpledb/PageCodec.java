@@ -0,0 +1,27 @@
+package simpledb;
+
+import java.io.IOException;
+
+/**
+ * A PageCodec compresses page images for a {@link CompressedHeapFile}.
+ * Implementations must be safe to use from several threads at once.
+ *
+ * @see DeflatePageCodec
+ * @see LzPageCodec
+ */
+public interface PageCodec {
+
+    /**
+     * @param page the image of a page, as returned by {@link Page#getPageData}
+     * @return the compressed image
+     */
+    public byte[] compress(byte[] page);
+
+    /**
+     * @param data the compressed image, as returned by {@link #compress}
+     * @param pageSize the size of the page image
+     * @return the page image
+     * @throws IOException if data is not a valid compressed page image
+     */
+    public byte[] decompress(byte[] data, int pageSize) throws IOException;
+}
@@ -493,6 +493,8 @@ public class Parser {
     }
 
     public void processNextStatement(String s) {
+        if (processShellStatement(s))
+            return;
         try {
             processNextStatement(new ByteArrayInputStream(s.getBytes("UTF-8")));
         } catch (UnsupportedEncodingException e) {
@@ -583,10 +585,58 @@ public class Parser {
         }
     }
 
+    /**
+     * Handles the statements of the shell that are not SQL, which ZQL cannot
+     * parse.  These are <tt>SHOW BUFFERPOOL</tt>, which prints the counters
+     * of the buffer pool per table, and <tt>VACUUM table</tt>, which
+     * compacts a heap file, see {@link Vacuum}.
+     *
+     * @return true if the statement was one of them
+     */
+    protected boolean processShellStatement(String s) {
+        String cmd = s.trim().replaceAll("\\s+", " ");
+        if (cmd.endsWith(";"))
+            cmd = cmd.substring(0, cmd.length() - 1).trim();
+        if (cmd.equalsIgnoreCase("show bufferpool")) {
+            System.out.print(Database.getBufferPool().getStats().getReport());
+            return true;
+        }
+        String[] words = cmd.split(" ");
+        if (words.length == 2 && words[0].equalsIgnoreCase("vacuum")) {
+            processVacuumStatement(words[1]);
+            return true;
+        }
+        return false;
+    }
+
+    private void processVacuumStatement(String tableName) {
+        if (inUserTrans) {
+            System.out.println("VACUUM cannot run inside a transaction");
+            return;
+        }
+        try {
+            DbFile f = Database.getCatalog().getDatabaseFile(
+                    Database.getCatalog().getTableId(tableName));
+            if (!(f instanceof HeapFile)) {
+                System.out.println("Table " + tableName + " is not a heap file");
+                return;
+            }
+            int before = f.numPages();
+            Vacuum v = new Vacuum((HeapFile) f);
+            v.run();
+            System.out.println("Vacuumed " + tableName + ": " + v.pagesMoved()
+                    + " pages moved, " + before + " -> " + f.numPages() + " pages");
+        } catch (NoSuchElementException e) {
+            System.out.println("Table " + tableName + " does not exist");
+        } catch (DbException | IOException | TransactionAbortedException e) {
+            e.printStackTrace();
+        }
+    }
+
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "show bufferpool", "vacuum" };
 
     public static void main(String argv[]) throws IOException {
 
@@ -612,6 +662,8 @@ public class Parser {
     protected void start(String[] argv) throws IOException {
         // first add tables to database
         Database.getCatalog().loadSchema(argv[0]);
+        // let the pages of the last run come back before taking queries
+        Database.getBufferPool().warming().join();
         TableStats.computeStatistics();
 
         String queryFile = null;
@@ -688,8 +740,9 @@ public class Parser {
                     }
 
                     long startTime = System.currentTimeMillis();
-                    processNextStatement(new ByteArrayInputStream(
-                            statementBytes));
+                    if (!processShellStatement(cmd))
+                        processNextStatement(new ByteArrayInputStream(
+                                statementBytes));
                     long time = System.currentTimeMillis() - startTime;
                     System.out.printf("----------------\n%.2f seconds\n\n",
                             ((double) time / 1000.0));
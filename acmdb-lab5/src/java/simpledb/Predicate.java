@@ -104,7 +104,7 @@ public class Predicate implements Serializable {
      */
     public boolean filter(Tuple t) {
         // some code goes here
-        return t.getField(field).compare(op, operand);
+        return t.compareField(field, op, operand);
     }
 
     /**
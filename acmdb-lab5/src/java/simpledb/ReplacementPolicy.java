@@ -0,0 +1,58 @@
+package simpledb;
+
+import java.util.function.Predicate;
+
+/**
+ * ReplacementPolicy decides which resident page the BufferPool gives up
+ * when it runs out of frames.  The BufferPool reports every page that is
+ * read into the pool, every hit on a resident page and every page that
+ * leaves the pool; the policy answers with the page it would rather evict.
+ * <p>
+ * Implementations must be safe to call from several threads at once.
+ *
+ * @see BufferPool#createPolicy
+ * @see ClockPolicy
+ * @see LruKPolicy
+ */
+public interface ReplacementPolicy {
+
+    /**
+     * Called after a page has been read into the buffer pool.
+     * @param pid the page that became resident
+     */
+    public void pageLoaded(PageId pid);
+
+    /**
+     * Called after a page has been read into the buffer pool ahead of any
+     * request for it, see {@link BufferPool#prefetchPage}.  The first
+     * {@link #pageAccessed} that follows is the page's actual first
+     * reference.  By default a prefetched page counts as a loaded page.
+     * @param pid the page that became resident
+     */
+    public default void pagePrefetched(PageId pid) {
+        pageLoaded(pid);
+    }
+
+    /**
+     * Called on every request for a page that was already resident.
+     * @param pid the page that was hit
+     */
+    public void pageAccessed(PageId pid);
+
+    /**
+     * Called after a page has left the buffer pool, either because it was
+     * evicted or because it was discarded.
+     * @param pid the page that is no longer resident
+     */
+    public void pageRemoved(PageId pid);
+
+    /**
+     * Choose the page to evict next.  Pages rejected by the filter (e.g.
+     * dirty pages when running NO STEAL) are skipped.  The returned page is
+     * not forgotten until {@link #pageRemoved} is called for it.
+     *
+     * @param evictable tells whether a candidate may be evicted right now
+     * @return the victim, or null if no resident page is evictable
+     */
+    public PageId chooseVictim(Predicate<PageId> evictable);
+}
@@ -0,0 +1,170 @@
+package simpledb;
+
+import java.io.*;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * ResidentSetSaver is a background thread that periodically saves the list
+ * of pages resident in a BufferPool, with how often each was accessed, to a
+ * small file.  When the database starts again the pool reads that file and
+ * preloads the pages, see {@link BufferPool#warmUp}, so that it does not
+ * have to refill from cold under traffic.
+ * <p>
+ * The file is only a hint.  It is replaced atomically, so a crash leaves
+ * the previous version, and entries for tables or pages that no longer
+ * exist are skipped when it is read back.
+ *
+ * @see BufferPool#startResidentSetSaver
+ */
+public class ResidentSetSaver extends Thread {
+
+    /** System property naming the file; Database saves and preloads it when set */
+    public static final String FILE_PROPERTY = "simpledb.bufferpool.warmfile";
+
+    public static final long DEFAULT_INTERVAL_MILLIS = 30000;
+
+    private static final int MAGIC = 0x57524d31;  // "WRM1"
+
+    private final BufferPool _pool;
+    private final File _file;
+    private final long _intervalMillis;
+    private volatile boolean _running;
+
+    ResidentSetSaver(BufferPool pool, File file, long intervalMillis) {
+        super("ResidentSetSaver");
+        _pool = pool;
+        _file = file;
+        _intervalMillis = intervalMillis;
+        _running = true;
+        setDaemon(true);
+    }
+
+    public void run() {
+        while (_running) {
+            // wait() rather than sleep(), as in PageCleaner
+            synchronized (this) {
+                try {
+                    wait(_intervalMillis);
+                } catch (InterruptedException e) {
+                    // check _running
+                }
+            }
+            if (!_running)
+                break;
+            save();
+        }
+    }
+
+    private void save() {
+        try {
+            _pool.saveResidentSet(_file);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Stops the saver, saving the resident set one last time.
+     */
+    public void shutdown() {
+        _running = false;
+        synchronized (this) {
+            notifyAll();
+        }
+        if (Thread.currentThread() != this) {
+            try {
+                join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        save();
+    }
+
+    /**
+     * Writes pages and their access counts to a file, replacing it only
+     * once the new version is complete.
+     */
+    static void write(File f, Map<PageId, Integer> accesses) throws IOException {
+        File tmp = new File(f.getAbsoluteFile().getParentFile(), f.getName() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(accesses.size());
+            for (Map.Entry<PageId, Integer> e : accesses.entrySet()) {
+                int[] id = e.getKey().serialize();
+                out.writeUTF(e.getKey().getClass().getName());
+                out.writeInt(id.length);
+                for (int i : id)
+                    out.writeInt(i);
+                out.writeInt(e.getValue());
+            }
+        } finally {
+            out.close();
+        }
+        Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads a file written by {@link #write}.  Entries whose page id class
+     * cannot be rebuilt are skipped.
+     *
+     * @return the pages and their access counts, empty if there is no file
+     * @throws IOException if the file cannot be read or is not such a file
+     */
+    static Map<PageId, Integer> read(File f) throws IOException {
+        Map<PageId, Integer> accesses = new LinkedHashMap<PageId, Integer>();
+        if (!f.exists())
+            return accesses;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+        try {
+            if (in.readInt() != MAGIC)
+                throw new IOException(f + " is not a resident set file");
+            int count = in.readInt();
+            for (int n = 0; n < count; ++n) {
+                String idClassName = in.readUTF();
+                Object[] idArgs = new Object[in.readInt()];
+                for (int i = 0; i < idArgs.length; ++i)
+                    idArgs[i] = in.readInt();
+                int accessCount = in.readInt();
+                PageId pid = pageId(idClassName, idArgs);
+                if (pid != null)
+                    accesses.put(pid, accessCount);
+            }
+        } finally {
+            in.close();
+        }
+        return accesses;
+    }
+
+    /**
+     * Rebuilds a page id from its class and the ints of
+     * {@link PageId#serialize}, as {@link LogFile} does.
+     *
+     * @return the page id, or null if the class has no such constructor
+     */
+    private static PageId pageId(String idClassName, Object[] idArgs) {
+        try {
+            Class<?> idClass = Class.forName(idClassName);
+            for (Constructor<?> c : idClass.getDeclaredConstructors()) {
+                Class<?>[] params = c.getParameterTypes();
+                if (params.length != idArgs.length)
+                    continue;
+                boolean ints = true;
+                for (Class<?> p : params)
+                    ints &= p == int.class;
+                if (ints)
+                    return (PageId) c.newInstance(idArgs);
+            }
+        } catch (ClassNotFoundException | InstantiationException | IllegalAccessException
+                | InvocationTargetException | ClassCastException e) {
+            // skip the entry
+        }
+        return null;
+    }
+}
@@ -15,6 +15,10 @@ public class SeqScan implements DbIterator {
     private DbFileIterator _fitr;
     private String _alias;
     private TransactionId _tid;
+    /** the columns the scan returns, or null for all of them */
+    private int[] _columns;
+    /** the TupleDesc of tuples with just those columns */
+    private TupleDesc _narrowTd;
     /**
      * Creates a sequential scan over the specified table as a part of the
      * specified transaction.
@@ -32,14 +36,60 @@ public class SeqScan implements DbIterator {
      *            tableAlias.null, or null.null).
      */
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
-        // some code goes here
+        this(tid, tableid, tableAlias, null);
+    }
+
+    /**
+     * Creates a sequential scan that returns only some columns of the table.
+     * A {@link ColumnFile} then reads only the pages of those columns; for
+     * other files the scan drops the other fields from each tuple.  The
+     * tuples keep their RecordIds.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of this table, as for
+     *            {@link #SeqScan(TransactionId, int, String)}
+     * @param columns
+     *            the numbers of the columns to return, in order, or null
+     *            for all columns
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] columns) {
         _file = Database.getCatalog().getDatabaseFile(tableid);
-        _fitr = _file.iterator(tid);
         if (tableAlias == null)
             _alias = "null";
         else
             _alias = tableAlias;
         _tid = tid;
+        _columns = columns;
+        _fitr = fileIterator();
+    }
+
+    private DbFileIterator fileIterator() {
+        _narrowTd = null;
+        if (_columns != null) {
+            TupleDesc td = _file.getTupleDesc();
+            Type[] types = new Type[_columns.length];
+            String[] names = new String[_columns.length];
+            for (int i = 0; i < _columns.length; ++i) {
+                types[i] = td.getFieldType(_columns[i]);
+                names[i] = td.getFieldName(_columns[i]);
+            }
+            _narrowTd = new TupleDesc(types, names);
+        }
+        if (_columns != null && _file instanceof ColumnFile)
+            return ((ColumnFile) _file).iterator(_tid, _columns);
+        return _file.iterator(_tid);
+    }
+
+    /**
+     * @return the numbers of the columns this scan returns, or null if it
+     *         returns all of them
+     */
+    public int[] getColumns() {
+        return _columns;
     }
 
     /**
@@ -77,7 +127,8 @@ public class SeqScan implements DbIterator {
         _fitr.close();
         _alias = tableAlias;
         _file =Database.getCatalog().getDatabaseFile(tableid);
-        _fitr = _file.iterator(_tid);
+        _columns = null;
+        _fitr = fileIterator();
     }
 
     public SeqScan(TransactionId tid, int tableid) {
@@ -108,13 +159,14 @@ public class SeqScan implements DbIterator {
     public TupleDesc getTupleDesc() {
         // some code goes here
         TupleDesc _td = _file.getTupleDesc();
-        int _len = _td.numFields();
+        int _len = _columns == null ? _td.numFields() : _columns.length;
         Type[] _type = new Type[_len];
         String[] _fieldAr = new String[_len];
-        for (int i = 0; i < _td.numFields(); ++i) {
-            _type[i] = _td.getFieldType(i);
+        for (int i = 0; i < _len; ++i) {
+            int c = _columns == null ? i : _columns[i];
+            _type[i] = _td.getFieldType(c);
             StringBuffer sbuffer = (new StringBuffer(_alias)).append(".");
-            _fieldAr[i] = sbuffer.append(_td.getFieldName(i)).toString();
+            _fieldAr[i] = sbuffer.append(_td.getFieldName(c)).toString();
         }
         return new TupleDesc(_type, _fieldAr);
     }
@@ -134,7 +186,14 @@ public class SeqScan implements DbIterator {
             TransactionAbortedException, DbException {
         // some code goes here
         try {
-            return _fitr.next();
+            Tuple t = _fitr.next();
+            if (_columns == null || _file instanceof ColumnFile)
+                return t;
+            Tuple narrow = new Tuple(_narrowTd);
+            for (int i = 0; i < _columns.length; ++i)
+                t.copyField(_columns[i], narrow, i);
+            narrow.setRecordId(t.getRecordId());
+            return narrow;
         } catch (DbException e) {
             throw e;
         } catch (TransactionAbortedException e) {
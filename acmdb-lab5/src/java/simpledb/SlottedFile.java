@@ -0,0 +1,239 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * SlottedFile is an implementation of a DbFile that stores a collection of
+ * tuples in no particular order, like HeapFile, but on SlottedPages, which
+ * store strings in as many bytes as they have characters rather than in
+ * {@link Type#STRING_TYPE}'s fixed length.  Tables of short strings fit many
+ * more tuples per page this way, and take far fewer page reads to scan.
+ * <p>
+ * Tuples are still addressed by page and slot number, with HeapPageIds, and
+ * the file is simply a collection of pages.
+ *
+ * @see simpledb.SlottedPage#SlottedPage
+ */
+public class SlottedFile implements DbFile {
+
+    private final File _file;
+    private final TupleDesc _schema;
+    private final DbFileChannel _channel;
+    /** free space per page, in units of {@link #fsmUnit()} bytes */
+    private final FreeSpaceMap _fsm;
+    /** held while pages are appended to the file */
+    private final Object _appendLock = new Object();
+
+    /**
+     * Constructs a slotted file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this
+     *            file.
+     * @param td
+     *            the TupleDesc of the table
+     */
+    public SlottedFile(File f, TupleDesc td) {
+        _file = f;
+        _schema = td;
+        _channel = new DbFileChannel(f);
+        _fsm = new FreeSpaceMap(f);
+    }
+
+    /**
+     * Returns the File backing this SlottedFile on disk.
+     */
+    public File getFile() {
+        return _file;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this SlottedFile, the hash of the
+     * absolute name of its file, like HeapFile's.
+     */
+    public int getId() {
+        return _file.getAbsoluteFile().hashCode();
+    }
+
+    /**
+     * Returns the TupleDesc of the table stored in this DbFile.
+     */
+    public TupleDesc getTupleDesc() {
+        return _schema;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) throws IllegalArgumentException {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        try {
+            // a short read leaves the rest of the page zeroed, i.e. empty
+            _channel.read(ByteBuffer.wrap(data), (long) pid.pageNumber() * BufferPool.getPageSize());
+            return noteFreeSpace(new SlottedPage((HeapPageId) pid, data));
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public Page parsePage(PageId pid, ByteBuffer data) throws IOException {
+        byte[] bytes = new byte[data.remaining()];
+        data.duplicate().get(bytes);
+        return new SlottedPage((HeapPageId) pid, bytes);
+    }
+
+    /**
+     * @return the number of bytes one unit of the free space map stands for,
+     *         so that a whole page fits in the map's range
+     */
+    private static int fsmUnit() {
+        return (BufferPool.getPageSize() + 253) / 254;
+    }
+
+    private SlottedPage noteFreeSpace(SlottedPage pg) {
+        _fsm.update(pg.getId().pageNumber(), pg.getFreeSpace() / fsmUnit());
+        return pg;
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        _channel.write(ByteBuffer.wrap(page.getPageData(), 0, BufferPool.getPageSize()),
+                (long) page.getId().pageNumber() * BufferPool.getPageSize());
+        noteFreeSpace((SlottedPage) page);
+        _fsm.flush();
+    }
+
+    // see DbFile.java for javadocs
+    public void writePages(List<Page> pages) throws IOException {
+        _channel.writePages(pages, 0, BufferPool.getPageSize());
+        for (Page page : pages)
+            noteFreeSpace((SlottedPage) page);
+        _fsm.flush();
+    }
+
+    // see DbFile.java for javadocs
+    public void close() throws IOException {
+        _channel.close();
+        _fsm.close();
+    }
+
+    /**
+     * Returns the number of pages in this SlottedFile.
+     */
+    public int numPages() {
+        return (int) (_file.length() / BufferPool.getPageSize());
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        HeapPageId pid;
+        ArrayList<Page> dirtyPages = new ArrayList<Page>();
+        // a page is only worth reading if the free space map says it may
+        // have room for the tuple and a new slot
+        int unit = fsmUnit();
+        int needed = (_schema.getSize(t) + SlottedPage.SLOT_SIZE + unit - 1) / unit;
+        int numPages = numPages();
+        for (int pgNo = _fsm.nextCandidate(0, numPages, needed); pgNo >= 0;
+                pgNo = _fsm.nextCandidate(pgNo + 1, numPages, needed)) {
+            pid = new HeapPageId(getId(), pgNo);
+            boolean held = Database.getBufferPool().holdsLock(tid, pid);
+            SlottedPage pg = (SlottedPage) Database.getBufferPool().getPage(tid,
+                    pid, Permissions.READ_WRITE);
+            if (pg.spaceFor(t) <= pg.getFreeSpace()) {
+                pg.insertTuple(t);
+                noteFreeSpace(pg);
+                dirtyPages.add(pg);
+                return dirtyPages;
+            }
+            noteFreeSpace(pg);
+            if (!held)
+                Database.getBufferPool().releasePage(tid, pid);
+        }
+        SlottedPage pg;
+        synchronized (_appendLock) {
+            pid = new HeapPageId(getId(), numPages());
+            pg = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+            writePage(pg);
+        }
+        pg = (SlottedPage) Database.getBufferPool().getPage(tid,
+                pid, Permissions.READ_WRITE);
+        // throws if the tuple does not fit even on an empty page
+        pg.insertTuple(t);
+        noteFreeSpace(pg);
+        dirtyPages.add(pg);
+        return dirtyPages;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        RecordId recId = t.getRecordId();
+        if (recId == null)
+            throw new DbException("Try to delete a tuple with invalid reference");
+        HeapPageId pid = (HeapPageId) recId.getPageId();
+        if (pid.getTableId() != getId())
+            throw new DbException("Try to delete a tuple in another SlottedFile");
+        SlottedPage pg = (SlottedPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+        pg.deleteTuple(t);
+        noteFreeSpace(pg);
+        ArrayList<Page> dirtyPages = new ArrayList<Page>();
+        dirtyPages.add(pg);
+        return dirtyPages;
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(final TransactionId tid) {
+        class SlottedFileIterator implements DbFileIterator {
+
+            private int _nxtPgNo;
+            private int _numPg;
+            private Iterator<Tuple> _curPgItr = null;
+            private BufferRing _ring = null;
+
+            private void nextPage() throws DbException, TransactionAbortedException {
+                HeapPageId pid = new HeapPageId(getId(), _nxtPgNo++);
+                _curPgItr = ((SlottedPage) Database.getBufferPool().getPage(tid, pid,
+                        Permissions.READ_ONLY, _ring)).iterator();
+            }
+
+            @Override
+            public void open() throws DbException, TransactionAbortedException {
+                _numPg = numPages();
+                _ring = Database.getBufferPool().ringFor(_numPg);
+                rewind();
+            }
+
+            @Override
+            public boolean hasNext() throws DbException, TransactionAbortedException {
+                if (_curPgItr == null)
+                    return false;
+                while (!_curPgItr.hasNext() && _nxtPgNo < _numPg)
+                    nextPage();
+                return _curPgItr.hasNext();
+            }
+
+            @Override
+            public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return _curPgItr.next();
+            }
+
+            @Override
+            public void rewind() throws DbException, TransactionAbortedException {
+                _nxtPgNo = 0;
+                _curPgItr = Collections.<Tuple>emptyList().iterator();
+            }
+
+            @Override
+            public void close() {
+                _curPgItr = null;
+            }
+        }
+
+        return new SlottedFileIterator();
+    }
+
+}
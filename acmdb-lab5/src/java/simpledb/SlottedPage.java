@@ -0,0 +1,369 @@
+package simpledb;
+
+import java.util.*;
+import java.io.*;
+
+/**
+ * Each instance of SlottedPage stores data for one page of a SlottedFile and
+ * implements the Page interface that is used by BufferPool.
+ * <p>
+ * Unlike a HeapPage, whose slots all have the size of the largest possible
+ * tuple, a SlottedPage stores tuples in the variable-length format of
+ * {@link Type#serializeVariable}, so a short string takes only as many
+ * bytes as it has characters.  How many tuples fit on a page depends on
+ * their contents.
+ *
+ * @see SlottedFile
+ * @see BufferPool
+ */
+public class SlottedPage implements Page {
+
+    /** bytes of the slot count at the start of the page */
+    static final int HEADER_SIZE = 2;
+    /** bytes of a slot directory entry: the offset and length of a tuple */
+    static final int SLOT_SIZE = 4;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    /** the image the page was created from; a used slot with no entry in
+     *  tuples[] has not been decoded yet and is still only in here */
+    final byte data[];
+    /** where a slot's tuple starts in data[], or -1 if it is only in tuples[] */
+    final int offsets[];
+    /** the size of a slot's tuple, 0 for an empty slot */
+    final int lengths[];
+    final Tuple tuples[];
+    int numSlots;
+    /** bytes taken by the header, the slot directory and the tuples */
+    int usedBytes;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    TransactionId lastModifiedTid;
+
+    /**
+     * Create a SlottedPage from a set of bytes of data read from disk.
+     * The format of a SlottedPage is
+     * <ul>
+     * <li>the number of slots, as an unsigned 2-byte integer,</li>
+     * <li>the slot directory: per slot, the offset of its tuple in the page
+     * and the length of the tuple, as unsigned 2-byte integers; a length
+     * of 0 marks an empty slot,</li>
+     * <li>free space, and</li>
+     * <li>the tuples, packed towards the end of the page in the
+     * variable-length format.</li>
+     * </ul>
+     * A tuple keeps its slot, and with it its RecordId, until it is deleted.
+     * <p>
+     * As with HeapPage, the page keeps a reference to <tt>data</tt> and
+     * decodes tuples from it lazily, so the array must not be modified
+     * afterwards.
+     *
+     * @throws IOException if data does not hold a valid page
+     */
+    public SlottedPage(HeapPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        int pageSize = BufferPool.getPageSize();
+        if (pageSize > 1 << 16)
+            throw new IllegalStateException("slotted pages cannot be larger than 64KB");
+        if (data.length < pageSize)
+            throw new EOFException("slotted page image too short: " + data.length + " bytes");
+
+        int maxSlots = (pageSize - HEADER_SIZE) / (SLOT_SIZE + minTupleSize(td));
+        this.data = data;
+        offsets = new int[maxSlots];
+        lengths = new int[maxSlots];
+        tuples = new Tuple[maxSlots];
+        numSlots = readShort(0);
+        if (numSlots > maxSlots)
+            throw new IOException("corrupt slotted page " + id + ": " + numSlots + " slots");
+        int directoryEnd = HEADER_SIZE + numSlots * SLOT_SIZE;
+        usedBytes = directoryEnd;
+        for (int i = 0; i < numSlots; ++i) {
+            int entry = HEADER_SIZE + i * SLOT_SIZE;
+            offsets[i] = readShort(entry);
+            lengths[i] = readShort(entry + 2);
+            if (lengths[i] > 0 && (offsets[i] < directoryEnd || offsets[i] + lengths[i] > pageSize))
+                throw new IOException("corrupt slotted page " + id + ": slot " + i);
+            usedBytes += lengths[i];
+        }
+
+        this.lastModifiedTid = null;
+        // the page image is never modified, so it doubles as the before image
+        oldData = data;
+    }
+
+    private int readShort(int pos) {
+        return ((data[pos] & 0xff) << 8) | (data[pos + 1] & 0xff);
+    }
+
+    /**
+     * @return the size of the smallest possible tuple of td
+     */
+    private static int minTupleSize(TupleDesc td) {
+        int sz = 0;
+        for (int i = 0; i < td.numFields(); ++i)
+            sz += td.getFieldType(i) == Type.STRING_TYPE ? 4 : td.getFieldType(i).getLen();
+        return sz;
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public SlottedPage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return new SlottedPage(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData().clone();
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Returns the tuple in a used slot, decoding it from the page image the
+     * first time it is asked for.
+     */
+    private Tuple tuple(int slotId) throws NoSuchElementException {
+        Tuple t = tuples[slotId];
+        if (t != null)
+            return t;
+
+        t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slotId));
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data,
+                offsets[slotId], lengths[slotId]));
+        try {
+            for (int j = 0; j < td.numFields(); j++)
+                t.setField(j, td.getFieldType(j).parseVariable(dis));
+        } catch (java.text.ParseException e) {
+            e.printStackTrace();
+            throw new NoSuchElementException("parsing error!");
+        }
+
+        tuples[slotId] = t;
+        return t;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page.
+     * Used to serialize this page to disk.  The tuples are packed anew, so
+     * the space of deleted tuples is reclaimed here.
+     *
+     * @see #SlottedPage
+     * @return A byte array correspond to the bytes of this page.
+     */
+    public byte[] getPageData() {
+        byte[] page = new byte[BufferPool.getPageSize()];
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        int end = page.length;
+        writeShort(page, 0, numSlots);
+        for (int i = 0; i < numSlots; ++i) {
+            int entry = HEADER_SIZE + i * SLOT_SIZE;
+            if (lengths[i] == 0) {
+                writeShort(page, entry, 0);
+                writeShort(page, entry + 2, 0);
+                continue;
+            }
+            end -= lengths[i];
+            if (tuples[i] == null) {
+                // never decoded: copy it as it is
+                System.arraycopy(data, offsets[i], page, end, lengths[i]);
+            } else {
+                baos.reset();
+                try {
+                    for (int j = 0; j < td.numFields(); j++)
+                        td.getFieldType(j).serializeVariable(tuples[i].getField(j), dos);
+                    dos.flush();
+                } catch (IOException e) {
+                    // this really shouldn't happen
+                    e.printStackTrace();
+                }
+                System.arraycopy(baos.toByteArray(), 0, page, end, lengths[i]);
+            }
+            writeShort(page, entry, end);
+            writeShort(page, entry + 2, lengths[i]);
+        }
+        return page;
+    }
+
+    private static void writeShort(byte[] page, int pos, int v) {
+        page[pos] = (byte) (v >>> 8);
+        page[pos + 1] = (byte) v;
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * SlottedPage.
+     *
+     * @return The returned ByteArray.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()]; // no slots
+    }
+
+    /**
+     * Delete the specified tuple from the page.  Its slot becomes free for
+     * the next insert; the slots of the other tuples do not change.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     * @param t The tuple to delete
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null)
+            throw new DbException("Deletion failed: Invalid record");
+        if (!pid.equals(rid.getPageId()))
+            throw new DbException("Deletion failed: Wrong deletion page");
+        int i = rid.tupleno();
+        if (i < 0 || i >= numSlots || lengths[i] == 0)
+            throw new DbException("Deletion failed: Can not find certain tuple");
+
+        usedBytes -= lengths[i];
+        lengths[i] = 0;
+        tuples[i] = null;
+        // empty slots at the end of the directory give their space back
+        while (numSlots > 0 && lengths[numSlots - 1] == 0) {
+            --numSlots;
+            usedBytes -= SLOT_SIZE;
+        }
+    }
+
+    /**
+     * @return the number of bytes inserting t into this page would take,
+     *         including a new slot directory entry if there is no free slot
+     */
+    int spaceFor(Tuple t) {
+        return td.getSize(t) + (freeSlot() == numSlots ? SLOT_SIZE : 0);
+    }
+
+    private int freeSlot() {
+        int i = 0;
+        while (i < numSlots && lengths[i] != 0)
+            ++i;
+        return i;
+    }
+
+    /**
+     * Adds the specified tuple to the page;  the tuple is updated to reflect
+     *  that it is now stored on this page.
+     * @throws DbException if the page does not have room for the tuple or
+     *         tupledesc is mismatch.
+     * @param t The tuple to add.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!td.equals(t.getTupleDesc()))
+            throw new DbException("Insertion failed: Tuple descriptor mismatch");
+        int i = freeSlot();
+        if (i == tuples.length || spaceFor(t) > getFreeSpace())
+            throw new DbException("Insertion failed: Not enough free space in slotted page");
+
+        if (i == numSlots) {
+            ++numSlots;
+            usedBytes += SLOT_SIZE;
+        }
+        lengths[i] = td.getSize(t);
+        offsets[i] = -1;
+        usedBytes += lengths[i];
+        t.setRecordId(new RecordId(pid, i));
+        tuples[i] = t;
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.lastModifiedTid = dirty ? tid : null;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return this.lastModifiedTid;
+    }
+
+    /**
+     * Returns the number of free bytes on this page, counting the space of
+     * deleted tuples.
+     */
+    public int getFreeSpace() {
+        return BufferPool.getPageSize() - usedBytes;
+    }
+
+    /**
+     * Returns the number of tuples on this page.
+     */
+    public int getNumTuples() {
+        int n = 0;
+        for (int i = 0; i < numSlots; ++i)
+            if (lengths[i] != 0)
+                ++n;
+        return n;
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return i >= 0 && i < numSlots && lengths[i] != 0;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        class InPageTupleIterator implements Iterator<Tuple> {
+
+            private int _nxtSlotNo = skip(0);
+
+            private int skip(int slotNo) {
+                while (slotNo < numSlots && lengths[slotNo] == 0)
+                    ++slotNo;
+                return slotNo;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return _nxtSlotNo < numSlots;
+            }
+
+            @Override
+            public Tuple next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                Tuple t = tuple(_nxtSlotNo);
+                _nxtSlotNo = skip(_nxtSlotNo + 1);
+                return t;
+            }
+
+            @Override
+            public void remove() throws UnsupportedOperationException {
+                throw new UnsupportedOperationException();
+            }
+        }
+        return new InPageTupleIterator();
+    }
+
+}
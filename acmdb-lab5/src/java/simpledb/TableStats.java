@@ -152,7 +152,7 @@ public class TableStats {
         this.f = Database.getCatalog().getDatabaseFile(tableid);
         this.td = f.getTupleDesc();
         this.histograms = new Object[td.numFields()];
-        this.numPages = ((HeapFile) f).numPages();
+        this.numPages = f.numPages();
 
         SeqScan scan = new SeqScan(new TransactionId(), f.getId(), null);
         constructHistograms(scan);
@@ -10,16 +10,28 @@ import java.util.NoSuchElementException;
  * Tuple maintains information about the contents of a tuple. Tuples have a
  * specified schema specified by a TupleDesc object and contain Field objects
  * with the data for each field.
+ * <p>
+ * Integer fields are stored unboxed, in one int array per tuple, so a tuple
+ * of n integers takes two objects rather than n + 2.  {@link #getInt},
+ * {@link #setInt}, {@link #compareField} and {@link #copyField} work on them
+ * without creating Field objects; {@link #getField} still returns one, made
+ * on each call.  Fields of other types are kept as Field objects.
  */
 public class Tuple implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
     private TupleDesc _schema;
+    private int _numFields;
+    /** the values of the int fields, followed by one bit per field that is
+     *  set while the field holds an int */
+    private int[] _ints;
+    /** the fields that are not ints; null until there is one */
     private Field[] _fieldAr;
     private RecordId _rid;
     private static final String errMsg_indexOutOfBounds = "Request index out of bounds";
     private static final String errMsg_cannotFindName = "Can not find field with given name";
+    private static final String errMsg_notInt = "Field is not an int";
     /**
      * Create a new tuple with the specified schema (type).
      *
@@ -31,7 +43,29 @@ public class Tuple implements Serializable {
         // some code goes here
         // modified: 2019.4.18
         this._schema = td;
-        this._fieldAr = new Field[td.numFields()];
+        allocate(td.numFields());
+    }
+
+    private void allocate(int numFields) {
+        _numFields = numFields;
+        _ints = new int[numFields + (numFields + 31) / 32];
+        _fieldAr = null;
+    }
+
+    private boolean holdsInt(int i) {
+        return (_ints[_numFields + (i >>> 5)] & (1 << i)) != 0;
+    }
+
+    private void setHoldsInt(int i, boolean value) {
+        if (value)
+            _ints[_numFields + (i >>> 5)] |= 1 << i;
+        else
+            _ints[_numFields + (i >>> 5)] &= ~(1 << i);
+    }
+
+    private void checkIndex(int i) throws NoSuchElementException {
+        if (i < 0 || i >= _numFields)
+            throw new NoSuchElementException(errMsg_indexOutOfBounds);
     }
 
     /**
@@ -43,6 +77,14 @@ public class Tuple implements Serializable {
         return _schema;
     }
 
+    /**
+     * @return the size in bytes of this tuple in the variable-length format
+     * @see TupleDesc#getSize(Tuple)
+     */
+    public int getSize() {
+        return _schema.getSize(this);
+    }
+
     /**
      * @return The RecordId representing the location of this tuple on disk. May
      *         be null.
@@ -74,11 +116,40 @@ public class Tuple implements Serializable {
     public void setField(int i, Field f) {
         // some code goes here
         // modified: 2019.4.18
+        checkIndex(i);
+        if (f instanceof IntField) {
+            setInt(i, ((IntField) f).getValue());
+            return;
+        }
+        setHoldsInt(i, false);
+        if (_fieldAr == null) {
+            if (f == null)
+                return;
+            _fieldAr = new Field[_numFields];
+        }
         _fieldAr[i] = f;
     }
 
+    /**
+     * Change the ith field of this tuple to an int, without creating an
+     * IntField.
+     *
+     * @param i
+     *            index of the field to change. It must be a valid index.
+     * @param value
+     *            new value for the field.
+     */
+    public void setInt(int i, int value) {
+        checkIndex(i);
+        _ints[i] = value;
+        setHoldsInt(i, true);
+        if (_fieldAr != null)
+            _fieldAr[i] = null;
+    }
+
     /**
      * @return the value of the ith field, or null if it has not been set.
+     *         An int field is returned as a new IntField.
      *
      * @param i
      *            field index to return. Must be a valid index.
@@ -86,10 +157,79 @@ public class Tuple implements Serializable {
     public Field getField(int i) throws NoSuchElementException {
         // some code goes here
         // modified: 2019.4.18
-        if (i < _fieldAr.length)
-            return _fieldAr[i];
+        checkIndex(i);
+        if (holdsInt(i))
+            return new IntField(_ints[i]);
+        return _fieldAr == null ? null : _fieldAr[i];
+    }
+
+    /**
+     * @return the value of the ith field, which must hold an int
+     *
+     * @param i
+     *            field index to return. Must be a valid index.
+     * @throws IllegalStateException if the field does not hold an int
+     */
+    public int getInt(int i) throws NoSuchElementException {
+        checkIndex(i);
+        if (!holdsInt(i))
+            throw new IllegalStateException(errMsg_notInt);
+        return _ints[i];
+    }
+
+    /**
+     * Compares the ith field of this tuple with a value, as
+     * getField(i).compare(op, value) would.
+     */
+    public boolean compareField(int i, Predicate.Op op, Field value) {
+        checkIndex(i);
+        if (holdsInt(i) && value instanceof IntField)
+            return compareInts(_ints[i], op, ((IntField) value).getValue());
+        return getField(i).compare(op, value);
+    }
+
+    /**
+     * Compares the ith field of this tuple with the jth field of other, as
+     * getField(i).compare(op, other.getField(j)) would.
+     */
+    public boolean compareField(int i, Predicate.Op op, Tuple other, int j) {
+        checkIndex(i);
+        other.checkIndex(j);
+        if (holdsInt(i) && other.holdsInt(j))
+            return compareInts(_ints[i], op, other._ints[j]);
+        return getField(i).compare(op, other.getField(j));
+    }
+
+    /** The semantics of {@link IntField#compare} on two ints */
+    private static boolean compareInts(int a, Predicate.Op op, int b) {
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return a == b;
+        case NOT_EQUALS:
+            return a != b;
+        case GREATER_THAN:
+            return a > b;
+        case GREATER_THAN_OR_EQ:
+            return a >= b;
+        case LESS_THAN:
+            return a < b;
+        case LESS_THAN_OR_EQ:
+            return a <= b;
+        }
+        return false;
+    }
+
+    /**
+     * Sets the jth field of dst to the ith field of this tuple, without
+     * creating a Field for an int.
+     */
+    public void copyField(int i, Tuple dst, int j) {
+        checkIndex(i);
+        if (holdsInt(i))
+            dst.setInt(j, _ints[i]);
         else
-            throw new NoSuchElementException(errMsg_indexOutOfBounds);
+            dst.setField(j, _fieldAr == null ? null : _fieldAr[i]);
     }
 
     /**
@@ -103,12 +243,16 @@ public class Tuple implements Serializable {
     public String toString() {
         // some code goes here
         // modified: 2019.4.18
-        if (_fieldAr == null || _fieldAr.length == 0)
+        if (_numFields == 0)
             return "";
-        StringBuffer sbuffer = new StringBuffer(_fieldAr[0].toString());
-        for (int i = 1; i < _fieldAr.length; ++i) {
-            sbuffer.append("\t");
-            sbuffer.append(_fieldAr[i].toString());
+        StringBuffer sbuffer = new StringBuffer();
+        for (int i = 0; i < _numFields; ++i) {
+            if (i > 0)
+                sbuffer.append("\t");
+            if (holdsInt(i))
+                sbuffer.append(_ints[i]);
+            else
+                sbuffer.append(getField(i).toString());
         }
         return sbuffer.toString();
     }
@@ -123,24 +267,22 @@ public class Tuple implements Serializable {
         // modified: 2019.4.18
         class FieldIterator implements Iterator<Field> {
             private int _curIndex;
-            private Field[] _fdPtr;
 
-            public FieldIterator(Field[] ptr) {
-                _fdPtr = ptr;
+            public FieldIterator() {
                 _curIndex = 0;
             }
 
             @Override
             public boolean hasNext() {
-                return  _curIndex < _fdPtr.length;
+                return  _curIndex < _numFields;
             }
 
             @Override
             public Field next() {
-                return _fdPtr[_curIndex++];
+                return getField(_curIndex++);
             }
         }
-        return new FieldIterator(this._fieldAr);
+        return new FieldIterator();
     }
 
     /**
@@ -151,6 +293,6 @@ public class Tuple implements Serializable {
         // some code goes here
         // modified: 2019.4.18
         _schema = td;
-        _fieldAr = new Field[td.numFields()];
+        allocate(td.numFields());
     }
 }
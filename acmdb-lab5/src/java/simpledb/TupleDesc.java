@@ -43,6 +43,8 @@ public class TupleDesc implements Serializable {
      *                  e.g. unamed1, unamed2
      * */
     private TDItem[] _itemAr;
+    /** where each field starts in the fixed-length format; made on demand */
+    private transient int[] _offsets;
     private static final String _defaultName = "null";
     private static final String errMsg_indexOutOfBounds = "Request index out of bounds";
     private static final String errMsg_cannotFindName = "Can not find field with given name";
@@ -201,6 +203,42 @@ public class TupleDesc implements Serializable {
         return sz;
     }
 
+    /**
+     * @return the offset in bytes of the ith field from the start of a tuple
+     *         of this TupleDesc in the fixed-length format of HeapPage
+     *
+     * @param i
+     *            index of the field. It must be a valid index.
+     */
+    public int getOffset(int i) {
+        int[] offsets = _offsets;
+        if (offsets == null) {
+            offsets = new int[_itemAr.length];
+            for (int j = 1; j < _itemAr.length; ++j)
+                offsets[j] = offsets[j - 1] + _itemAr[j - 1].fieldType.getLen();
+            _offsets = offsets;
+        }
+        return offsets[i];
+    }
+
+    /**
+     * Returns the size in bytes of a tuple of this TupleDesc in the
+     * variable-length format, where strings take only as many bytes as they
+     * have characters, plus their length.
+     *
+     * @param t
+     *            a tuple with this TupleDesc
+     * @return the size of t in the variable-length format
+     * @see Type#getLen(Field)
+     */
+    public int getSize(Tuple t) {
+        int sz = 0;
+        for (int i = 0; i < _itemAr.length; ++i) {
+            sz += _itemAr[i].fieldType.getLen(t.getField(i));
+        }
+        return sz;
+    }
+
     /**
      * Merge two TupleDescs into one, with td1.numFields + td2.numFields fields,
      * with the first td1.numFields coming from td1 and the remaining from td2.
@@ -42,6 +42,34 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public int getLen(Field f) {
+            return 4 + Math.min(((StringField) f).getValue().length(), STRING_LEN);
+        }
+
+        @Override
+        public Field parseVariable(DataInputStream dis) throws ParseException {
+            try {
+                int strLen = dis.readInt();
+                if (strLen < 0 || strLen > STRING_LEN)
+                    throw new ParseException("bad string length " + strLen, 0);
+                byte bs[] = new byte[strLen];
+                dis.readFully(bs);
+                return new StringField(new String(bs), STRING_LEN);
+            } catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public void serializeVariable(Field f, DataOutputStream dos) throws IOException {
+            String s = ((StringField) f).getValue();
+            if (s.length() > STRING_LEN)
+                s = s.substring(0, STRING_LEN);
+            dos.writeInt(s.length());
+            dos.writeBytes(s);
+        }
     };
     
     public static final int STRING_LEN = 128;
@@ -60,4 +88,31 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return the number of bytes required to store the given field of this
+   *   type in the variable-length format, which stores strings without
+   *   padding.  Fixed-length types take {@link #getLen()} bytes either way.
+   * @see SlottedPage
+   */
+    public int getLen(Field f) {
+        return getLen();
+    }
+
+  /**
+   * @return a Field object of this type read from the specified
+   *   DataInputStream in the variable-length format.
+   * @see #getLen(Field)
+   */
+    public Field parseVariable(DataInputStream dis) throws ParseException {
+        return parse(dis);
+    }
+
+  /**
+   * Writes a field of this type to dos in the variable-length format,
+   * taking {@link #getLen(Field)} bytes.
+   */
+    public void serializeVariable(Field f, DataOutputStream dos) throws IOException {
+        f.serialize(dos);
+    }
+
 }
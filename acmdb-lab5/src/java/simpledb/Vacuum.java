@@ -0,0 +1,137 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Vacuum compacts a HeapFile that deletes have left mostly empty.  Deleting
+ * a tuple only clears its slot, so without it the file never shrinks and
+ * every scan still reads the empty pages.  Vacuum moves the tuples of the
+ * last pages of the file into free slots of earlier pages, and then cuts
+ * the emptied pages off the end of the file.  The shell runs it on
+ * <tt>VACUUM table</tt>.
+ * <p>
+ * The work is done in small transactions of its own, each emptying at most
+ * a few pages, so that vacuum holds few locks at a time and runs alongside
+ * other transactions.  A batch that is aborted, e.g. to break a deadlock,
+ * is retried.  Moved tuples get new RecordIds, as if they had been deleted
+ * and inserted again.
+ */
+public class Vacuum {
+
+    /** Pages emptied per transaction by default */
+    public static final int DEFAULT_BATCH_PAGES = 4;
+
+    /** Times an aborted batch is retried before vacuum gives up */
+    public static final int MAX_ATTEMPTS = 10;
+
+    private final HeapFile _file;
+    private final int _batchPages;
+    private int _moved;
+    private int _truncated;
+
+    public Vacuum(HeapFile f) {
+        this(f, DEFAULT_BATCH_PAGES);
+    }
+
+    /**
+     * @param f the file to compact
+     * @param batchPages the most pages emptied by one transaction
+     */
+    public Vacuum(HeapFile f, int batchPages) {
+        if (batchPages < 1)
+            throw new IllegalArgumentException("batchPages must be positive");
+        _file = f;
+        _batchPages = batchPages;
+    }
+
+    /**
+     * Compacts the file.  Returns once no tuple of the last non-empty page
+     * fits into an earlier page, and the empty pages after it are cut off.
+     *
+     * @return the number of pages cut off the file
+     * @throws TransactionAbortedException if a batch was aborted
+     *         {@link #MAX_ATTEMPTS} times in a row
+     */
+    public int run() throws DbException, IOException, TransactionAbortedException {
+        int pgNo = _file.numPages() - 1;
+        while (pgNo > 0) {
+            int next = emptyPages(pgNo);
+            if (next == pgNo)
+                break;
+            pgNo = next;
+        }
+        truncate();
+        return _truncated;
+    }
+
+    /** @return the number of pages emptied so far that held tuples */
+    public int pagesMoved() {
+        return _moved;
+    }
+
+    /** @return the number of pages cut off the file so far */
+    public int pagesTruncated() {
+        return _truncated;
+    }
+
+    /**
+     * Empties up to {@link #_batchPages} pages, from pgNo down, in one
+     * transaction.
+     *
+     * @return the highest page that is not known to be empty afterwards
+     */
+    private int emptyPages(int pgNo) throws DbException, IOException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        for (int attempt = 1; ; ++attempt) {
+            TransactionId tid = new TransactionId();
+            boolean committed = false;
+            try {
+                int p = pgNo, moved = 0;
+                while (p > 0 && pgNo - p < _batchPages) {
+                    ArrayList<Page> dirtied = _file.moveTuples(tid, p);
+                    if (!dirtied.isEmpty()) {
+                        bp.pagesDirtied(tid, dirtied);
+                        ++moved;
+                    }
+                    HeapPage pg = (HeapPage) bp.getPage(tid, new HeapPageId(_file.getId(), p),
+                            Permissions.READ_WRITE);
+                    if (pg.getNumEmptySlots() != pg.numSlots)
+                        break;
+                    --p;
+                }
+                bp.transactionComplete(tid);
+                committed = true;
+                _moved += moved;
+                return p;
+            } catch (TransactionAbortedException e) {
+                if (attempt == MAX_ATTEMPTS)
+                    throw e;
+            } finally {
+                if (!committed)
+                    bp.transactionComplete(tid, false);
+            }
+        }
+    }
+
+    private void truncate() throws DbException, IOException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        for (int attempt = 1; ; ++attempt) {
+            TransactionId tid = new TransactionId();
+            boolean committed = false;
+            try {
+                int cut = _file.truncateEmptyPages(tid);
+                bp.transactionComplete(tid);
+                committed = true;
+                _truncated += cut;
+                return;
+            } catch (TransactionAbortedException e) {
+                if (attempt == MAX_ATTEMPTS)
+                    throw e;
+            } finally {
+                if (!committed)
+                    bp.transactionComplete(tid, false);
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.Predicate.Op;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class AsyncPageTest extends SimpleDbTestBase {
+    private static final int PAGES = 20;
+    private HeapFile hf;
+    private int tuplesPerPage;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuplesPerPage = BufferPool.getPageSize() * 8 / (Utility.getTupleDesc(2).getSize() * 8 + 1);
+        hf = SystemTestUtil.createRandomHeapFile(2, tuplesPerPage * PAGES, null, null);
+    }
+
+    /**
+     * Unit test for BufferPool.getPageAsync(): the lock is taken before the
+     * call returns, and the page read is the one on disk.
+     */
+    @Test public void getPageAsync() throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        HeapPageId pid = new HeapPageId(hf.getId(), 5);
+        TransactionId tid = new TransactionId();
+        CompletableFuture<Page> f = bp.getPageAsync(tid, pid, Permissions.READ_ONLY);
+        assertTrue(bp.holdsLock(tid, pid));
+        HeapPage pg = (HeapPage) f.get();
+        assertEquals(pid, pg.getId());
+        assertArrayEquals(hf.readPage(pid).getPageData(), pg.getPageData());
+        assertTrue(bp.isResident(pid));
+
+        // now a hit, completed right away with the same object
+        CompletableFuture<Page> again = bp.getPageAsync(tid, pid, Permissions.READ_ONLY);
+        assertTrue(again.isDone());
+        assertSame(pg, again.get());
+        bp.transactionComplete(tid);
+
+        BufferPoolStats.TableCounters c = bp.getStats().forTable(hf.getId());
+        assertEquals(1, c.misses());
+        assertEquals(1, c.hits());
+        assertEquals(1, c.reads().count());
+    }
+
+    /**
+     * Concurrent requests for the same missing page share one read.
+     */
+    @Test public void concurrentMissesShareRead() throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        HeapPageId pid = new HeapPageId(hf.getId(), 7);
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        CompletableFuture<Page> f1 = bp.getPageAsync(t1, pid, Permissions.READ_ONLY);
+        CompletableFuture<Page> f2 = bp.getPageAsync(t2, pid, Permissions.READ_ONLY);
+        CompletableFuture<Void> f3 = bp.prefetch(Collections.singleton(pid));
+        assertSame(f1.get(), f2.get());
+        f3.get();
+        assertSame(f1.get(), bp.getPage(t1, pid, Permissions.READ_ONLY));
+        assertEquals(1, bp.getStats().forTable(hf.getId()).reads().count());
+        bp.transactionComplete(t1);
+        bp.transactionComplete(t2);
+    }
+
+    /**
+     * prefetch() issues every read at once and completes when all of them
+     * are resident.
+     */
+    @Test public void prefetchBatch() throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        ArrayList<PageId> pids = new ArrayList<PageId>();
+        for (int i = 0; i < PAGES; ++i)
+            pids.add(new HeapPageId(hf.getId(), i));
+        bp.prefetch(pids).get();
+        for (PageId pid : pids)
+            assertTrue(bp.isResident(pid));
+        assertEquals(PAGES, bp.getStats().forTable(hf.getId()).reads().count());
+
+        // a page past the end of a heap file reads as an empty page
+        HeapPageId past = new HeapPageId(hf.getId(), PAGES + 3);
+        TransactionId tid = new TransactionId();
+        HeapPage pg = (HeapPage) bp.getPageAsync(tid, past, Permissions.READ_ONLY).get();
+        assertEquals(tuplesPerPage, pg.getNumEmptySlots());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * A range scan of a B+ tree reads the leaves ahead of it, and still
+     * returns every matching tuple.
+     */
+    @Test public void btreeRangeScanPrefetches() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 20000, null, tuples, 0);
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        IntField low = new IntField(0);
+        DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Op.GREATER_THAN_OR_EQ, low));
+        it.open();
+        assertTrue(it.hasNext());
+        PageId first = it.next().getRecordId().getPageId();
+        BTreeLeafPage leaf = (BTreeLeafPage) bp.getPage(tid, first, Permissions.READ_ONLY);
+        BTreePageId next = leaf.getRightSiblingId();
+        assertNotNull(next);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!bp.isResident(next) && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertTrue(bp.isResident(next));
+        int n = 1;
+        while (it.hasNext()) {
+            it.next();
+            ++n;
+        }
+        it.close();
+        bp.transactionComplete(tid);
+        int expected = 0;
+        for (ArrayList<Integer> t : tuples)
+            if (t.get(0) >= 0)
+                ++expected;
+        assertEquals(expected, n);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(AsyncPageTest.class);
+    }
+}
@@ -0,0 +1,139 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferPoolPartitionTest extends SimpleDbTestBase {
+    private static final int PAGES = 100;
+    private HeapFile hf;
+    private int tuplesPerPage;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuplesPerPage = BufferPool.getPageSize() * 8 / (Utility.getTupleDesc(2).getSize() * 8 + 1);
+        hf = SystemTestUtil.createRandomHeapFile(2, tuplesPerPage * PAGES, null, null);
+    }
+
+    private int residentPages(BufferPool bp) {
+        int n = 0;
+        for (int i = 0; i < PAGES; ++i)
+            if (bp.isResident(new HeapPageId(hf.getId(), i)))
+                ++n;
+        return n;
+    }
+
+    /**
+     * Small pools keep a single partition unless told otherwise, and a
+     * pool never has more partitions than pages.
+     */
+    @Test public void numPartitions() {
+        assertEquals(1, new BufferPool(BufferPool.DEFAULT_PAGES).numPartitions());
+        assertEquals(1, new BufferPool(64, new LruKPolicy(2, 64)).numPartitions());
+        assertEquals(4, new BufferPool(64, 4).numPartitions());
+        assertEquals(3, new BufferPool(3, 8).numPartitions());
+    }
+
+    /**
+     * The partitions together hold no more pages than the pool was given.
+     */
+    @Test public void sizeIsBounded() throws Exception {
+        BufferPool bp = Database.resetBufferPool(new BufferPool(16, 4));
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < PAGES; ++i) {
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+            assertTrue(residentPages(bp) <= 16);
+        }
+        assertEquals(16, residentPages(bp));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * A NO STEAL transaction may dirty as many pages as the whole pool
+     * holds, however they hash: partitions that run out of frames borrow
+     * them from the others.
+     */
+    @Test public void borrowFrames() throws Exception {
+        BufferPool bp = Database.resetBufferPool(new BufferPool(16, 16));
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 16; ++i) {
+            Page pg = bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_WRITE);
+            pg.markDirty(true, tid);
+        }
+        try {
+            bp.getPage(tid, new HeapPageId(hf.getId(), 16), Permissions.READ_ONLY);
+            fail("expected the pool to be full of dirty pages");
+        } catch (DbException e) {
+            // expected
+        }
+        bp.transactionComplete(tid, false);
+        assertEquals(0, residentPages(bp));
+    }
+
+    /**
+     * Transactions running at once on different tables commit their
+     * inserts through different partitions.
+     */
+    @Test public void concurrentCommits() throws Exception {
+        final BufferPool bp = Database.resetBufferPool(new BufferPool(64, 4));
+        final int threads = 4, rounds = 20, perRound = 50;
+        final List<HeapFile> files = new ArrayList<HeapFile>();
+        for (int i = 0; i < threads; ++i)
+            files.add(SystemTestUtil.createRandomHeapFile(2, 0, null, null));
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        List<Thread> workers = new ArrayList<Thread>();
+        for (int i = 0; i < threads; ++i) {
+            final HeapFile f = files.get(i);
+            Thread t = new Thread() {
+                public void run() {
+                    try {
+                        for (int r = 0; r < rounds; ++r) {
+                            TransactionId tid = new TransactionId();
+                            for (int k = 0; k < perRound; ++k)
+                                bp.insertTuple(tid, f.getId(), Utility.getHeapTuple(new int[] { r, k }));
+                            // read a page of the shared table as well
+                            bp.getPage(tid, new HeapPageId(hf.getId(), r % PAGES), Permissions.READ_ONLY);
+                            bp.transactionComplete(tid);
+                        }
+                    } catch (Throwable e) {
+                        errors.add(e);
+                    }
+                }
+            };
+            workers.add(t);
+            t.start();
+        }
+        for (Thread t : workers)
+            t.join();
+        assertEquals(Collections.emptyList(), errors);
+
+        for (HeapFile f : files) {
+            ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+            for (int r = 0; r < rounds; ++r)
+                for (int k = 0; k < perRound; ++k) {
+                    ArrayList<Integer> row = new ArrayList<Integer>();
+                    row.add(r);
+                    row.add(k);
+                    expected.add(row);
+                }
+            SystemTestUtil.matchTuples(f, expected);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolPartitionTest.class);
+    }
+}
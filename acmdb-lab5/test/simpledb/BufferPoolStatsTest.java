@@ -0,0 +1,126 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+
+import javax.management.ObjectName;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferPoolStatsTest extends SimpleDbTestBase {
+    private static final int PAGES = 10;
+    private HeapFile hf;
+    private int tuplesPerPage;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuplesPerPage = BufferPool.getPageSize() * 8 / (Utility.getTupleDesc(2).getSize() * 8 + 1);
+        hf = SystemTestUtil.createRandomHeapFile(2, tuplesPerPage * PAGES, null, null);
+    }
+
+    /**
+     * Requests for resident pages count as hits, the others as misses and
+     * page reads, all under the table of the page.
+     */
+    @Test public void hitsAndMisses() throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        bp.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+        bp.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+        bp.getPage(tid, new HeapPageId(hf.getId(), 1), Permissions.READ_ONLY);
+        bp.transactionComplete(tid);
+
+        BufferPoolStats.TableCounters c = bp.getStats().forTable(hf.getId());
+        assertEquals(1, c.hits());
+        assertEquals(2, c.misses());
+        assertEquals(1.0 / 3, c.hitRatio(), 1e-9);
+        assertEquals(2, c.reads().count());
+        assertEquals(2, bp.getStats().getMisses());
+        assertEquals(0, bp.getStats().forTable(hf.getId() + 1).misses());
+    }
+
+    /**
+     * Pages pushed out of a full pool count as evictions; dirty pages a
+     * commit writes count as write-backs.
+     */
+    @Test public void evictionsAndWriteBacks() throws Exception {
+        BufferPool bp = Database.resetBufferPool(4);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < PAGES; ++i)
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        bp.transactionComplete(tid);
+        assertEquals(PAGES - 4, bp.getStats().forTable(hf.getId()).evictions());
+
+        tid = new TransactionId();
+        for (int i = 0; i < 2; ++i) {
+            HeapPage pg = (HeapPage) bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_WRITE);
+            bp.deleteTuple(tid, pg.iterator().next());
+        }
+        bp.transactionComplete(tid);
+        assertEquals(2, bp.getStats().forTable(hf.getId()).writeBacks());
+        assertEquals(2, bp.getStats().getWriteBacks());
+
+        bp.getStats().reset();
+        assertEquals(0, bp.getStats().getEvictions());
+        assertEquals(0, bp.getStats().getWriteBacks());
+    }
+
+    /**
+     * Percentiles are bucket bounds, within a factor of two of the truth.
+     */
+    @Test public void histogram() {
+        LatencyHistogram h = new LatencyHistogram();
+        assertEquals(0, h.percentileNanos(0.5));
+        h.record(1000, 99);
+        h.record(1000000);
+        assertEquals(100, h.count());
+        assertEquals(10990.0, h.meanNanos(), 1e-9);
+        assertEquals(1024, h.percentileNanos(0.5));
+        assertEquals(1024, h.percentileNanos(0.99));
+        assertEquals(1 << 20, h.percentileNanos(1.0));
+    }
+
+    /**
+     * The stats of the current pool are readable over JMX and from the
+     * shell.
+     */
+    @Test public void mbeanAndShell() throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        bp.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+        bp.transactionComplete(tid);
+
+        Object misses = ManagementFactory.getPlatformMBeanServer().getAttribute(
+                new ObjectName(BufferPoolStats.OBJECT_NAME), "Misses");
+        assertEquals(1L, misses);
+
+        PrintStream out = System.out;
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(captured));
+        try {
+            assertTrue(new Parser().processShellStatement("show   BufferPool ;"));
+            assertFalse(new Parser().processShellStatement("select * from t;"));
+        } finally {
+            System.setOut(out);
+        }
+        String report = captured.toString();
+        assertTrue(report.contains(Database.getCatalog().getTableName(hf.getId())));
+        assertTrue(report.contains("(total)"));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolStatsTest.class);
+    }
+}
@@ -0,0 +1,91 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferRingTest extends SimpleDbTestBase {
+    private static final int POOL_PAGES = 40;
+
+    private int tuplesPerPage() {
+        return BufferPool.getPageSize() * 8 / (Utility.getTupleDesc(2).getSize() * 8 + 1);
+    }
+
+    private static int residentPages(BufferPool bp, HeapFile f) {
+        int count = 0;
+        for (int i = 0; i < f.numPages(); ++i)
+            if (bp.isResident(new HeapPageId(f.getId(), i)))
+                ++count;
+        return count;
+    }
+
+    /**
+     * Unit test for BufferPool.ringFor(): only scans of files larger than
+     * the pool get a ring.
+     */
+    @Test public void ringForLargeFilesOnly() {
+        BufferPool bp = Database.resetBufferPool(POOL_PAGES);
+        assertNull(bp.ringFor(POOL_PAGES));
+        BufferRing ring = bp.ringFor(POOL_PAGES + 1);
+        assertNotNull(ring);
+        assertTrue(ring.capacity() < POOL_PAGES);
+    }
+
+    /**
+     * Even with plain LRU, the pages of a small table survive a scan of a
+     * table several times larger than the pool.
+     */
+    @Test public void hotPagesSurviveLargeScan() throws Exception {
+        HeapFile hot = SystemTestUtil.createRandomHeapFile(2, tuplesPerPage() * 8, null, null);
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, tuplesPerPage() * POOL_PAGES * 3, null, tuples);
+        BufferPool bp = Database.resetBufferPool(POOL_PAGES, new LruKPolicy(1, POOL_PAGES));
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < hot.numPages(); ++i)
+            bp.getPage(tid, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY);
+        SystemTestUtil.matchTuples(big, tid, tuples);
+
+        assertEquals(hot.numPages(), residentPages(bp, hot));
+        assertTrue(residentPages(bp, big) <= bp.ringFor(big.numPages()).capacity());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * A page of the ring that is requested outside the scan stays in the
+     * pool after the ring moves on.
+     */
+    @Test public void requestedPageLeavesRing() throws Exception {
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, tuplesPerPage() * POOL_PAGES * 2, null, null);
+        BufferPool bp = Database.resetBufferPool(POOL_PAGES);
+        BufferRing ring = bp.ringFor(big.numPages());
+
+        TransactionId tid = new TransactionId();
+        HeapPageId first = new HeapPageId(big.getId(), 0);
+        HeapPageId second = new HeapPageId(big.getId(), 1);
+        bp.getPage(tid, first, Permissions.READ_ONLY, ring);
+        bp.getPage(tid, second, Permissions.READ_ONLY, ring);
+        bp.getPage(tid, second, Permissions.READ_ONLY);
+        for (int i = 2; i < big.numPages(); ++i)
+            bp.getPage(tid, new HeapPageId(big.getId(), i), Permissions.READ_ONLY, ring);
+
+        assertFalse(bp.isResident(first));
+        assertTrue(bp.isResident(second));
+        assertEquals(ring.capacity() + 1, residentPages(bp, big));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferRingTest.class);
+    }
+}
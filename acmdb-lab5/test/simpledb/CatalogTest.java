@@ -1,7 +1,11 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.io.PrintWriter;
 import java.util.NoSuchElementException;
 import java.util.Random;
 
@@ -93,6 +97,31 @@ public class CatalogTest extends SimpleDbTestBase {
     	assertEquals(f, Database.getCatalog().getDatabaseFile(id2));
     }
 
+    /**
+     * Check that loadSchema picks the storage given after the field list
+     */
+    @Test public void loadSchemaStorage() throws Exception {
+        File dir = File.createTempFile("catalog", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        File catalogFile = new File(dir, "catalog.txt");
+        catalogFile.deleteOnExit();
+        PrintWriter out = new PrintWriter(catalogFile);
+        out.println("plain (a int, b int)");
+        out.println("mapped (a int pk, b string) mmap");
+        out.close();
+
+        Database.getCatalog().loadSchema(catalogFile.getAbsolutePath());
+        HeapFile plain = (HeapFile) Database.getCatalog().getDatabaseFile(
+                Database.getCatalog().getTableId("plain"));
+        HeapFile mapped = (HeapFile) Database.getCatalog().getDatabaseFile(
+                Database.getCatalog().getTableId("mapped"));
+        assertFalse(plain.isMemoryMapped());
+        assertTrue(mapped.isMemoryMapped());
+        assertEquals("a", Database.getCatalog().getPrimaryKey(mapped.getId()));
+    }
+
     /**
      * JUnit suite target
      */
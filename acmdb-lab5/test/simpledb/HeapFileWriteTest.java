@@ -1,11 +1,14 @@
 package simpledb;
 
+import java.util.ArrayList;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
 import static org.junit.Assert.*;
 import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SystemTestUtil;
 
 public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
     private TransactionId tid;
@@ -43,6 +46,119 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Unit test for HeapFile.close(): the file is reopened on the next
+     * access, and pages written before and after closing are read back.
+     */
+    @Test public void readWriteAfterClose() throws Exception {
+        HeapPageId pid0 = new HeapPageId(empty.getId(), 0);
+        HeapPage page = new HeapPage(pid0, HeapPage.createEmptyPageData());
+        page.insertTuple(Utility.getHeapTuple(1, 2));
+        empty.writePage(page);
+        empty.close();
+        assertEquals(page.getNumEmptySlots(),
+                ((HeapPage) empty.readPage(pid0)).getNumEmptySlots());
+
+        empty.close();
+        HeapPageId pid1 = new HeapPageId(empty.getId(), 1);
+        empty.writePage(new HeapPage(pid1, HeapPage.createEmptyPageData()));
+        assertEquals(2, empty.numPages());
+        empty.close();
+        empty.close();
+        assertEquals(504, ((HeapPage) empty.readPage(pid1)).getNumEmptySlots());
+    }
+
+    /**
+     * Unit test for a memory-mapped HeapFile: pages written through the file
+     * are read back from the mapping, which follows the file as it grows.
+     */
+    @Test public void memoryMappedReads() throws Exception {
+        HeapFile mapped = new HeapFile(empty.getFile(), empty.getTupleDesc(), true);
+        assertTrue(mapped.isMemoryMapped());
+        for (int pgNo = 0; pgNo < 3; ++pgNo) {
+            HeapPageId pid = new HeapPageId(mapped.getId(), pgNo);
+            HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+            for (int i = 0; i <= pgNo; ++i)
+                page.insertTuple(Utility.getHeapTuple(i, 2));
+            mapped.writePage(page);
+            assertEquals(pgNo + 1, mapped.numPages());
+            for (int i = 0; i <= pgNo; ++i) {
+                HeapPage read = (HeapPage) mapped.readPage(new HeapPageId(mapped.getId(), i));
+                assertEquals(504 - i - 1, read.getNumEmptySlots());
+            }
+        }
+
+        // rewriting a page that is already mapped
+        HeapPageId pid0 = new HeapPageId(mapped.getId(), 0);
+        mapped.writePage(new HeapPage(pid0, HeapPage.createEmptyPageData()));
+        assertEquals(504, ((HeapPage) mapped.readPage(pid0)).getNumEmptySlots());
+        mapped.close();
+        assertEquals(504 - 3, ((HeapPage) mapped.readPage(
+                new HeapPageId(mapped.getId(), 2))).getNumEmptySlots());
+    }
+
+    /**
+     * Unit test for HeapFile.writePages(): pages given out of order, with
+     * gaps and runs of adjacent pages, all end up in place.
+     */
+    @Test public void writePages() throws Exception {
+        int[] pgNos = { 5, 1, 0, 6, 2, 9 };
+        ArrayList<Page> pages = new ArrayList<Page>();
+        for (int pgNo : pgNos) {
+            HeapPage page = new HeapPage(new HeapPageId(empty.getId(), pgNo),
+                    HeapPage.createEmptyPageData());
+            for (int i = 0; i <= pgNo; ++i)
+                page.insertTuple(Utility.getHeapTuple(i, 2));
+            pages.add(page);
+        }
+        empty.writePages(pages);
+        assertEquals(10, empty.numPages());
+        for (int pgNo = 0; pgNo < 10; ++pgNo) {
+            HeapPage read = (HeapPage) empty.readPage(new HeapPageId(empty.getId(), pgNo));
+            boolean written = false;
+            for (int n : pgNos)
+                written |= n == pgNo;
+            assertEquals(written ? 504 - pgNo - 1 : 504, read.getNumEmptySlots());
+        }
+    }
+
+    /**
+     * Unit test for the free space map of HeapFile: once the full pages are
+     * known, inserts neither read nor lock them, also after the file is
+     * opened afresh.
+     */
+    @Test public void freeSpaceMap() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 3 + 1, null, null);
+        HeapPageId first = new HeapPageId(hf.getId(), 0);
+        HeapPageId last = new HeapPageId(hf.getId(), 3);
+
+        // nothing is known about pages written by HeapFileEncoder, so the
+        // first insert looks at the full pages once
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId t = new TransactionId();
+        bp.insertTuple(t, hf.getId(), Utility.getHeapTuple(1, 2));
+        assertFalse(bp.holdsLock(t, first));
+        assertTrue(bp.holdsLock(t, last));
+        bp.transactionComplete(t);
+
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        t = new TransactionId();
+        bp.insertTuple(t, hf.getId(), Utility.getHeapTuple(2, 2));
+        assertFalse(bp.isResident(first));
+        assertTrue(bp.isResident(last));
+        bp.transactionComplete(t);
+
+        HeapFile reopened = new HeapFile(hf.getFile(), hf.getTupleDesc());
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        t = new TransactionId();
+        bp.insertTuple(t, reopened.getId(), Utility.getHeapTuple(3, 2));
+        assertFalse(bp.isResident(first));
+        assertTrue(bp.isResident(last));
+        bp.transactionComplete(t);
+        assertEquals(4, reopened.numPages());
+    }
+
     /**
      * JUnit suite target
      */
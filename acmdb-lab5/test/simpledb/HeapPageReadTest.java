@@ -10,8 +10,11 @@ import java.util.*;
 
 import org.junit.Before;
 import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
@@ -120,6 +123,25 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Tuples are only decoded once the iterator reaches them, and a page
+     * serializes to its original image either way.
+     */
+    @Test public void lazyDecoding() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        assertEquals(484, page.getNumEmptySlots());
+        assertArrayEquals(EXAMPLE_DATA, page.getPageData());
+        for (int i = 0; i < 20; ++i)
+            assertNull(page.tuples[i]);
+
+        Iterator<Tuple> it = page.iterator();
+        Tuple first = it.next();
+        assertSame(first, page.tuples[0]);
+        assertNull(page.tuples[1]);
+        assertSame(first, page.iterator().next());
+        assertArrayEquals(EXAMPLE_DATA, page.getPageData());
+    }
+
     /**
      * JUnit suite target
      */
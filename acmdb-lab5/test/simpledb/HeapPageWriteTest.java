@@ -1,9 +1,12 @@
 package simpledb;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 
@@ -126,6 +129,47 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.getPageData() after changes: the image is kept
+     * up to date in place, and arrays handed out earlier, the before image
+     * and the array the page was read from stay as they were.
+     */
+    @Test public void pageDataInPlace() throws Exception {
+        byte[] original = HeapPageReadTest.EXAMPLE_DATA.clone();
+        HeapPage page = new HeapPage(pid, original);
+        byte[] before = page.getPageData();
+        page.setBeforeImage();
+
+        Tuple addition = Utility.getHeapTuple(7, 2);
+        page.insertTuple(addition);
+        Tuple victim = page.iterator().next();
+        page.deleteTuple(victim);
+        byte[] after = page.getPageData();
+
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, original);
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, before);
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, page.getBeforeImage().getPageData());
+        assertFalse(Arrays.equals(before, after));
+        assertEquals(BufferPool.getPageSize(), after.length);
+
+        // the image reads back as the same page
+        HeapPage copy = new HeapPage(pid, after);
+        assertEquals(page.getNumEmptySlots(), copy.getNumEmptySlots());
+        assertFalse(copy.isSlotUsed(victim.getRecordId().tupleno()));
+        Iterator<Tuple> it = page.iterator();
+        Iterator<Tuple> copyIt = copy.iterator();
+        while (it.hasNext())
+            assertTrue(TestUtil.compareTuples(it.next(), copyIt.next()));
+        assertFalse(copyIt.hasNext());
+
+        // a deleted slot is cleared
+        int off = page.headerSize + addition.getRecordId().tupleno() * page.td.getSize();
+        assertEquals(7, page.getPageData()[off + 3]);
+        page.deleteTuple(addition);
+        for (int i = off; i < off + page.td.getSize(); ++i)
+            assertEquals(0, page.getPageData()[i]);
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,159 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class LockEscalationTest extends SimpleDbTestBase {
+    private static final int PAGES = 20;
+    private static final int TIMEOUT = 200;
+    private HeapFile hf;
+    private int tuplesPerPage;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuplesPerPage = BufferPool.getPageSize() * 8 / (Utility.getTupleDesc(2).getSize() * 8 + 1);
+        hf = SystemTestUtil.createRandomHeapFile(2, tuplesPerPage * PAGES, null, null);
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    private PageId page(int pgNo) {
+        return new HeapPageId(hf.getId(), pgNo);
+    }
+
+    private ArrayList<Tuple> scan(TransactionId tid) throws Exception {
+        ArrayList<Tuple> rows = new ArrayList<Tuple>();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            rows.add(it.next());
+        it.close();
+        return rows;
+    }
+
+    /**
+     * Page locks take intention locks on their table, which conflict with
+     * table locks of other transactions.
+     */
+    @Test public void intentionLocks() throws Exception {
+        LockManager lm = new LockManager();
+        LockManager.TableKey table = new LockManager.TableKey(hf.getId());
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+
+        assertTrue(lm.tryLock(t1, page(0), Permissions.READ_ONLY));
+        assertTrue(lm.holdsLock(t1, table));
+        assertFalse(lm.tryLock(t2, table, Permissions.READ_WRITE));
+        assertTrue(lm.tryLock(t2, table, Permissions.READ_ONLY));
+        // t2 reads the whole table without page locks
+        assertTrue(lm.holdsLock(t2, page(5)));
+        assertFalse(lm.isLocked((HeapPageId) page(5)));
+        // writing needs an exclusive intention on the table
+        assertFalse(lm.tryLock(t1, page(1), Permissions.READ_WRITE));
+        lm.relTrans(t2);
+        assertTrue(lm.tryLock(t1, page(1), Permissions.READ_WRITE));
+        assertFalse(lm.tryLock(t2, page(1), Permissions.READ_ONLY));
+        assertTrue(lm.tryLock(t2, page(2), Permissions.READ_ONLY));
+        lm.relTrans(t1);
+        lm.relTrans(t2);
+        assertEquals(0, lm.numLocks());
+    }
+
+    /**
+     * A transaction with too many page locks on a table holds a single
+     * table lock instead, unless that would conflict with another
+     * transaction.
+     */
+    @Test public void escalation() throws Exception {
+        LockManager lm = new LockManager();
+        lm.setEscalationThreshold(5);
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+
+        lm.getLock(t2, page(PAGES - 1), Permissions.READ_ONLY);
+        for (int i = 0; i < 10; ++i)
+            lm.getLock(t1, page(i), Permissions.READ_WRITE);
+        // t2's intention lock keeps t1 from locking the table exclusively
+        assertEquals(0, lm.getEscalations());
+        assertTrue(lm.isLocked((HeapPageId) page(9)));
+
+        lm.relTrans(t2);
+        for (int i = 10; i < 12; ++i)
+            lm.getLock(t1, page(i), Permissions.READ_ONLY);
+        assertEquals(1, lm.getEscalations());
+        // the table and nothing else
+        assertEquals(1, lm.numLocks());
+        assertEquals(10, lm.getWrittenPage(t1).size());
+        lm.getLock(t1, page(15), Permissions.READ_WRITE);
+        assertTrue(lm.getWrittenPage(t1).contains(page(15)));
+        assertFalse(lm.tryLock(t2, page(PAGES - 1), Permissions.READ_ONLY));
+        lm.relTrans(t1);
+        assertEquals(0, lm.numLocks());
+    }
+
+    /**
+     * A scan over more pages than the threshold ends up with a shared table
+     * lock, which lets others read but not write.
+     */
+    @Test public void scanEscalates() throws Exception {
+        bp.setEscalationThreshold(PAGES / 2);
+        TransactionId t1 = new TransactionId();
+        assertEquals(tuplesPerPage * PAGES, scan(t1).size());
+        assertEquals(1, bp.getEscalations());
+
+        TestUtil.LockGrabber reader = new TestUtil.LockGrabber(new TransactionId(),
+                page(0), Permissions.READ_ONLY);
+        TestUtil.LockGrabber writer = new TestUtil.LockGrabber(new TransactionId(),
+                page(1), Permissions.READ_WRITE);
+        reader.start();
+        writer.start();
+        Thread.sleep(TIMEOUT);
+        assertTrue(reader.acquired());
+        assertFalse(writer.acquired());
+        bp.transactionComplete(t1);
+        writer.join(5000);
+        assertTrue(writer.acquired());
+        bp.transactionComplete(reader.tid);
+        bp.transactionComplete(writer.tid);
+    }
+
+    /**
+     * Pages written after escalation to an exclusive table lock are still
+     * written at commit, and thrown away at abort.
+     */
+    @Test public void writesUnderTableLock() throws Exception {
+        bp.setEscalationThreshold(4);
+        for (boolean commit : new boolean[] { false, true }) {
+            TransactionId tid = new TransactionId();
+            for (int i = 0; i < PAGES; ++i) {
+                HeapPage pg = (HeapPage) bp.getPage(tid, page(i), Permissions.READ_WRITE);
+                bp.deleteTuple(tid, pg.iterator().next());
+            }
+            assertEquals(1, bp.getEscalations());
+            bp.transactionComplete(tid, commit);
+            int left = commit ? tuplesPerPage * PAGES - PAGES : tuplesPerPage * PAGES;
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            tid = new TransactionId();
+            assertEquals(left, scan(tid).size());
+            Database.getBufferPool().transactionComplete(tid);
+            bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            bp.setEscalationThreshold(4);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockEscalationTest.class);
+    }
+}
@@ -0,0 +1,123 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PageArenaTest extends SimpleDbTestBase {
+    private static final int PAGES = 8;
+    private HeapFile hf;
+    private ArrayList<ArrayList<Integer>> tuples;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        int tuplesPerPage = BufferPool.getPageSize() * 8 / (Utility.getTupleDesc(2).getSize() * 8 + 1);
+        hf = SystemTestUtil.createRandomHeapFile(2, tuplesPerPage * PAGES, null, tuples);
+        bp = Database.resetBufferPool(new BufferPool(PAGES * 2, new LruKPolicy(2, PAGES * 2), true));
+    }
+
+    /**
+     * Unit test for PageArena: frames are reused once freed, and storing
+     * into a full arena fails.
+     */
+    @Test public void frames() {
+        PageArena arena = new PageArena(2, 4);
+        PageId a = new HeapPageId(1, 0), b = new HeapPageId(1, 1), c = new HeapPageId(1, 2);
+        arena.store(a, new byte[] { 1, 2, 3, 4 });
+        arena.store(b, new byte[] { 5, 6, 7, 8 });
+        assertEquals(2, arena.size());
+        try {
+            arena.store(c, new byte[4]);
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        ByteBuffer frame = arena.frame(b);
+        assertEquals(4, frame.remaining());
+        assertEquals(5, frame.get(0));
+        assertTrue(arena.free(a));
+        assertFalse(arena.free(a));
+        assertNull(arena.frame(a));
+        arena.store(c, new byte[] { 9, 9, 9, 9 });
+        assertEquals(9, arena.frame(c).get(3));
+        assertEquals(8, arena.frame(b).get(3));
+    }
+
+    /**
+     * A transaction sees the same page object each time it asks for a page;
+     * once no transaction holds a lock on the page, it is back in its frame
+     * and decoded afresh.
+     */
+    @Test public void pagesPinnedByTransactions() throws Exception {
+        TransactionId tid = new TransactionId();
+        TransactionId other = new TransactionId();
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        Page first = bp.getPage(tid, pid, Permissions.READ_ONLY);
+        assertSame(first, bp.getPage(tid, pid, Permissions.READ_ONLY));
+        assertSame(first, bp.getPage(other, pid, Permissions.READ_ONLY));
+        bp.transactionComplete(tid);
+        assertSame(first, bp.getPage(other, pid, Permissions.READ_WRITE));
+        bp.transactionComplete(other);
+        assertTrue(bp.isResident(pid));
+
+        tid = new TransactionId();
+        Page again = bp.getPage(tid, pid, Permissions.READ_ONLY);
+        assertNotSame(first, again);
+        assertArrayEquals(first.getPageData(), again.getPageData());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Inserts and deletes go through the arena pool: committed changes are
+     * visible afterwards, aborted ones are not.
+     */
+    @Test public void insertDeleteCommitAbort() throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        Tuple victim = it.next();
+        it.close();
+        bp.deleteTuple(tid, victim);
+        bp.insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { 7, 7 }));
+        bp.transactionComplete(tid, false);
+        SystemTestUtil.matchTuples(hf, tuples);
+
+        tid = new TransactionId();
+        it = hf.iterator(tid);
+        it.open();
+        victim = it.next();
+        it.close();
+        bp.deleteTuple(tid, victim);
+        bp.insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { 7, 7 }));
+        bp.transactionComplete(tid, true);
+        tuples.remove(SystemTestUtil.tupleToList(victim));
+        ArrayList<Integer> inserted = new ArrayList<Integer>();
+        inserted.add(7);
+        inserted.add(7);
+        tuples.add(inserted);
+        SystemTestUtil.matchTuples(hf, tuples);
+
+        // and again from disk
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageArenaTest.class);
+    }
+}
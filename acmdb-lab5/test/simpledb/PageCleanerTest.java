@@ -0,0 +1,134 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SystemTestUtil;
+
+public class PageCleanerTest extends TestUtil.CreateHeapFile {
+    private static final int PAGES = 4;
+    private BufferPool bp;
+    private TransactionId tid;
+    private int tuplesPerPage;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp.setSteal(true);
+        tid = new TransactionId();
+        tuplesPerPage = BufferPool.getPageSize() * 8 / (empty.getTupleDesc().getSize() * 8 + 1);
+        for (int i = 0; i < tuplesPerPage * PAGES; ++i)
+            bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+    }
+
+    @After public void tearDown() throws Exception {
+        bp.stopPageCleaner();
+    }
+
+    private void waitUntilClean() throws InterruptedException {
+        bp.startPageCleaner(5, 1, 0.01, 0.0);
+        for (int i = 0; i < 1000 && bp.dirtyRatio() > 0; ++i)
+            Thread.sleep(5);
+        // a write in progress holds the buffer pool, wait for it to finish
+        bp.stopPageCleaner();
+        assertEquals(0.0, bp.dirtyRatio(), 0.0);
+    }
+
+    private int tuplesOnDisk() throws Exception {
+        int count = 0;
+        for (int i = 0; i < empty.numPages(); ++i) {
+            HeapPage p = (HeapPage) empty.readPage(new HeapPageId(empty.getId(), i));
+            count += tuplesPerPage - p.getNumEmptySlots();
+        }
+        return count;
+    }
+
+    /**
+     * The cleaner writes the dirty pages of a running transaction, and they
+     * stay on disk when it commits.
+     */
+    @Test public void cleanedPagesSurviveCommit() throws Exception {
+        assertEquals(0, tuplesOnDisk());
+        waitUntilClean();
+        assertEquals(tuplesPerPage * PAGES, tuplesOnDisk());
+
+        bp.transactionComplete(tid, true);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId reader = new TransactionId();
+        DbFileIterator it = empty.iterator(reader);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            ++count;
+        }
+        it.close();
+        assertEquals(tuplesPerPage * PAGES, count);
+        Database.getBufferPool().transactionComplete(reader);
+    }
+
+    /**
+     * Pages written ahead by the cleaner are restored if the transaction
+     * aborts.
+     */
+    @Test public void cleanedPagesRolledBackOnAbort() throws Exception {
+        waitUntilClean();
+        assertEquals(tuplesPerPage * PAGES, tuplesOnDisk());
+
+        bp.transactionComplete(tid, false);
+        assertEquals(0, tuplesOnDisk());
+        SystemTestUtil.matchTuples(empty, new ArrayList<ArrayList<Integer>>());
+    }
+
+    /**
+     * Nothing is written while the pool stays below the high watermark.
+     */
+    @Test public void idleBelowHighWatermark() throws Exception {
+        bp.startPageCleaner(5, 16, 0.99, 0.5);
+        Thread.sleep(100);
+        assertEquals(0, tuplesOnDisk());
+        bp.transactionComplete(tid, true);
+        assertEquals(tuplesPerPage * PAGES, tuplesOnDisk());
+    }
+
+    /**
+     * In NO STEAL mode the pages of running transactions stay in the pool.
+     */
+    @Test public void noStealWritesNothing() throws Exception {
+        bp.setSteal(false);
+        assertEquals(0, bp.cleanPages(16));
+        bp.startPageCleaner(5, 16, 0.01, 0.0);
+        Thread.sleep(100);
+        assertEquals(0, tuplesOnDisk());
+        bp.transactionComplete(tid, true);
+        assertEquals(tuplesPerPage * PAGES, tuplesOnDisk());
+    }
+
+    /**
+     * Pages with uncommitted row changes are not written, nor counted.
+     */
+    @Test public void rowChangesNotCounted() throws Exception {
+        bp.setRowLocking(true);
+        TransactionId t2 = new TransactionId();
+        bp.insertTuple(t2, empty.getId(), Utility.getHeapTuple(-1, 2));
+        assertEquals(PAGES, bp.cleanPages(16));
+        assertEquals(0, bp.cleanPages(16));
+        assertTrue(bp.dirtyRatio() > 0);
+        bp.transactionComplete(t2, false);
+        bp.transactionComplete(tid, true);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageCleanerTest.class);
+    }
+}
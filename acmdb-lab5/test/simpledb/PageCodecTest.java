@@ -0,0 +1,87 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class PageCodecTest extends SimpleDbTestBase {
+
+    private static final PageCodec[] CODECS = { new DeflatePageCodec(), new LzPageCodec() };
+
+    private static byte[] randomPage(long seed, int distinct) {
+        byte[] page = new byte[BufferPool.getPageSize()];
+        Random r = new Random(seed);
+        for (int i = 0; i < page.length; ++i)
+            page[i] = (byte) r.nextInt(distinct);
+        return page;
+    }
+
+    private static void roundTrip(byte[] page) throws IOException {
+        for (PageCodec codec : CODECS) {
+            byte[] compressed = codec.compress(page);
+            assertArrayEquals(codec.getClass().getName(), page, codec.decompress(compressed, page.length));
+        }
+    }
+
+    /**
+     * Page images of every kind survive compression unchanged.
+     */
+    @Test public void roundTrips() throws Exception {
+        roundTrip(HeapPage.createEmptyPageData());
+        roundTrip(HeapPageReadTest.EXAMPLE_DATA);
+        roundTrip(randomPage(1, 256));
+        roundTrip(randomPage(2, 3));
+        byte[] repeated = new byte[BufferPool.getPageSize()];
+        for (int i = 0; i < repeated.length; ++i)
+            repeated[i] = (byte) (i % 7 == 0 ? i : 42);
+        roundTrip(repeated);
+    }
+
+    /**
+     * Empty and sparse pages shrink to a small fraction of their size.
+     */
+    @Test public void compresses() throws Exception {
+        for (PageCodec codec : CODECS) {
+            assertTrue(codec.compress(HeapPage.createEmptyPageData()).length < 64);
+            assertTrue(codec.compress(HeapPageReadTest.EXAMPLE_DATA).length
+                    < HeapPageReadTest.EXAMPLE_DATA.length / 4);
+        }
+    }
+
+    /**
+     * Damaged or truncated input is reported, not returned as a page.
+     */
+    @Test public void corruptInput() throws Exception {
+        byte[] page = randomPage(3, 16);
+        for (PageCodec codec : CODECS) {
+            byte[] compressed = codec.compress(page);
+            try {
+                codec.decompress(Arrays.copyOf(compressed, compressed.length / 2), page.length);
+                fail(codec.getClass().getName() + " decompressed a truncated page");
+            } catch (IOException e) {
+                // expected
+            }
+            try {
+                codec.decompress(compressed, page.length * 2);
+                fail(codec.getClass().getName() + " decompressed a page of the wrong size");
+            } catch (IOException e) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageCodecTest.class);
+    }
+}
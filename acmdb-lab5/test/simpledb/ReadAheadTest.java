@@ -0,0 +1,81 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ReadAheadTest extends SimpleDbTestBase {
+    private static final int PAGES = 40;
+    private HeapFile hf;
+    private ArrayList<ArrayList<Integer>> tuples;
+    private int tuplesPerPage;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuplesPerPage = BufferPool.getPageSize() * 8 / (Utility.getTupleDesc(2).getSize() * 8 + 1);
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(2, tuplesPerPage * PAGES, null, tuples);
+    }
+
+    /**
+     * Unit test for BufferPool.prefetchPage(): the page becomes resident
+     * without the caller taking a lock on it.
+     */
+    @Test public void prefetchLoadsWithoutLocking() throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        HeapPageId pid = new HeapPageId(hf.getId(), 3);
+        assertFalse(bp.isResident(pid));
+        assertTrue(bp.prefetchPage(pid).get());
+        assertTrue(bp.isResident(pid));
+
+        TransactionId tid = new TransactionId();
+        assertFalse(bp.holdsLock(tid, pid));
+        bp.getPage(tid, pid, Permissions.READ_ONLY);
+        assertTrue(bp.holdsLock(tid, pid));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Read-ahead never evicts a dirty page.
+     */
+    @Test public void prefetchSkipsFullDirtyPool() throws Exception {
+        BufferPool bp = Database.resetBufferPool(4);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 4; ++i) {
+            HeapPage pg = (HeapPage) bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_WRITE);
+            pg.markDirty(true, tid);
+        }
+        HeapPageId pid = new HeapPageId(hf.getId(), 10);
+        assertFalse(bp.prefetchPage(pid).get());
+        assertFalse(bp.isResident(pid));
+        for (int i = 0; i < 4; ++i)
+            assertTrue(bp.isResident(new HeapPageId(hf.getId(), i)));
+        bp.transactionComplete(tid, false);
+    }
+
+    /**
+     * A scan through a pool smaller than the table reads every tuple exactly
+     * once, with pages read ahead of it.
+     */
+    @Test public void scanLargerThanPool() throws Exception {
+        Database.resetBufferPool(PAGES / 4);
+        SystemTestUtil.matchTuples(hf, tuples);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReadAheadTest.class);
+    }
+}
@@ -0,0 +1,178 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.function.Predicate;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+
+    private static final Predicate<PageId> ANY = new Predicate<PageId>() {
+        public boolean test(PageId pid) {
+            return true;
+        }
+    };
+
+    private static PageId pid(int pgNo) {
+        return new HeapPageId(1, pgNo);
+    }
+
+    /**
+     * Unit test for ClockPolicy: a page that was hit since the last sweep
+     * gets a second chance.
+     */
+    @Test public void clockSecondChance() {
+        ClockPolicy clock = new ClockPolicy(3);
+        clock.pageLoaded(pid(0));
+        clock.pageLoaded(pid(1));
+        clock.pageLoaded(pid(2));
+
+        // every page was just loaded: the first sweep clears all bits
+        assertEquals(pid(0), clock.chooseVictim(ANY));
+        clock.pageRemoved(pid(0));
+
+        clock.pageAccessed(pid(1));
+        assertEquals(pid(2), clock.chooseVictim(ANY));
+        clock.pageRemoved(pid(2));
+
+        // the freed frames are reused
+        clock.pageLoaded(pid(3));
+        assertEquals(pid(1), clock.chooseVictim(ANY));
+    }
+
+    /**
+     * Unit test for LruKPolicy: pages referenced fewer than K times are
+     * evicted before pages referenced K times, whatever their recency.
+     */
+    @Test public void lruKPrefersOnceReferencedPages() {
+        LruKPolicy lru2 = new LruKPolicy(2, 10);
+        lru2.pageLoaded(pid(0));
+        lru2.pageAccessed(pid(0));
+        lru2.pageLoaded(pid(1));
+        lru2.pageAccessed(pid(1));
+        // a "scan" over pages 2..4
+        lru2.pageLoaded(pid(2));
+        lru2.pageLoaded(pid(3));
+        lru2.pageLoaded(pid(4));
+
+        for (int i = 2; i <= 4; ++i) {
+            assertEquals(pid(i), lru2.chooseVictim(ANY));
+            lru2.pageRemoved(pid(i));
+        }
+        assertEquals(pid(0), lru2.chooseVictim(ANY));
+    }
+
+    /**
+     * Unit test for LruKPolicy: the history of an evicted page survives a
+     * reload.
+     */
+    @Test public void lruKRetainsHistory() {
+        LruKPolicy lru2 = new LruKPolicy(2, 10);
+        lru2.pageLoaded(pid(0));
+        lru2.pageLoaded(pid(1));
+        lru2.pageRemoved(pid(0));
+        lru2.pageLoaded(pid(0));
+        // page 0 now has two references, page 1 only one
+        assertEquals(pid(1), lru2.chooseVictim(ANY));
+    }
+
+    /**
+     * Unit test for LruKPolicy with K = 1, which is LRU.
+     */
+    @Test public void lru1IsLru() {
+        LruKPolicy lru = new LruKPolicy(1, 10);
+        lru.pageLoaded(pid(0));
+        lru.pageLoaded(pid(1));
+        lru.pageLoaded(pid(2));
+        lru.pageAccessed(pid(0));
+        assertEquals(pid(1), lru.chooseVictim(ANY));
+    }
+
+    /**
+     * Unevictable pages are skipped, and null is returned if nothing is left.
+     */
+    @Test public void skipsUnevictablePages() {
+        final PageId pinned = pid(0);
+        Predicate<PageId> notPinned = new Predicate<PageId>() {
+            public boolean test(PageId pid) {
+                return !pid.equals(pinned);
+            }
+        };
+        ReplacementPolicy[] policies = { new ClockPolicy(2), new LruKPolicy(2, 2) };
+        for (ReplacementPolicy p : policies) {
+            p.pageLoaded(pid(0));
+            p.pageLoaded(pid(1));
+            assertEquals(pid(1), p.chooseVictim(notPinned));
+            p.pageRemoved(pid(1));
+            assertNull(p.chooseVictim(notPinned));
+        }
+    }
+
+    @Test public void createPolicy() {
+        assertTrue(BufferPool.createPolicy("clock", 4) instanceof ClockPolicy);
+        assertTrue(BufferPool.createPolicy("LRU-2", 4) instanceof LruKPolicy);
+        try {
+            BufferPool.createPolicy("lru-x", 4);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * With LRU-2, pages that are looked up repeatedly stay resident while a
+     * table larger than the pool is scanned.
+     */
+    @Test public void hotPagesSurviveScan() throws Exception {
+        HeapFile hot = SystemTestUtil.createRandomHeapFile(2, 504 * 4, null, null);
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 504 * 30, null, null);
+        BufferPool bp = Database.resetBufferPool(10, new LruKPolicy(2, 10));
+        TransactionId tid = new TransactionId();
+
+        for (int round = 0; round < 2; ++round)
+            for (int i = 0; i < hot.numPages(); ++i)
+                bp.getPage(tid, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY);
+
+        DbFileIterator it = big.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            it.next();
+        it.close();
+
+        // the hot pages must be hits: reading them would throw
+        Database.getCatalog().addTable(new TestUtil.SkeletonFile(hot.getId(), hot.getTupleDesc()));
+        for (int i = 0; i < hot.numPages(); ++i)
+            bp.getPage(tid, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY);
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for LruKPolicy: reading a page ahead and then requesting it
+     * is a single reference.
+     */
+    @Test public void lruKPrefetchIsNotAReference() {
+        LruKPolicy lru2 = new LruKPolicy(2, 10);
+        lru2.pageLoaded(pid(0));
+        lru2.pageAccessed(pid(0));
+        lru2.pagePrefetched(pid(1));
+        lru2.pageAccessed(pid(1));
+        assertEquals(pid(1), lru2.chooseVictim(ANY));
+
+        // the second request is a second reference
+        lru2.pageAccessed(pid(1));
+        assertEquals(pid(0), lru2.chooseVictim(ANY));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
@@ -0,0 +1,211 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class RowLockingTest extends SimpleDbTestBase {
+    /** How long a blocked operation is given before it is taken as waiting */
+    private static final int TIMEOUT = 200;
+    private HeapFile hf;
+    private BufferPool bp;
+    private ArrayList<Tuple> all;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createRandomHeapFile(2, 100, null, null);
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp.setRowLocking(true);
+        TransactionId tid = new TransactionId();
+        all = scan(tid);
+        bp.transactionComplete(tid);
+    }
+
+    private ArrayList<Tuple> scan(TransactionId tid) throws Exception {
+        ArrayList<Tuple> rows = new ArrayList<Tuple>();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            rows.add(it.next());
+        it.close();
+        return rows;
+    }
+
+    /** Runs an operation of a transaction in a thread of its own */
+    private abstract static class Worker extends Thread {
+        final TransactionId tid;
+        volatile boolean done;
+        volatile Exception error;
+
+        Worker(TransactionId tid) {
+            this.tid = tid;
+        }
+
+        abstract void work() throws Exception;
+
+        public void run() {
+            try {
+                work();
+            } catch (Exception e) {
+                error = e;
+                try {
+                    Database.getBufferPool().transactionComplete(tid, false);
+                } catch (java.io.IOException e2) {
+                    e2.printStackTrace();
+                }
+            }
+            done = true;
+        }
+    }
+
+    private Worker delete(TransactionId tid, final Tuple t) {
+        Worker w = new Worker(tid) {
+            void work() throws Exception {
+                Database.getBufferPool().deleteTuple(tid, t);
+            }
+        };
+        w.start();
+        return w;
+    }
+
+    /**
+     * Two transactions change different rows of the same page without
+     * waiting for each other.  A commit writes only its own changes, and an
+     * abort takes back only its own.
+     */
+    @Test public void writersShareAPage() throws Exception {
+        Tuple a = all.get(0), b = all.get(1);
+        assertEquals(a.getRecordId().getPageId(), b.getRecordId().getPageId());
+        HeapPageId pid = (HeapPageId) a.getRecordId().getPageId();
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+
+        bp.deleteTuple(t1, a);
+        Worker w = delete(t2, b);
+        w.join(5000);
+        assertTrue(w.done);
+        assertNull(w.error);
+        Tuple c = Utility.getHeapTuple(new int[] { -1, -1 });
+        bp.insertTuple(t2, hf.getId(), c);
+        // the slot t1 emptied stays free until t1 completes
+        assertFalse(a.getRecordId().equals(c.getRecordId()));
+
+        bp.transactionComplete(t1);
+        HeapPage onDisk = (HeapPage) hf.readPage(pid);
+        assertFalse(onDisk.isSlotUsed(a.getRecordId().tupleno()));
+        assertTrue(onDisk.isSlotUsed(b.getRecordId().tupleno()));
+        assertFalse(onDisk.isSlotUsed(c.getRecordId().tupleno()));
+
+        bp.transactionComplete(t2, false);
+        TransactionId t3 = new TransactionId();
+        ArrayList<Tuple> left = scan(t3);
+        bp.transactionComplete(t3);
+        assertEquals(all.size() - 1, left.size());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES).setRowLocking(true);
+        t3 = new TransactionId();
+        assertEquals(all.size() - 1, scan(t3).size());
+        Database.getBufferPool().transactionComplete(t3);
+    }
+
+    /**
+     * A transaction that deletes a row another one has deleted waits for it
+     * to complete, and then finds the row gone.
+     */
+    @Test public void sameRowWaits() throws Exception {
+        Tuple a = all.get(0);
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        bp.deleteTuple(t1, a);
+        Worker w = delete(t2, a);
+        Thread.sleep(TIMEOUT);
+        assertFalse(w.done);
+        bp.transactionComplete(t1);
+        w.join(5000);
+        assertTrue(w.done);
+        assertTrue(w.error instanceof DbException);
+    }
+
+    /**
+     * A scan waits for a row deleted by a transaction that has not completed
+     * yet, and returns it if that transaction aborts.
+     */
+    @Test public void scanWaitsForUncommittedDelete() throws Exception {
+        TransactionId t1 = new TransactionId();
+        final TransactionId t2 = new TransactionId();
+        bp.deleteTuple(t1, all.get(3));
+        final ArrayList<Tuple> seen = new ArrayList<Tuple>();
+        Worker w = new Worker(t2) {
+            void work() throws Exception {
+                seen.addAll(scan(t2));
+            }
+        };
+        w.start();
+        Thread.sleep(TIMEOUT);
+        assertFalse(w.done);
+        bp.transactionComplete(t1, false);
+        w.join(5000);
+        assertTrue(w.done);
+        assertNull(w.error);
+        assertEquals(all.size(), seen.size());
+        bp.transactionComplete(t2);
+    }
+
+    /**
+     * Whole-page operations still wait for the transactions changing rows of
+     * the page.
+     */
+    @Test public void pageLockWaitsForRows() throws Exception {
+        final HeapPageId pid = (HeapPageId) all.get(0).getRecordId().getPageId();
+        TransactionId t1 = new TransactionId();
+        bp.deleteTuple(t1, all.get(0));
+        Worker w = new Worker(new TransactionId()) {
+            void work() throws Exception {
+                Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+            }
+        };
+        w.start();
+        Thread.sleep(TIMEOUT);
+        assertFalse(w.done);
+        bp.transactionComplete(t1);
+        w.join(5000);
+        assertTrue(w.done);
+        assertNull(w.error);
+        bp.transactionComplete(w.tid);
+    }
+
+    /**
+     * A deadlock over rows is found like one over pages: one of the
+     * transactions is aborted and the other goes on.
+     */
+    @Test public void rowDeadlock() throws Exception {
+        Tuple a = all.get(0), b = all.get(1);
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        bp.deleteTuple(t1, a);
+        bp.deleteTuple(t2, b);
+        Worker w1 = delete(t1, b);
+        Worker w2 = delete(t2, a);
+        w1.join(5000);
+        w2.join(5000);
+        assertTrue(w1.done && w2.done);
+        assertTrue(w1.error instanceof TransactionAbortedException
+                || w2.error instanceof TransactionAbortedException);
+        bp.transactionComplete(t1, w1.error == null);
+        bp.transactionComplete(t2, w2.error == null);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(RowLockingTest.class);
+    }
+}
@@ -0,0 +1,145 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SlottedPageTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+
+    private HeapPageId pid;
+
+    @Before public void addTable() throws Exception {
+        this.pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, TD), SystemTestUtil.getUUID());
+    }
+
+    private static Tuple tuple(int i, String s) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField(s, Type.STRING_LEN));
+        return t;
+    }
+
+    private static ArrayList<String> contents(SlottedPage page) {
+        ArrayList<String> rows = new ArrayList<String>();
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext())
+            rows.add(it.next().toString());
+        return rows;
+    }
+
+    /**
+     * Tuples take only the bytes of their strings, so far more of them fit
+     * on a page than on a HeapPage.
+     */
+    @Test public void fillWithShortStrings() throws Exception {
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        assertEquals(0, page.getNumTuples());
+        assertFalse(page.iterator().hasNext());
+
+        int n = 0;
+        try {
+            while (true) {
+                Tuple t = tuple(n, "c" + (n % 10));
+                page.insertTuple(t);
+                assertEquals(new RecordId(pid, n), t.getRecordId());
+                ++n;
+            }
+        } catch (DbException e) {
+            // the page is full
+        }
+        // 4 bytes of directory plus 4 + 4 + 2 bytes of tuple each
+        assertEquals((BufferPool.getPageSize() - SlottedPage.HEADER_SIZE) / 14, n);
+        int heapPageTuples = BufferPool.getPageSize() * 8 / (TD.getSize() * 8 + 1);
+        assertTrue(n > 5 * heapPageTuples);
+        assertEquals(n, page.getNumTuples());
+        assertTrue(page.getFreeSpace() < 14);
+    }
+
+    /**
+     * A page read back from its image has the same tuples in the same slots.
+     */
+    @Test public void roundTrip() throws Exception {
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        for (int i = 0; i < 50; ++i)
+            page.insertTuple(tuple(i, i % 3 == 0 ? "" : "value " + i));
+        SlottedPage copy = new SlottedPage(pid, page.getPageData());
+        assertEquals(contents(page), contents(copy));
+        assertEquals(page.getFreeSpace(), copy.getFreeSpace());
+
+        // a page with undecoded tuples writes the same image
+        assertArrayEquals(page.getPageData(), copy.getPageData());
+
+        Tuple t = copy.iterator().next();
+        assertEquals(new RecordId(pid, 0), t.getRecordId());
+        assertEquals("0\t", t.toString());
+    }
+
+    /**
+     * Deleting a tuple frees its bytes and its slot; the other tuples keep
+     * their slots, and the next insert reuses the freed slot.
+     */
+    @Test public void deleteAndReuse() throws Exception {
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        Tuple[] tuples = new Tuple[3];
+        for (int i = 0; i < tuples.length; ++i) {
+            tuples[i] = tuple(i, "some longer string " + i);
+            page.insertTuple(tuples[i]);
+        }
+        int free = page.getFreeSpace();
+        page.deleteTuple(tuples[1]);
+        assertEquals(free + tuples[1].getSize(), page.getFreeSpace());
+        assertFalse(page.isSlotUsed(1));
+
+        page = new SlottedPage(pid, page.getPageData());
+        assertTrue(page.isSlotUsed(2));
+        assertEquals("2\tsome longer string 2", contents(page).get(1));
+
+        Tuple t = tuple(9, "x");
+        page.insertTuple(t);
+        assertEquals(1, t.getRecordId().tupleno());
+
+        // deleting the last slot shrinks the directory
+        free = page.getFreeSpace();
+        Iterator<Tuple> it = page.iterator();
+        it.next();
+        it.next();
+        page.deleteTuple(it.next());
+        assertEquals(free + tuples[2].getSize() + SlottedPage.SLOT_SIZE, page.getFreeSpace());
+
+        try {
+            page.deleteTuple(tuples[2]);
+            fail("deleted an empty slot");
+        } catch (DbException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Tuple sizes depend on their strings.
+     */
+    @Test public void tupleSize() {
+        assertEquals(4 + 4, tuple(1, "").getSize());
+        assertEquals(4 + 4 + 5, tuple(1, "hello").getSize());
+        assertEquals(TD.getSize(), tuple(1, new String(new char[Type.STRING_LEN])).getSize());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedPageTest.class);
+    }
+}
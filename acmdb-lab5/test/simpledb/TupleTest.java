@@ -1,6 +1,9 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Test;
@@ -29,6 +32,46 @@ public class TupleTest extends SimpleDbTestBase {
         assertEquals(new IntField(37), tup.getField(1));
     }
 
+    /**
+     * Unit test for the typed accessors: getInt(), setInt(), copyField()
+     * and compareField(), on ints and on other fields alike.
+     */
+    @Test public void typedAccessors() {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE });
+        Tuple tup = new Tuple(td);
+        assertNull(tup.getField(0));
+        assertNull(tup.getField(1));
+
+        tup.setInt(0, 42);
+        tup.setField(1, new StringField("abc", Type.STRING_LEN));
+        tup.setField(2, new IntField(-7));
+        assertEquals(42, tup.getInt(0));
+        assertEquals(new IntField(42), tup.getField(0));
+        assertEquals(-7, tup.getInt(2));
+        assertEquals(new StringField("abc", Type.STRING_LEN), tup.getField(1));
+        assertEquals("42\tabc\t-7", tup.toString());
+        try {
+            tup.getInt(1);
+            throw new RuntimeException("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // explicitly ignored
+        }
+
+        assertTrue(tup.compareField(0, Predicate.Op.GREATER_THAN, new IntField(41)));
+        assertFalse(tup.compareField(2, Predicate.Op.EQUALS, new IntField(7)));
+        assertTrue(tup.compareField(0, Predicate.Op.GREATER_THAN, tup, 2));
+        assertTrue(tup.compareField(1, Predicate.Op.EQUALS, new StringField("abc", Type.STRING_LEN)));
+
+        Tuple copy = new Tuple(td);
+        for (int i = 0; i < td.numFields(); ++i)
+            tup.copyField(i, copy, i);
+        assertEquals(tup.toString(), copy.toString());
+
+        // a field can be set to null again
+        copy.setField(0, null);
+        assertNull(copy.getField(0));
+    }
+
     /**
      * Unit test for Tuple.getTupleDesc()
      */
@@ -0,0 +1,123 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class VacuumTest extends SimpleDbTestBase {
+    private static final int PAGES = 20;
+    private HeapFile hf;
+    private ArrayList<ArrayList<Integer>> tuples;
+    private int tuplesPerPage;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuplesPerPage = BufferPool.getPageSize() * 8 / (Utility.getTupleDesc(2).getSize() * 8 + 1);
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(2, tuplesPerPage * PAGES, null, tuples);
+    }
+
+    /**
+     * Deletes all but every keep-th tuple of the table, and returns the
+     * tuples that are left.
+     */
+    private ArrayList<ArrayList<Integer>> deleteMost(int keep) throws Exception {
+        ArrayList<ArrayList<Integer>> left = new ArrayList<ArrayList<Integer>>();
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        ArrayList<Tuple> doomed = new ArrayList<Tuple>();
+        int n = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (n++ % keep == 0)
+                left.add(SystemTestUtil.tupleToList(t));
+            else
+                doomed.add(t);
+        }
+        it.close();
+        for (Tuple t : doomed)
+            Database.getBufferPool().deleteTuple(tid, t);
+        Database.getBufferPool().transactionComplete(tid);
+        return left;
+    }
+
+    /**
+     * Vacuum packs the tuples that are left into as few pages as they need
+     * and cuts the rest off the file.
+     */
+    @Test public void compacts() throws Exception {
+        ArrayList<ArrayList<Integer>> left = deleteMost(10);
+        assertEquals(PAGES, hf.numPages());
+
+        Vacuum v = new Vacuum(hf);
+        int cut = v.run();
+        int needed = (left.size() + tuplesPerPage - 1) / tuplesPerPage;
+        assertEquals(needed, hf.numPages());
+        assertEquals(PAGES - needed, cut);
+        assertEquals(PAGES - needed, v.pagesTruncated());
+        assertEquals((long) needed * BufferPool.getPageSize(), hf.getFile().length());
+        SystemTestUtil.matchTuples(hf, left);
+
+        // a fresh pool reads the same tuples back from disk
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(hf, left);
+
+        // nothing left to do
+        assertEquals(0, new Vacuum(hf).run());
+    }
+
+    /**
+     * Inserts after a vacuum go into the pages that are left before the
+     * file grows again.
+     */
+    @Test public void insertAfterVacuum() throws Exception {
+        ArrayList<ArrayList<Integer>> left = deleteMost(3);
+        new Vacuum(hf, 1).run();
+        int numPages = hf.numPages();
+
+        TransactionId tid = new TransactionId();
+        Tuple t = new Tuple(hf.getTupleDesc());
+        t.setField(0, new IntField(-1));
+        t.setField(1, new IntField(-2));
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        Database.getBufferPool().transactionComplete(tid);
+        ArrayList<Integer> inserted = new ArrayList<Integer>();
+        inserted.add(-1);
+        inserted.add(-2);
+        left.add(inserted);
+
+        assertTrue(left.size() % tuplesPerPage != 0);
+        assertEquals(numPages, hf.numPages());
+        SystemTestUtil.matchTuples(hf, left);
+    }
+
+    /**
+     * The shell runs vacuum on <tt>VACUUM table</tt>.
+     */
+    @Test public void vacuumStatement() throws Exception {
+        Database.getCatalog().addTable(hf, "vac");
+        ArrayList<ArrayList<Integer>> left = deleteMost(20);
+        Parser p = new Parser();
+        assertTrue(p.processShellStatement("VACUUM   vac ;"));
+        assertTrue(hf.numPages() < PAGES);
+        SystemTestUtil.matchTuples(hf, left);
+        assertTrue(p.processShellStatement("vacuum nosuchtable"));
+        assertFalse(p.processShellStatement("select * from vac;"));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(VacuumTest.class);
+    }
+}
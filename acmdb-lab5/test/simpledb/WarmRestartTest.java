@@ -0,0 +1,146 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class WarmRestartTest extends SimpleDbTestBase {
+    private static final int PAGES = 20;
+    private HeapFile hf;
+    private File saved;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        int tuplesPerPage = BufferPool.getPageSize() * 8 / (Utility.getTupleDesc(2).getSize() * 8 + 1);
+        hf = SystemTestUtil.createRandomHeapFile(2, tuplesPerPage * PAGES, null, null);
+        saved = File.createTempFile("resident", ".set");
+        saved.delete();
+        saved.deleteOnExit();
+    }
+
+    @After public void tearDown() {
+        System.clearProperty(ResidentSetSaver.FILE_PROPERTY);
+    }
+
+    private HeapPageId pid(int pgNo) {
+        return new HeapPageId(hf.getId(), pgNo);
+    }
+
+    /** Reads pages 0..9 of the table, page i requested i + 1 times. */
+    private void touchPages(BufferPool bp) throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 10; ++i)
+            for (int n = 0; n <= i; ++n)
+                bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * A fresh pool preloads the saved pages, the most requested first when
+     * they do not all fit.
+     */
+    @Test public void saveAndWarmUp() throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        touchPages(bp);
+        bp.saveResidentSet(saved);
+
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp.warmUp(saved).get();
+        for (int i = 0; i < 10; ++i)
+            assertTrue(bp.isResident(pid(i)));
+        assertFalse(bp.isResident(pid(10)));
+
+        bp = Database.resetBufferPool(4);
+        bp.warmUp(saved).get();
+        for (int i = 0; i < 10; ++i)
+            assertEquals(i >= 6, bp.isResident(pid(i)));
+    }
+
+    /**
+     * Pages of a table that is added to the catalog after the warm up are
+     * preloaded when it is added.
+     */
+    @Test public void tableAddedLater() throws Exception {
+        touchPages(Database.getBufferPool());
+        Database.getBufferPool().saveResidentSet(saved);
+
+        Database.reset();
+        BufferPool bp = Database.getBufferPool();
+        bp.warmUp(saved).get();
+        assertFalse(bp.isResident(pid(0)));
+        HeapFile reopened = Utility.openHeapFile(2, hf.getFile());
+        assertEquals(hf.getId(), reopened.getId());
+        bp.warming().get();
+        for (int i = 0; i < 10; ++i)
+            assertTrue(bp.isResident(pid(i)));
+    }
+
+    /**
+     * Database preloads the file named by the property, and its saver
+     * writes the file again when it stops.
+     */
+    @Test public void databaseWarmsUp() throws Exception {
+        touchPages(Database.getBufferPool());
+        Database.getBufferPool().saveResidentSet(saved);
+
+        System.setProperty(ResidentSetSaver.FILE_PROPERTY, saved.getPath());
+        Database.reset();
+        Utility.openHeapFile(2, hf.getFile());
+        Database.getBufferPool().warming().get();
+        assertTrue(Database.getBufferPool().isResident(pid(9)));
+
+        saved.delete();
+        System.clearProperty(ResidentSetSaver.FILE_PROPERTY);
+        Database.reset();
+        assertTrue(ResidentSetSaver.read(saved).containsKey(pid(9)));
+    }
+
+    /**
+     * Entries for tables and pages that no longer exist, and files that are
+     * not resident sets at all, are skipped.
+     */
+    @Test public void staleEntriesSkipped() throws Exception {
+        Map<PageId, Integer> accesses = new LinkedHashMap<PageId, Integer>();
+        accesses.put(pid(3), 5);
+        accesses.put(pid(PAGES), 8);
+        accesses.put(pid(PAGES + 100), 9);
+        accesses.put(new HeapPageId(hf.getId() + 1, 0), 7);
+        ResidentSetSaver.write(saved, accesses);
+
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp.warmUp(saved).get();
+        assertTrue(bp.isResident(pid(3)));
+        assertFalse(bp.isResident(pid(PAGES)));
+        assertFalse(bp.isResident(pid(PAGES + 100)));
+
+        // the unknown table is kept for a later save
+        bp.saveResidentSet(saved);
+        Map<PageId, Integer> again = ResidentSetSaver.read(saved);
+        assertEquals(Integer.valueOf(7), again.get(new HeapPageId(hf.getId() + 1, 0)));
+        assertTrue(again.containsKey(pid(3)));
+
+        Files.write(saved.toPath(), new byte[] { 1, 2, 3 });
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp.warmUp(saved).get();
+        assertFalse(bp.isResident(pid(3)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(WarmRestartTest.class);
+    }
+}
@@ -0,0 +1,100 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Compares a buffer pool that caches page objects on the heap with one that
+ * keeps clean pages in an off-heap {@link PageArena}-backed pool.  The pool
+ * is filled with a whole table, then a mix of random page lookups and short
+ * scans runs over it.  For each mode the benchmark prints the heap retained
+ * by the full pool and the garbage collections during the run.
+ * <p>
+ * Run with: java -Xmx512m -cp bin/src:bin/test
+ * simpledb.systemtest.ArenaBenchmark [pages]
+ */
+public class ArenaBenchmark {
+    private static final int ROUNDS = 20;
+    private static final int LOOKUPS_PER_ROUND = 2000;
+
+    public static void main(String[] args) throws Exception {
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : 4000;
+        int tuplesPerPage = BufferPool.getPageSize() * 8 / (Utility.getTupleDesc(2).getSize() * 8 + 1);
+        File file = SystemTestUtil.createRandomHeapFileUnopened(2, pages * tuplesPerPage, 1 << 16, null, null);
+
+        System.out.printf("%d-page table and pool, %d rounds of %d lookups + 1 scan of %d pages%n",
+                pages, ROUNDS, LOOKUPS_PER_ROUND, pages / 10);
+        System.out.printf("%-6s %14s %10s %12s %10s%n", "mode", "retained(MB)", "GCs", "GC time(ms)", "time(ms)");
+        for (boolean offHeap : new boolean[] { false, true }) {
+            Database.reset();
+            HeapFile table = new HeapFile(file, Utility.getTupleDesc(2));
+            Database.getCatalog().addTable(table, "t");
+            int poolPages = pages + 1;
+            BufferPool bp = Database.resetBufferPool(new BufferPool(poolPages,
+                    BufferPool.createPolicy(BufferPool.DEFAULT_POLICY, poolPages), offHeap));
+
+            TransactionId tid = new TransactionId();
+            scan(table, tid);
+            bp.transactionComplete(tid);
+            long retained = usedHeapAfterGc();
+
+            long gcs = gcCount(), gcMillis = gcMillis();
+            long start = System.currentTimeMillis();
+            Random r = new Random(42);
+            long sum = 0;
+            for (int round = 0; round < ROUNDS; ++round) {
+                tid = new TransactionId();
+                for (int i = 0; i < LOOKUPS_PER_ROUND; ++i) {
+                    HeapPage p = (HeapPage) bp.getPage(tid,
+                            new HeapPageId(table.getId(), r.nextInt(pages)), Permissions.READ_ONLY);
+                    sum += p.getNumEmptySlots();
+                }
+                int first = r.nextInt(pages - pages / 10);
+                for (int pgNo = first; pgNo < first + pages / 10; ++pgNo) {
+                    HeapPage p = (HeapPage) bp.getPage(tid,
+                            new HeapPageId(table.getId(), pgNo), Permissions.READ_ONLY);
+                    Iterator<Tuple> it = p.iterator();
+                    while (it.hasNext())
+                        sum += ((IntField) it.next().getField(0)).getValue();
+                }
+                bp.transactionComplete(tid);
+            }
+            long elapsed = System.currentTimeMillis() - start;
+            System.out.printf("%-6s %14.1f %10d %12d %10d  (checksum %d)%n", offHeap ? "arena" : "heap",
+                    retained / (1024.0 * 1024.0), gcCount() - gcs, gcMillis() - gcMillis, elapsed, sum);
+        }
+    }
+
+    private static void scan(HeapFile table, TransactionId tid) throws Exception {
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            it.next();
+        it.close();
+    }
+
+    private static long usedHeapAfterGc() {
+        for (int i = 0; i < 3; ++i)
+            System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static long gcCount() {
+        long n = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            n += gc.getCollectionCount();
+        return n;
+    }
+
+    private static long gcMillis() {
+        long n = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            n += gc.getCollectionTime();
+        return n;
+    }
+}
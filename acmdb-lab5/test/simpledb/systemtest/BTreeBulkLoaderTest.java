@@ -0,0 +1,145 @@
+package simpledb.systemtest;
+
+import simpledb.*;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BTreeBulkLoaderTest extends SimpleDbTestBase {
+	private TransactionId tid;
+	private File bFile;
+
+	@Before
+	public void setUp() throws Exception {
+		tid = new TransactionId();
+		bFile = File.createTempFile("bulk", ".dat");
+		bFile.deleteOnExit();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Database.getBufferPool().transactionComplete(tid);
+
+		// set the page size back to the default
+		BufferPool.resetPageSize();
+		Database.reset();
+	}
+
+	/**
+	 * @return an opened iterator over rows random 2-field tuples, which are
+	 *         also added to tuples
+	 */
+	private static DbIterator randomTuples(int rows, int maxValue, ArrayList<ArrayList<Integer>> tuples) {
+		Random r = new Random(rows);
+		ArrayList<Tuple> input = new ArrayList<Tuple>();
+		for (int i = 0; i < rows; ++i) {
+			int[] values = { r.nextInt(maxValue), i };
+			input.add(Utility.getHeapTuple(values));
+			ArrayList<Integer> row = new ArrayList<Integer>();
+			row.add(values[0]);
+			row.add(values[1]);
+			tuples.add(row);
+		}
+		TupleIterator it = new TupleIterator(Utility.getTupleDesc(2), input);
+		it.open();
+		return it;
+	}
+
+	private BTreeFile build(BTreeBulkLoader loader, DbIterator input) throws Exception {
+		BTreeFile bf = loader.build(input, bFile);
+		Database.getCatalog().addTable(bf, SystemTestUtil.getUUID());
+		return bf;
+	}
+
+	/**
+	 * Small pages and short runs give a three-level tree built from several
+	 * rounds of merges; keys repeat across leaf boundaries.
+	 */
+	@Test public void buildMultiLevel() throws Exception {
+		BufferPool.setPageSize(1024);
+		ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+		BTreeBulkLoader loader = new BTreeBulkLoader(0, 0.5, 500, 4, 4);
+		BTreeFile bf = build(loader, randomTuples(30000, 5000, tuples));
+
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
+				tid, BTreeRootPtrPage.getId(bf.getId()), Permissions.READ_ONLY);
+		BTreeInternalPage root = (BTreeInternalPage) Database.getBufferPool().getPage(
+				tid, rootPtr.getRootId(), Permissions.READ_ONLY);
+		// the children of the root are internal pages too
+		assertEquals(BTreePageId.INTERNAL, root.iterator().next().getLeftChild().pgcateg());
+		SystemTestUtil.matchTuples(bf, tuples);
+
+		// every key can be found through the index
+		IndexPredicate ipred = new IndexPredicate(Predicate.Op.EQUALS, new IntField(tuples.get(17).get(0)));
+		DbFileIterator it = bf.indexIterator(tid, ipred);
+		it.open();
+		boolean found = false;
+		while (it.hasNext())
+			found |= it.next().getField(1).equals(new IntField(tuples.get(17).get(1)));
+		it.close();
+		assertTrue(found);
+	}
+
+	/**
+	 * A lower fill factor spreads the same tuples over more pages.
+	 */
+	@Test public void fillFactor() throws Exception {
+		ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+		BTreeFile full = build(new BTreeBulkLoader(0, 1.0), randomTuples(5020, 1 << 20, tuples));
+		// 10 full leaves and the root
+		assertEquals(11, full.numPages());
+
+		bFile = File.createTempFile("bulk", ".dat");
+		bFile.deleteOnExit();
+		tuples.clear();
+		BTreeFile half = build(new BTreeBulkLoader(0, 0.5), randomTuples(5020, 1 << 20, tuples));
+		assertEquals(21, half.numPages());
+		BTreeChecker.checkRep(half, tid, new HashMap<PageId, Page>(), true);
+		SystemTestUtil.matchTuples(half, tuples);
+	}
+
+	/**
+	 * A built tree takes inserts like any other.
+	 */
+	@Test public void insertAfterBuild() throws Exception {
+		ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+		BTreeFile bf = build(new BTreeBulkLoader(0, 1.0), randomTuples(3000, 1000, tuples));
+		for (int i = 0; i < 600; ++i) {
+			Database.getBufferPool().insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(i, 2));
+			ArrayList<Integer> row = new ArrayList<Integer>();
+			row.add(i);
+			row.add(i);
+			tuples.add(row);
+		}
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+		Database.getBufferPool().transactionComplete(tid);
+		tid = new TransactionId();
+		SystemTestUtil.matchTuples(bf, tuples);
+	}
+
+	@Test public void emptyInput() throws Exception {
+		ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+		BTreeFile bf = build(new BTreeBulkLoader(0, 1.0), randomTuples(0, 1, tuples));
+		assertEquals(0, bf.numPages());
+		Database.getBufferPool().insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(1, 2));
+		Database.getBufferPool().transactionComplete(tid);
+		tid = new TransactionId();
+		tuples.add(new ArrayList<Integer>(Arrays.asList(1, 1)));
+		SystemTestUtil.matchTuples(bf, tuples);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeBulkLoaderTest.class);
+	}
+}
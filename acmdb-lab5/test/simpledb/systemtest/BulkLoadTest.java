@@ -0,0 +1,210 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+public class BulkLoadTest extends SimpleDbTestBase {
+    private static final int TUPLES_PER_PAGE = 504;
+
+    private HeapFile hf;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(2, TUPLES_PER_PAGE * 2, null, tuples);
+    }
+
+    /** @return an opened iterator over n new tuples, which are also added to expected */
+    private static DbIterator newTuples(int n, ArrayList<ArrayList<Integer>> expected) {
+        ArrayList<Tuple> loaded = new ArrayList<Tuple>();
+        for (int i = 0; i < n; ++i) {
+            int[] values = { i, -i };
+            loaded.add(Utility.getHeapTuple(values));
+            if (expected != null) {
+                ArrayList<Integer> row = new ArrayList<Integer>();
+                row.add(values[0]);
+                row.add(values[1]);
+                expected.add(row);
+            }
+        }
+        TupleIterator it = new TupleIterator(Utility.getTupleDesc(2), loaded);
+        it.open();
+        return it;
+    }
+
+    /**
+     * A committed load appends full pages plus one partly filled page, and
+     * is logged with one record per run of pages.
+     */
+    @Test public void loadAndCommit() throws Exception {
+        int n = TUPLES_PER_PAGE * (HeapFile.BULK_LOAD_BATCH_PAGES + 1) + 10;
+        Transaction t = new Transaction();
+        t.start();
+        int records = Database.getLogFile().getTotalRecords();
+        assertEquals(n, hf.bulkLoad(t.getId(), newTuples(n, tuples)));
+        assertEquals(records + 2, Database.getLogFile().getTotalRecords());
+        assertEquals(2 + HeapFile.BULK_LOAD_BATCH_PAGES + 2, hf.numPages());
+        assertTrue(Database.getBufferPool().holdsLock(t.getId(), new HeapPageId(hf.getId(), 2)));
+        t.commit();
+
+        SystemTestUtil.matchTuples(hf, tuples);
+        // the last page still has room for inserts
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { 1, 2 }));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(2 + HeapFile.BULK_LOAD_BATCH_PAGES + 2, hf.numPages());
+    }
+
+    /**
+     * An aborted load leaves the file as it was.
+     */
+    @Test public void loadAndAbort() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        hf.bulkLoad(t.getId(), newTuples(TUPLES_PER_PAGE * 3, null));
+        assertEquals(5, hf.numPages());
+        t.abort();
+
+        assertEquals(2, hf.numPages());
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * Pages appended after an aborted load survive it; the pages of the
+     * load are emptied instead of cut off.
+     */
+    @Test public void abortWithLaterAppends() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        hf.bulkLoad(t.getId(), newTuples(TUPLES_PER_PAGE, null));
+
+        TransactionId other = new TransactionId();
+        Database.getBufferPool().insertTuple(other, hf.getId(), Utility.getHeapTuple(new int[] { 7, 7 }));
+        Database.getBufferPool().transactionComplete(other);
+        ArrayList<Integer> row = new ArrayList<Integer>();
+        row.add(7);
+        row.add(7);
+        tuples.add(row);
+
+        t.abort();
+        assertEquals(4, hf.numPages());
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /** HeapFile that checks each run of appended pages is logged before it is written */
+    static class LogCheckingHeapFile extends HeapFile {
+        int expectedRecords;
+        int runs = 0;
+
+        LogCheckingHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public void writePages(List<Page> pages) throws IOException {
+            ++runs;
+            assertEquals(expectedRecords + runs, Database.getLogFile().getTotalRecords());
+            super.writePages(pages);
+        }
+    }
+
+    /**
+     * The BULK_APPEND record of every run of pages is in the log before the
+     * pages are written to the file.
+     */
+    @Test public void loggedBeforeWritten() throws Exception {
+        LogCheckingHeapFile lf = new LogCheckingHeapFile(hf.getFile(), Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(lf, "logchecked");
+        int n = TUPLES_PER_PAGE * (2 * HeapFile.BULK_LOAD_BATCH_PAGES + 1);
+        Transaction t = new Transaction();
+        t.start();
+        lf.expectedRecords = Database.getLogFile().getTotalRecords();
+        assertEquals(n, lf.bulkLoad(t.getId(), newTuples(n, null)));
+        assertEquals(3, lf.runs);
+        t.abort();
+
+        assertEquals(2, lf.numPages());
+        SystemTestUtil.matchTuples(lf, tuples);
+    }
+
+    /** Runs the work of a transaction in a thread of its own */
+    private abstract static class Worker extends Thread {
+        volatile Exception error;
+
+        abstract void work() throws Exception;
+
+        public void run() {
+            try {
+                work();
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+    }
+
+    /**
+     * A load whose child waits for a page lock lets other transactions
+     * append pages meanwhile.  Were the append lock held while waiting, the
+     * holder of the page lock could block on it, unseen by deadlock
+     * detection.
+     */
+    @Test public void childWaitsOutsideAppendLock() throws Exception {
+        final BufferPool bp = Database.getBufferPool();
+        final TransactionId t1 = new TransactionId();
+        final TransactionId t2 = new TransactionId();
+        bp.getPage(t2, new HeapPageId(hf.getId(), 0), Permissions.READ_WRITE);
+        final int[] loaded = new int[1];
+        Worker loader = new Worker() {
+            void work() throws Exception {
+                SeqScan scan = new SeqScan(t1, hf.getId(), "");
+                scan.open();
+                loaded[0] = hf.bulkLoad(t1, scan);
+            }
+        };
+        loader.start();
+        Thread.sleep(200);
+        Worker inserter = new Worker() {
+            void work() throws Exception {
+                bp.insertTuple(t2, hf.getId(), Utility.getHeapTuple(new int[] { 7, 7 }));
+                bp.transactionComplete(t2);
+            }
+        };
+        inserter.start();
+        inserter.join(5000);
+        loader.join(5000);
+        assertFalse(inserter.isAlive() || loader.isAlive());
+        assertNull(inserter.error);
+        assertNull(loader.error);
+        bp.transactionComplete(t1);
+
+        // the scan saw the two pages the file had when it was opened
+        assertEquals(2 * TUPLES_PER_PAGE, loaded[0]);
+        assertEquals(2 + 1 + 2, hf.numPages());
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>(tuples);
+        expected.addAll(tuples);
+        ArrayList<Integer> row = new ArrayList<Integer>();
+        row.add(7);
+        row.add(7);
+        expected.add(row);
+        SystemTestUtil.matchTuples(hf, expected);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BulkLoadTest.class);
+    }
+}
@@ -0,0 +1,165 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+public class ColumnFileTest extends SimpleDbTestBase {
+
+    private static final int COLUMNS = 20;
+
+    /** A ColumnFile that records the columns of the pages it reads. */
+    private static class CountingColumnFile extends ColumnFile {
+        final Set<Integer> columnsRead = Collections.synchronizedSet(new TreeSet<Integer>());
+
+        CountingColumnFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            int k = pid.pageNumber() % pagesPerGroup();
+            // every column of the test table takes one run of equal length
+            columnsRead.add(k / (pagesPerGroup() / getTupleDesc().numFields()));
+            return super.readPage(pid);
+        }
+    }
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private CountingColumnFile cf;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(COLUMNS, 3000, null, tuples);
+        File f = File.createTempFile("columns", ".dat");
+        f.deleteOnExit();
+        DbIterator rows = new SeqScan(new TransactionId(), hf.getId(), "");
+        rows.open();
+        ColumnFile.create(rows, f);
+        rows.close();
+        cf = new CountingColumnFile(f, Utility.getTupleDesc(COLUMNS, "field"));
+        Database.getCatalog().addTable(cf, "wide");
+    }
+
+    private static ArrayList<ArrayList<Integer>> project(List<ArrayList<Integer>> rows, int... columns) {
+        ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> row : rows) {
+            ArrayList<Integer> narrow = new ArrayList<Integer>();
+            for (int c : columns)
+                narrow.add(row.get(c));
+            result.add(narrow);
+        }
+        return result;
+    }
+
+    /**
+     * A full scan returns every row; a scan of some columns reads only
+     * their pages and returns narrow tuples.
+     */
+    @Test public void scanAndPrune() throws Exception {
+        assertEquals(0, cf.numPages() % cf.pagesPerGroup());
+        SystemTestUtil.matchTuples(cf, tuples);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        cf.columnsRead.clear();
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, cf.getId(), "w", new int[] { 3, 17 });
+        assertEquals(2, scan.getTupleDesc().numFields());
+        assertEquals("w.field17", scan.getTupleDesc().getFieldName(1));
+        SystemTestUtil.matchTuples(scan, project(tuples, 3, 17));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(new TreeSet<Integer>(Arrays.asList(3, 17)), cf.columnsRead);
+    }
+
+    /**
+     * The query planner hands the scan of a ColumnFile the columns the
+     * query uses.
+     */
+    @Test public void plannerPrunes() throws Exception {
+        Map<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("wide", new TableStats(cf.getId(), 1));
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        cf.columnsRead.clear();
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(cf.getId(), "w");
+        lp.addFilter("w.field5", Predicate.Op.GREATER_THAN, "1000");
+        lp.addProjectField("w.field1", null);
+        TransactionId tid = new TransactionId();
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> row : tuples)
+            if (row.get(5) > 1000)
+                expected.add(new ArrayList<Integer>(Arrays.asList(row.get(1))));
+        plan.open();
+        SystemTestUtil.matchTuples(plan, expected);
+        plan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(new TreeSet<Integer>(Arrays.asList(1, 5)), cf.columnsRead);
+    }
+
+    /**
+     * Inserts fill free rows of every column; deletes through a narrow
+     * tuple remove the whole row; an abort takes an insert back.
+     */
+    @Test public void insertDeleteAbort() throws Exception {
+        TransactionId tid = new TransactionId();
+        int[] values = new int[COLUMNS];
+        Arrays.fill(values, 7);
+        Database.getBufferPool().insertTuple(tid, cf.getId(), Utility.getHeapTuple(values));
+        ArrayList<Integer> row = new ArrayList<Integer>();
+        for (int v : values)
+            row.add(v);
+        tuples.add(row);
+
+        DbFileIterator it = cf.iterator(tid, new int[] { 0 });
+        it.open();
+        Tuple victim = it.next();
+        it.close();
+        Database.getBufferPool().deleteTuple(tid, victim);
+        tuples.remove(0);
+        Database.getBufferPool().transactionComplete(tid);
+        SystemTestUtil.matchTuples(cf, tuples);
+
+        tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, cf.getId(), Utility.getHeapTuple(values));
+        Database.getBufferPool().transactionComplete(tid, false);
+        SystemTestUtil.matchTuples(cf, tuples);
+    }
+
+    /**
+     * A table that starts empty grows a group at a time.
+     */
+    @Test public void growFromEmpty() throws Exception {
+        File f = File.createTempFile("columns", ".dat");
+        f.deleteOnExit();
+        ColumnFile empty = new ColumnFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(empty, SystemTestUtil.getUUID());
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i <= empty.rowsPerGroup(); ++i) {
+            Database.getBufferPool().insertTuple(tid, empty.getId(), Utility.getHeapTuple(new int[] { i, -i }));
+            expected.add(new ArrayList<Integer>(Arrays.asList(i, -i)));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(2, empty.numGroups());
+        SystemTestUtil.matchTuples(empty, expected);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ColumnFileTest.class);
+    }
+}
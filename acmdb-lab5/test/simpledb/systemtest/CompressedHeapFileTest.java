@@ -0,0 +1,104 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+public class CompressedHeapFileTest extends SimpleDbTestBase {
+
+    private static File tempFile() throws Exception {
+        File f = File.createTempFile("compressed", ".dat");
+        f.deleteOnExit();
+        CompressedHeapFile.indexFileFor(f).deleteOnExit();
+        return f;
+    }
+
+    private static CompressedHeapFile convert(File heap, ArrayList<ArrayList<Integer>> tuples,
+            PageCodec codec) throws Exception {
+        CompressedHeapFile cf = CompressedHeapFile.fromHeapFile(heap, Utility.getTupleDesc(3),
+                tempFile(), codec);
+        Database.getCatalog().addTable(cf, SystemTestUtil.getUUID());
+        return cf;
+    }
+
+    /**
+     * A converted table has the same pages and tuples in much less space,
+     * with either codec.
+     */
+    @Test public void convertAndScan() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File heap = SystemTestUtil.createRandomHeapFileUnopened(3, 3000, 100, null, tuples);
+        long heapPages = heap.length() / BufferPool.getPageSize();
+        for (PageCodec codec : new PageCodec[] { new DeflatePageCodec(), new LzPageCodec() }) {
+            CompressedHeapFile cf = convert(heap, tuples, codec);
+            assertEquals(heapPages, cf.numPages());
+            assertTrue(cf.sizeOnDisk() * 2 < heap.length());
+            SystemTestUtil.matchTuples(cf, tuples);
+        }
+    }
+
+    /**
+     * Inserts and deletes go through the buffer pool as for a HeapFile, and
+     * their pages are found again by a new instance on the same files.
+     */
+    @Test public void updateAndReopen() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File heap = SystemTestUtil.createRandomHeapFileUnopened(3, 1000, 100, null, tuples);
+        CompressedHeapFile cf = convert(heap, tuples, new LzPageCodec());
+        int pages = cf.numPages();
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = cf.iterator(tid);
+        it.open();
+        Tuple victim = it.next();
+        it.close();
+        Database.getBufferPool().deleteTuple(tid, victim);
+        tuples.remove(SystemTestUtil.tupleToList(victim));
+        for (int i = 0; i < 700; ++i) {
+            Database.getBufferPool().insertTuple(tid, cf.getId(), Utility.getHeapTuple(new int[] { i, -i, 1 }));
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            row.add(i);
+            row.add(-i);
+            row.add(1);
+            tuples.add(row);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+        assertTrue(cf.numPages() > pages);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        CompressedHeapFile reopened = new CompressedHeapFile(cf.getFile(), Utility.getTupleDesc(3),
+                new LzPageCodec());
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        assertEquals(cf.numPages(), reopened.numPages());
+        SystemTestUtil.matchTuples(reopened, tuples);
+    }
+
+    /**
+     * An aborted insert leaves no trace.
+     */
+    @Test public void abort() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File heap = SystemTestUtil.createRandomHeapFileUnopened(3, 10, 100, null, tuples);
+        CompressedHeapFile cf = convert(heap, tuples, new DeflatePageCodec());
+
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, cf.getId(), Utility.getHeapTuple(new int[] { 1, 2, 3 }));
+        Database.getBufferPool().transactionComplete(tid, false);
+        SystemTestUtil.matchTuples(cf, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedHeapFileTest.class);
+    }
+}
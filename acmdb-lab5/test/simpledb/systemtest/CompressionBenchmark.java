@@ -0,0 +1,74 @@
+package simpledb.systemtest;
+
+import java.io.File;
+
+import simpledb.*;
+
+/**
+ * Compares the disk footprint and scan time of a table stored as a plain
+ * HeapFile with the same table in a {@link CompressedHeapFile}, for each
+ * bundled {@link PageCodec}.  Every scan starts with an empty buffer pool;
+ * the operating system's cache is warm for all of them, so the times show
+ * the CPU cost of decompression rather than savings in disk reads.
+ * <p>
+ * Run with: java -Xmx512m -cp bin/src:bin/test
+ * simpledb.systemtest.CompressionBenchmark [pages] [maxValue]
+ */
+public class CompressionBenchmark {
+    private static final int SCANS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int maxValue = args.length > 1 ? Integer.parseInt(args[1]) : 1 << 10;
+        TupleDesc td = Utility.getTupleDesc(4);
+        int tuplesPerPage = BufferPool.getPageSize() * 8 / (td.getSize() * 8 + 1);
+        File file = SystemTestUtil.createRandomHeapFileUnopened(4, pages * tuplesPerPage - tuplesPerPage / 2,
+                maxValue, null, null);
+
+        System.out.printf("%d-page table of 4 int columns in [0, %d), best of %d cold scans%n",
+                pages, maxValue, SCANS);
+        System.out.printf("%-8s %12s %8s %12s %14s%n", "format", "size(KB)", "ratio", "scan(ms)", "checksum");
+        String[] names = { "heap", "deflate", "lz" };
+        PageCodec[] codecs = { null, new DeflatePageCodec(), new LzPageCodec() };
+        for (int i = 0; i < names.length; ++i) {
+            Database.reset();
+            DbFile table;
+            long size;
+            if (codecs[i] == null) {
+                table = new HeapFile(file, td);
+                size = file.length();
+            } else {
+                File dest = File.createTempFile("compressed", ".dat");
+                dest.deleteOnExit();
+                CompressedHeapFile.indexFileFor(dest).deleteOnExit();
+                CompressedHeapFile cf = CompressedHeapFile.fromHeapFile(file, td, dest, codecs[i]);
+                table = cf;
+                size = cf.sizeOnDisk();
+            }
+            Database.getCatalog().addTable(table, "t");
+
+            long best = Long.MAX_VALUE, sum = 0;
+            for (int scan = 0; scan < SCANS; ++scan) {
+                Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+                long start = System.nanoTime();
+                sum = scan(table);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            System.out.printf("%-8s %12d %8.2f %12d %14d%n", names[i], size / 1024,
+                    (double) file.length() / size, best / 1000000, sum);
+            table.close();
+        }
+    }
+
+    private static long scan(DbFile table) throws Exception {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, table.getId(), "");
+        scan.open();
+        long sum = 0;
+        while (scan.hasNext())
+            sum += ((IntField) scan.next().getField(0)).getValue();
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return sum;
+    }
+}
@@ -0,0 +1,83 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Compares the buffer pool replacement policies on a workload that mixes
+ * point lookups on a small hot table with full scans of a table several
+ * times larger than the pool, and prints the hit ratio of each policy.
+ * <p>
+ * Run with: java -cp bin/src:bin/test simpledb.systemtest.EvictionBenchmark
+ * [policy ...]
+ */
+public class EvictionBenchmark {
+    private static final int POOL_PAGES = 64;
+    private static final int HOT_PAGES = 40;
+    private static final int BIG_PAGES = 1000;
+    private static final int ROUNDS = 10;
+    private static final int LOOKUPS_PER_ROUND = 5000;
+
+    /** HeapFile that counts the pages it reads from disk */
+    static class CountingHeapFile extends HeapFile {
+        int reads = 0;
+
+        CountingHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            ++reads;
+            return super.readPage(pid);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String[] policies = args.length > 0 ? args : new String[] { "clock", "lru-1", "lru-2" };
+        int tuplesPerPage = BufferPool.getPageSize() * 8 / (Utility.getTupleDesc(2).getSize() * 8 + 1);
+
+        File hotFile = SystemTestUtil.createRandomHeapFileUnopened(2, HOT_PAGES * tuplesPerPage, 1 << 16, null, null);
+        File bigFile = SystemTestUtil.createRandomHeapFileUnopened(2, BIG_PAGES * tuplesPerPage, 1 << 16, null, null);
+
+        System.out.printf("%d-page pool, %d hot pages, %d-page scans, %d rounds of %d lookups + 1 scan%n",
+                POOL_PAGES, HOT_PAGES, BIG_PAGES, ROUNDS, LOOKUPS_PER_ROUND);
+        System.out.printf("%-8s %12s %12s %12s %10s%n", "policy", "lookup hit%", "overall hit%", "disk reads", "time(ms)");
+        for (String policy : policies) {
+            Database.reset();
+            CountingHeapFile hot = new CountingHeapFile(hotFile, Utility.getTupleDesc(2));
+            CountingHeapFile big = new CountingHeapFile(bigFile, Utility.getTupleDesc(2));
+            Database.getCatalog().addTable(hot, "hot");
+            Database.getCatalog().addTable(big, "big");
+            BufferPool bp = Database.resetBufferPool(POOL_PAGES, BufferPool.createPolicy(policy, POOL_PAGES));
+
+            Random r = new Random(42);
+            long lookups = 0, accesses = 0;
+            long start = System.currentTimeMillis();
+            for (int round = 0; round < ROUNDS; ++round) {
+                TransactionId tid = new TransactionId();
+                for (int i = 0; i < LOOKUPS_PER_ROUND; ++i) {
+                    // skewed towards the first pages, like an index root and its children
+                    int pgNo = (int) (HOT_PAGES * Math.pow(r.nextDouble(), 2));
+                    bp.getPage(tid, new HeapPageId(hot.getId(), pgNo), Permissions.READ_ONLY);
+                }
+                lookups += LOOKUPS_PER_ROUND;
+                DbFileIterator it = big.iterator(tid);
+                it.open();
+                while (it.hasNext())
+                    it.next();
+                it.close();
+                accesses += big.numPages();
+                bp.transactionComplete(tid);
+            }
+            long elapsed = System.currentTimeMillis() - start;
+            accesses += lookups;
+            int reads = hot.reads + big.reads;
+            System.out.printf("%-8s %11.2f%% %11.2f%% %12d %10d%n", policy,
+                    100.0 * (lookups - hot.reads) / lookups,
+                    100.0 * (accesses - reads) / accesses, reads, elapsed);
+        }
+    }
+}
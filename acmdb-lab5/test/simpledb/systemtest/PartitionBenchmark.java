@@ -0,0 +1,90 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Measures the throughput of several threads that read random pages of a
+ * shared table and commit small inserts into tables of their own, with the
+ * buffer pool split into different numbers of partitions.
+ * <p>
+ * Run with: java -cp bin/src:bin/test simpledb.systemtest.PartitionBenchmark
+ * [threads [partitions ...]]
+ */
+public class PartitionBenchmark {
+    private static final int POOL_PAGES = 512;
+    private static final int SHARED_PAGES = 2000;
+    private static final int SECONDS = 5;
+    private static final int READS_PER_TXN = 20;
+    private static final int INSERTS_PER_TXN = 5;
+
+    public static void main(String[] args) throws Exception {
+        final int threads = args.length > 0 ? Integer.parseInt(args[0])
+                : Runtime.getRuntime().availableProcessors();
+        List<Integer> partitions = new ArrayList<Integer>();
+        for (int i = 1; i < args.length; ++i)
+            partitions.add(Integer.parseInt(args[i]));
+        if (partitions.isEmpty()) {
+            partitions.add(1);
+            partitions.add(threads);
+            partitions.add(threads * 4);
+        }
+
+        int tuplesPerPage = BufferPool.getPageSize() * 8 / (Utility.getTupleDesc(2).getSize() * 8 + 1);
+        File sharedFile = SystemTestUtil.createRandomHeapFileUnopened(2, SHARED_PAGES * tuplesPerPage,
+                1 << 16, null, null);
+
+        System.out.printf("%d threads, %d-page pool, %d-page shared table, %d reads + %d inserts per transaction%n",
+                threads, POOL_PAGES, SHARED_PAGES, READS_PER_TXN, INSERTS_PER_TXN);
+        System.out.printf("%-10s %12s %14s%n", "partitions", "txns/s", "getPage/s");
+        for (int n : partitions) {
+            Database.reset();
+            final HeapFile shared = Utility.openHeapFile(2, sharedFile);
+            final HeapFile[] own = new HeapFile[threads];
+            for (int i = 0; i < threads; ++i) {
+                File f = File.createTempFile("partition", ".dat");
+                f.deleteOnExit();
+                own[i] = Utility.openHeapFile(2, f);
+            }
+            final BufferPool bp = Database.resetBufferPool(new BufferPool(POOL_PAGES, n));
+            final long deadline = System.currentTimeMillis() + SECONDS * 1000L;
+            final long[] txns = new long[threads];
+            Thread[] workers = new Thread[threads];
+            for (int i = 0; i < threads; ++i) {
+                final int me = i;
+                workers[i] = new Thread() {
+                    public void run() {
+                        Random r = new Random(me);
+                        try {
+                            while (System.currentTimeMillis() < deadline) {
+                                TransactionId tid = new TransactionId();
+                                for (int k = 0; k < READS_PER_TXN; ++k)
+                                    bp.getPage(tid, new HeapPageId(shared.getId(), r.nextInt(SHARED_PAGES)),
+                                            Permissions.READ_ONLY);
+                                for (int k = 0; k < INSERTS_PER_TXN; ++k)
+                                    bp.insertTuple(tid, own[me].getId(),
+                                            Utility.getHeapTuple(new int[] { me, k }));
+                                bp.transactionComplete(tid);
+                                ++txns[me];
+                            }
+                        } catch (Exception e) {
+                            e.printStackTrace();
+                        }
+                    }
+                };
+                workers[i].start();
+            }
+            long total = 0;
+            for (int i = 0; i < threads; ++i) {
+                workers[i].join();
+                total += txns[i];
+            }
+            System.out.printf("%-10d %12.0f %14.0f%n", bp.numPartitions(), (double) total / SECONDS,
+                    (double) total * (READS_PER_TXN + INSERTS_PER_TXN) / SECONDS);
+        }
+    }
+}
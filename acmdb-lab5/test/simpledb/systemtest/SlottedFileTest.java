@@ -0,0 +1,138 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+public class SlottedFileTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+
+    private SlottedFile sf;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        File f = File.createTempFile("slotted", ".dat");
+        f.deleteOnExit();
+        sf = new SlottedFile(f, TD);
+        Database.getCatalog().addTable(sf, SystemTestUtil.getUUID());
+    }
+
+    private static Tuple tuple(int i, String s) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField(s, Type.STRING_LEN));
+        return t;
+    }
+
+    private HashSet<String> scan() throws Exception {
+        HashSet<String> rows = new HashSet<String>();
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, sf.getId(), "");
+        scan.open();
+        while (scan.hasNext())
+            assertTrue(rows.add(scan.next().toString()));
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return rows;
+    }
+
+    /**
+     * A table of short codes takes a fraction of the pages a HeapFile would.
+     */
+    @Test public void insertAndScan() throws Exception {
+        int n = 5000;
+        HashSet<String> expected = new HashSet<String>();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < n; ++i) {
+            Tuple t = tuple(i, "C" + (i % 100));
+            expected.add(t.toString());
+            Database.getBufferPool().insertTuple(tid, sf.getId(), t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        int heapPageTuples = BufferPool.getPageSize() * 8 / (TD.getSize() * 8 + 1);
+        int heapPages = (n + heapPageTuples - 1) / heapPageTuples;
+        assertTrue(sf.numPages() * 5 < heapPages);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(expected, scan());
+    }
+
+    /**
+     * Space freed by deletes is found again by later inserts, and tuples
+     * that do not fit on a page go on another.
+     */
+    @Test public void deleteAndReinsert() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 1000; ++i)
+            Database.getBufferPool().insertTuple(tid, sf.getId(), tuple(i, "row " + i));
+        Database.getBufferPool().transactionComplete(tid);
+        int pages = sf.numPages();
+
+        tid = new TransactionId();
+        ArrayList<Tuple> victims = new ArrayList<Tuple>();
+        DbFileIterator it = sf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(0)).getValue() % 2 == 0)
+                victims.add(t);
+        }
+        it.close();
+        for (Tuple t : victims)
+            Database.getBufferPool().deleteTuple(tid, t);
+        Database.getBufferPool().transactionComplete(tid);
+
+        HashSet<String> expected = new HashSet<String>();
+        for (int i = 1; i < 1000; i += 2)
+            expected.add(tuple(i, "row " + i).toString());
+        tid = new TransactionId();
+        for (int i = 0; i < 500; ++i) {
+            Tuple t = tuple(-i, "new " + i);
+            expected.add(t.toString());
+            Database.getBufferPool().insertTuple(tid, sf.getId(), t);
+        }
+        // a long string still fits on a page of its own
+        Tuple big = tuple(7, new String(new char[Type.STRING_LEN]).replace('\0', 'x'));
+        expected.add(big.toString());
+        Database.getBufferPool().insertTuple(tid, sf.getId(), big);
+        Database.getBufferPool().transactionComplete(tid);
+
+        assertTrue(sf.numPages() <= pages + 1);
+        assertEquals(expected, scan());
+    }
+
+    /**
+     * An aborted insert leaves no trace.
+     */
+    @Test public void abort() throws Exception {
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, sf.getId(), tuple(1, "kept"));
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, sf.getId(), tuple(2, "dropped"));
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        HashSet<String> expected = new HashSet<String>();
+        expected.add(tuple(1, "kept").toString());
+        assertEquals(expected, scan());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedFileTest.class);
+    }
+}
@@ -0,0 +1,91 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import simpledb.*;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Runs transactions that dirty more pages than the buffer pool holds, which
+ * only works when the buffer pool may evict dirty pages (STEAL mode).
+ */
+public class StealTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 50;
+    private static final int POOL_PAGES = 4;
+
+    private int tuplesPerPage() {
+        return BufferPool.getPageSize() * 8 / (Utility.getTupleDesc(COLUMNS).getSize() * 8 + 1);
+    }
+
+    @Test public void testInsertMorePagesThanPool()
+            throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> sourceTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile source = SystemTestUtil.createRandomHeapFile(COLUMNS, tuplesPerPage() * 3, null, sourceTuples);
+        HeapFile destination = SystemTestUtil.createRandomHeapFile(COLUMNS, 0, null, null);
+        BufferPool bp = Database.resetBufferPool(POOL_PAGES);
+        bp.setSteal(true);
+
+        // insert the source table three times, 9 pages in total
+        Transaction t = new Transaction();
+        t.start();
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 3; ++i) {
+            Insert insert = new Insert(t.getId(), new SeqScan(t.getId(), source.getId(), ""), destination.getId());
+            insert.open();
+            assertEquals(sourceTuples.size(), ((IntField) insert.next().getField(0)).getValue());
+            insert.close();
+            expected.addAll(sourceTuples);
+        }
+        assertTrue(destination.numPages() > POOL_PAGES);
+        t.commit();
+
+        SystemTestUtil.matchTuples(destination, expected);
+    }
+
+    @Test public void testAbortRestoresStolenPages()
+            throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, tuplesPerPage() * 10, null, tuples);
+        BufferPool bp = Database.resetBufferPool(POOL_PAGES);
+        bp.setSteal(true);
+
+        // delete every tuple, which dirties all 10 pages
+        Transaction t = new Transaction();
+        t.start();
+        Delete delete = new Delete(t.getId(), new SeqScan(t.getId(), table.getId(), ""));
+        delete.open();
+        assertEquals(tuples.size(), ((IntField) delete.next().getField(0)).getValue());
+        delete.close();
+        SystemTestUtil.matchTuples(table, t.getId(), new ArrayList<ArrayList<Integer>>());
+        t.abort();
+
+        SystemTestUtil.matchTuples(table, tuples);
+    }
+
+    @Test public void testNoStealFailsOnFullPool()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, tuplesPerPage() * 10, null, null);
+        Database.resetBufferPool(POOL_PAGES);
+
+        Transaction t = new Transaction();
+        t.start();
+        Delete delete = new Delete(t.getId(), new SeqScan(t.getId(), table.getId(), ""));
+        delete.open();
+        try {
+            delete.next();
+            fail("expected DbException: every page in the pool is dirty");
+        } catch (DbException e) {
+            // expected
+        }
+        delete.close();
+        t.abort();
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(StealTest.class);
+    }
+}